@@ -6,8 +6,18 @@
  * 
  */
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Scanner;
+import java.util.function.Function;
 
 import computation.contextfreegrammar.*;
 import computation.parser.*;
@@ -51,6 +61,10 @@ class Main {
 	private static Scanner userin = new Scanner(System.in);
 
 	public static void main(String[] args) {
+		if(args.length > 0 && args[0].equals("--batch")) {
+			batch(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		if(!SKIP_TO_TESTS) {
 			System.out.println("|------- Welcome to the demo script. I recommend turning on word wrap in your console. -------|\n"
 					+          "|------- Make the width of the window at least this wide without wrapping if possible. -------|\n");
@@ -289,6 +303,169 @@ class Main {
 		System.out.println("Total tests passed: " + success + " out of " + total);
 	}
 
+	private static final String BATCH_USAGE = "usage: java Main --batch [options] [file]\n"
+			+ "Parses each line of the file (or of standard input) as a word, and prints\n"
+			+ "'accept' or 'reject' and the word for each, or 'malformed' and the line\n"
+			+ "number for a line which isn't a word (such as one with an ε in it), or\n"
+			+ "'error' and the line number if the engine fails on a word. A summary of\n"
+			+ "the run goes to standard error at the end.\n"
+			+ "  --grammar G   simpleCNF, MyGrammar (the default), or a file of rules\n"
+			+ "                (see ContextFreeGrammar.fromString)\n"
+			+ "  --engine E    Parser, CYKParser, BitsetCYKParser or EarleyParser (the default)\n"
+			+ "  --tree        also print the parse tree of each accepted word, on one line\n"
+			+ "                with each node's children in square brackets";
+
+	/*
+	 * The headless mode: streams words through one parser and reports how fast
+	 * it went. Only one line and its result are held at a time, so it runs in
+	 * the same memory however long the input is.
+	 */
+	public static void batch(String[] args) {
+		String grammarName = "MyGrammar";
+		String engine = "EarleyParser";
+		boolean trees = false;
+		String input = null;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--grammar") && i + 1 < args.length) {
+				grammarName = args[++i];
+			} else if(args[i].equals("--engine") && i + 1 < args.length) {
+				engine = args[++i];
+			} else if(args[i].equals("--tree")) {
+				trees = true;
+			} else if(!args[i].startsWith("--") && input == null) {
+				input = args[i];
+			} else {
+				batchError("unknown option " + args[i]);
+			}
+		}
+
+		ContextFreeGrammar cfg = batchGrammar(grammarName).freeze();
+		IParser batchParser = batchParser(engine);
+		if((batchParser instanceof CYKParser || batchParser instanceof BitsetCYKParser) && !cfg.isInChomskyNormalForm()) {
+			batchError(engine + " needs a grammar in Chomsky normal form");
+		}
+		Function<Word, ParseResult> parse = batchParser.parserFor(cfg);
+
+		LatencyHistogram latencies = new LatencyHistogram();
+		long accepted = 0;
+		long malformed = 0;
+		long failed = 0;
+		long lines = 0;
+		long symbols = 0;
+		long start = System.nanoTime();
+		IOException readError = null;
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+		// a file is memory-mapped and read straight into words, standard input goes through strings
+		try(CorpusReader corpus = input == null ? null : new CorpusReader(Paths.get(input));
+				BufferedReader stdin = input != null ? null
+						: new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)) {
+			while(true) {
+				Word w;
+				try {
+					if(corpus != null) {
+						w = corpus.next();
+					} else {
+						String line = stdin.readLine();
+						w = line == null ? null : new Word(line);
+					}
+				} catch(IllegalArgumentException e) {
+					// the reader has moved past the line, so report it and carry on
+					lines++;
+					malformed++;
+					out.println("malformed\tline " + lines + ": " + e.getMessage());
+					continue;
+				}
+				if(w == null) {
+					break;
+				}
+				lines++;
+				String tree = null;
+				ParseResult result;
+				long latency;
+				try {
+					long before = System.nanoTime();
+					result = parse.apply(w);
+					latency = System.nanoTime() - before;
+					// built after the clock stops, so the latencies are the same with or without --tree
+					if(trees && result.isAccepted()) {
+						tree = result.getTree().toBracketedString();
+					}
+				} catch(RuntimeException | StackOverflowError e) {
+					// e.g. a recursive engine on a very long word; the lines before and after still count
+					failed++;
+					out.println("error\tline " + lines + ": " + e);
+					continue;
+				}
+				latencies.record(latency);
+				symbols += w.length();
+
+				if(result.isAccepted()) {
+					accepted++;
+					out.print("accept\t");
+				} else {
+					out.print("reject\t");
+				}
+				out.println(w.length() == 0 ? "" : w.toString());
+				if(tree != null) {
+					out.println(tree);
+				}
+			}
+		} catch(IOException e) {
+			readError = e;
+		} finally {
+			out.flush();
+		}
+		if(readError != null) {
+			batchError("can't read " + (input == null ? "standard input" : input) + ": " + readError.getMessage());
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long words = latencies.getCount();
+		System.err.printf("%d words (%d accepted, %d rejected), %d malformed lines, %d errors, %d symbols in %.3f s%n",
+				words, accepted, words - accepted, malformed, failed, symbols, seconds);
+		System.err.printf("throughput %.0f words/s, %.0f symbols/s%n", words / seconds, symbols / seconds);
+		System.err.println("latency " + latencies);
+	}
+
+	private static ContextFreeGrammar batchGrammar(String name) {
+		if(name.equals("simpleCNF")) {
+			return ContextFreeGrammar.simpleCNF();
+		}
+		if(name.equals("MyGrammar")) {
+			return MyGrammar.makeGrammar();
+		}
+		try {
+			return ContextFreeGrammar.fromString(new String(Files.readAllBytes(Paths.get(name)), StandardCharsets.UTF_8));
+		} catch(IOException e) {
+			batchError("can't read grammar " + name + ": " + e.getMessage());
+		} catch(IllegalArgumentException e) {
+			batchError("bad grammar " + name + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	private static IParser batchParser(String name) {
+		switch(name) {
+		case "Parser":
+			return new Parser();
+		case "CYKParser":
+			return new CYKParser();
+		case "BitsetCYKParser":
+			return new BitsetCYKParser();
+		case "EarleyParser":
+			return new EarleyParser();
+		default:
+			batchError("unknown engine " + name);
+			return null;
+		}
+	}
+
+	private static void batchError(String message) {
+		System.err.println("Main: " + message);
+		System.err.println(BATCH_USAGE);
+		System.exit(2);
+	}
+
 	private static void pause() {
 		System.out.println("\n\n(Press enter to continue...)");
 		userin.nextLine();
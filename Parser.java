@@ -3,26 +3,20 @@ import computation.parser.*;
 import computation.parsetree.*;
 import computation.derivation.*;
 import java.util.*;
+import java.util.function.Function;
  
+//keeps no state between calls, so one Parser can be shared by any number of threads
 public class Parser implements IParser {
  
-  public Derivation derivationForTree; 
   private Word variableToWord(Variable var){
     Word w = new Word(var);
     return w;
   }
  
-  //method that changes Symbol to Word
-  private Word symbolToWord(Symbol symbol){
-    Word w = new Word(symbol);
-    return w;
-  }
- 
   //generates all possible 1-step derivations for a word
-  private List generateDerivationList(List<Rule> rules, Derivation d, int steps){
+  private List generateDerivationList(CompiledGrammar grammar, Derivation d){
     Word finalWord = d.getLatestWord();
     List<Derivation> oneStepDers = new ArrayList();
-    Derivation firstDerivation = new Derivation(d);
     int index=0;
     for(Symbol s: finalWord){
       if(s.isTerminal()){
@@ -30,31 +24,182 @@ public class Parser implements IParser {
         continue;
       }
       else{
-        for(Rule rule: rules){
-        firstDerivation = new Derivation(d);
-        Word wordOfRule = variableToWord(rule.getVariable());
-        if(wordOfRule.equals(symbolToWord(s))){
+        //only the rules for the leftmost variable, looked up by its id
+        for(int ruleId: grammar.getRulesFor(grammar.getVariableId(s))){
+          Rule rule = grammar.getRule(ruleId);
           Word derWord = finalWord.replace(index, rule.getExpansion());
-          firstDerivation.addStep(derWord, rule, steps);
-          Derivation newDerivation = firstDerivation;
-          oneStepDers.add(newDerivation);
-        }
-        else{
-          continue;
+          oneStepDers.add(d.addStep(derWord, rule, index)); //shares all the earlier steps with d
         }
       }
-    }
       break;
     }
     return oneStepDers;
   }
  
+  //decides which sentential forms of a leftmost derivation could still derive w, so the rest can be dropped
+  private static class FormFilter{
+    private final CompiledGrammar grammar;
+    private final Word w;
+    private final boolean nonShrinking; //true if only the start variable has an ε rule
+    private final boolean[] nullable; //variables that can derive ε
+    private final boolean[][] first; //first[v][t]: v can derive a word starting with terminal t
+    private final boolean[][] last; //last[v][t]: v can derive a word ending with terminal t
+ 
+    FormFilter(CompiledGrammar grammar, Word w){
+      this.grammar = grammar;
+      this.w = w;
+      boolean shrinks = false;
+      for(int r=0; r<grammar.getRuleCount(); r++){
+        if(grammar.getRuleExpansion(r).length==0 && grammar.getRuleVariable(r)!=grammar.getStartId()){
+          shrinks = true;
+        }
+      }
+      this.nonShrinking = !shrinks;
+      this.nullable = new boolean[grammar.getVariableCount()];
+      boolean changed = true;
+      while(changed){
+        changed = false;
+        for(int r=0; r<grammar.getRuleCount(); r++){
+          int v = grammar.getRuleVariable(r);
+          if(!nullable[v] && derivesEmpty(grammar.getRuleExpansion(r))){
+            nullable[v] = changed = true;
+          }
+        }
+      }
+      this.first = edgeTerminals(false);
+      this.last = edgeTerminals(true);
+    }
+ 
+    private boolean derivesEmpty(int[] expansion){
+      for(int code: expansion){
+        if(CompiledGrammar.isTerminalCode(code) || !nullable[code]){
+          return false;
+        }
+      }
+      return true;
+    }
+ 
+    //the terminals each variable's words can start with, or end with if reversed
+    private boolean[][] edgeTerminals(boolean reversed){
+      boolean[][] edge = new boolean[grammar.getVariableCount()][grammar.getTerminalCount()];
+      boolean changed = true;
+      while(changed){
+        changed = false;
+        for(int r=0; r<grammar.getRuleCount(); r++){
+          boolean[] into = edge[grammar.getRuleVariable(r)];
+          int[] expansion = grammar.getRuleExpansion(r);
+          for(int i=0; i<expansion.length; i++){
+            int code = expansion[reversed ? expansion.length-1-i : i];
+            if(CompiledGrammar.isTerminalCode(code)){
+              int t = CompiledGrammar.terminalOfCode(code);
+              changed |= !into[t];
+              into[t] = true;
+              break;
+            }
+            for(int t=0; t<into.length; t++){
+              if(edge[code][t] && !into[t]){
+                into[t] = changed = true;
+              }
+            }
+            if(!nullable[code]){
+              break;
+            }
+          }
+        }
+      }
+      return edge;
+    }
+ 
+    //whether the variable can derive something whose edge terminal is w[position]
+    private boolean fits(boolean[][] edge, Symbol variable, int position){
+      int v = grammar.getVariableId(variable);
+      if(nullable[v]){
+        return true;
+      }
+      if(position<0 || position>=w.length()){
+        return false;
+      }
+      int t = grammar.getTerminalId(w.get(position));
+      return t>=0 && edge[v][t];
+    }
+ 
+    boolean canDerive(Word form){
+      int n = w.length();
+      int length = form.length();
+      if(nonShrinking && length>n){
+        return false;
+      }
+      //the terminals before the first variable are never rewritten, so must start w
+      int first = 0;
+      while(first<length && form.get(first).isTerminal()){
+        if(first>=n || !form.get(first).equals(w.get(first))){
+          return false;
+        }
+        first++;
+      }
+      if(first==length){
+        return length==n;
+      }
+      //likewise the terminals after the last variable must end w
+      int last = length-1;
+      int j = n-1;
+      for(; form.get(last).isTerminal(); last--, j--){
+        if(j<first || !form.get(last).equals(w.get(j))){
+          return false;
+        }
+      }
+      //the variables next to them must be able to produce the next terminals of w
+      if(!fits(this.first, form.get(first), first) || !fits(this.last, form.get(last), j)){
+        return false;
+      }
+      //terminals never go away, so there can't be more than w has
+      int terminals = first + (length-1-last);
+      for(int i=first; i<last; i++){
+        if(form.get(i).isTerminal()){
+          terminals++;
+        }
+      }
+      return terminals<=n;
+    }
+  }
+ 
   //PART C: method to check if given word is in language
   public boolean isInLanguage(ContextFreeGrammar cfg, Word w){
+    return parse(cfg, w).isAccepted();
+  }
+ 
+  //PART D: create principle parse tree from given word
+  public ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w) {
+    return parse(cfg, w).getTree();
+  }
+ 
+  //does the search once; the tree is only built from the derivation if someone asks for it
+  public ParseResult parse(ContextFreeGrammar cfg, Word w){
+    long start = System.nanoTime();
+    return parse(CompiledGrammar.of(cfg), w, start);
+  }
+ 
+  //compiles the grammar once for a whole batch of words
+  public Function<Word, ParseResult> parserFor(ContextFreeGrammar cfg){
+    CompiledGrammar grammar = CompiledGrammar.of(cfg);
+    return w -> parse(grammar, w, System.nanoTime());
+  }
+ 
+  private ParseResult parse(CompiledGrammar grammar, Word w, long start){
+    Map<String, Long> statistics = new LinkedHashMap<>();
+    Derivation derivation = findDerivation(grammar, w, statistics);
+    long elapsed = System.nanoTime() - start;
+    if(derivation == null){
+      return ParseResult.rejected(statistics, elapsed);
+    }
+    return ParseResult.accepted(() -> buildTree(derivation, w), statistics, elapsed);
+  }
+ 
+  //searches the leftmost derivations of up to 2n-1 steps for one giving w, or returns null
+  private Derivation findDerivation(CompiledGrammar grammar, Word w, Map<String, Long> statistics){
 
     List<Derivation> currentDerivations = new ArrayList(); //current ders list
-    List<Rule> rulesForGrammar = cfg.getRules(); //rule list
-    Variable startVariable = cfg.getStartVariable(); //start variable
+    Variable startVariable = grammar.getVariable(grammar.getStartId()); //start variable
     Word startingWord = variableToWord(startVariable); //start variable as Word object
  
     Derivation derivationStartVariable = new Derivation(startingWord);//der for start variable
@@ -62,6 +207,8 @@ public class Parser implements IParser {
     int steps = 0; //derivation step count
     int n = w.length(); //length of the input word
     int derivationSteps; //input word derivation step count
+    long forms = 1; //sentential forms kept, over all steps
+    long largest = 1; //most forms kept at one step
  
     //check if single or 2n-1 step derivation
     if(n>=1){
@@ -71,24 +218,33 @@ public class Parser implements IParser {
       derivationSteps=1;
     }
  
-    while(steps<derivationSteps){
+    FormFilter filter = new FormFilter(grammar, w);
+ 
+    while(steps<derivationSteps && !currentDerivations.isEmpty()){
  
-      List<Derivation> newCurrentList = new ArrayList();
-      List<Derivation> newDerivations = new ArrayList();
+      //keep one derivation for each distinct sentential form, dropping those that can't give w
+      Map<Word, Derivation> newCurrentForms = new LinkedHashMap<>();
  
       for(Derivation derivation: currentDerivations){
-        newDerivations = generateDerivationList(rulesForGrammar, derivation, steps);
+        List<Derivation> newDerivations = generateDerivationList(grammar, derivation);
         for(Derivation der: newDerivations){
-          newCurrentList.add(der);
+          Word form = der.getLatestWord();
+          if(filter.canDerive(form)){
+            newCurrentForms.putIfAbsent(form, der);
+          }
         }  
-        newDerivations = new ArrayList();
       }
-    currentDerivations = newCurrentList;
+    currentDerivations = new ArrayList<>(newCurrentForms.values());
+    forms += currentDerivations.size();
+    largest = Math.max(largest, currentDerivations.size());
     steps++;
     }
+    statistics.put("steps", (long) steps);
+    statistics.put("forms", forms);
+    statistics.put("largest step", largest);
  
     //check if any derivations can create the word and if word only conists of terminals
-    boolean isInLanguage = false;
+    Derivation found = null;
     for(Derivation der: currentDerivations){
       Word word=der.getLatestWord();
       int count=0;
@@ -99,52 +255,38 @@ public class Parser implements IParser {
       }
       if(count==word.length()) {
         if(word.equals(w)){
-          isInLanguage = true;
-          derivationForTree = der;
+          found = der;
         }
       }
     }
-    return isInLanguage;
+    return found;
   }
  
-  //PART D: create principle parse tree from given word
-  public ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w) {
-   
-    ParseTreeNode printTree;
- 
-    if(isInLanguage(cfg, w) == false){
-      printTree = null;
+  //turns a leftmost derivation of w into its parse tree
+  private ParseTreeNode buildTree(Derivation derivation, Word w) {
+    //walk the derivation backwards, keeping a tree for each symbol of the word at that step
+    List<ParseTreeNode> branches = new ArrayList();
+    for(Symbol s: w){
+      branches.add(new ParseTreeNode(s));
     }
-    else{
-      List<ParseTreeNode> finalBranches = new ArrayList();
-      for(Step step: derivationForTree){
-        Rule ruleStep = step.getRule();
-        if (ruleStep != null){
-          Word branch = variableToWord(ruleStep.getVariable());
-          Word leaf = ruleStep.getExpansion();
-          if(leaf.isTerminal()){
-            ParseTreeNode leafNode = new ParseTreeNode(leaf.get(0));
-            ParseTreeNode addedLeafNode = new ParseTreeNode(branch.get(0), leafNode);
-            finalBranches.add(addedLeafNode);
-          }
-          else{
-            List<ParseTreeNode> trees = new ArrayList();
-            for(Symbol variable: leaf){
-              for(ParseTreeNode incompleteTrees: finalBranches){
-                if(incompleteTrees.getSymbol()==variable){
-                  trees.add(incompleteTrees);
-                }
-              }
-            }
-            finalBranches.add(new ParseTreeNode(branch.get(0), trees.get(0), trees.get(1)));
-          }
-        }
-        else{
-          break;
-        }
+    for(Step step: derivation){
+      Rule ruleStep = step.getRule();
+      if (ruleStep == null){
+        break;
+      }
+      int index = step.getIndex();
+      int length = ruleStep.getExpansion().length();
+      if(length == 0){
+        branches.add(index, ParseTreeNode.emptyParseTree(ruleStep.getVariable()));
+      }
+      else{
+        //the trees for the symbols the rule produced become the children of its variable
+        List<ParseTreeNode> children = branches.subList(index, index + length);
+        ParseTreeNode branch = new ParseTreeNode(ruleStep.getVariable(), new ArrayList<>(children));
+        children.clear();
+        branches.add(index, branch);
       }
-      printTree = finalBranches.get(finalBranches.size()-1);
     }
-  return printTree;
+    return branches.get(0);
   }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package computation.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import computation.contextfreegrammar.*;
+import computation.derivation.Derivation;
+import computation.parser.BitsetCYKParser;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Micro-benchmarks for the data structures on the parsers' hot paths:
+ * {@link Word#replace(int, Word)}, {@link Word#equals(Object)} and
+ * {@link Word#hashCode()}, copying and extending a {@link Derivation}, and
+ * {@link ParseTreeNode#equals(Object)}.
+ * <p>
+ * Run with {@code -prof gc} to see how much each one allocates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataStructureBenchmark {
+
+	/** The length of the words, the number of steps in the derivation, and roughly the number of leaves of the trees. */
+	@Param({"16", "1024", "65536"})
+	public int size;
+
+	/** A word of variables and terminals, and an equal copy of it made separately. */
+	private Word word;
+	private Word copy;
+
+	/** What to replace the middle symbol with, as in a rule A → BC. */
+	private Word expansion;
+
+	/** A derivation with {@code size} steps. */
+	private Derivation derivation;
+	private Rule rule;
+
+	/** Two equal parse trees, made separately. */
+	private ParseTreeNode tree;
+	private ParseTreeNode treeCopy;
+
+	@Setup
+	public void setUp() {
+		Symbol[] symbols = new Symbol[size];
+		for(int i = 0; i < size; i++) {
+			symbols[i] = i % 3 == 0 ? Variable.of('A') : Terminal.of((char) ('a' + i % 26));
+		}
+		word = new Word(symbols);
+		copy = new Word(symbols.clone());
+		expansion = new Word(Variable.of('B'), Variable.of('C'));
+		rule = new Rule(Variable.of('A'), expansion);
+
+		derivation = new Derivation(new Word(Variable.of('A')));
+		Word step = derivation.getLatestWord();
+		for(int i = 0; i < size; i++) {
+			step = step.replace(0, expansion);
+			derivation = derivation.addStep(step, rule, 0);
+		}
+
+		ContextFreeGrammar grammar = Workloads.grammar("simpleCNF");
+		Word zeroesOnes = Workloads.word("simpleCNF", Math.min(size, 4096));
+		tree = new BitsetCYKParser().generateParseTree(grammar, zeroesOnes);
+		treeCopy = new BitsetCYKParser().generateParseTree(grammar, zeroesOnes);
+	}
+
+	@Benchmark
+	public Word wordReplace() {
+		return word.replace(word.length() / 2, expansion);
+	}
+
+	@Benchmark
+	public boolean wordEquals() {
+		return word.equals(copy);
+	}
+
+	/**
+	 * A word remembers its hash code, so this hashes a freshly edited word,
+	 * as happens when a parser puts a new sentential form in a set.
+	 */
+	@Benchmark
+	public int wordReplaceAndHash() {
+		return word.replace(word.length() / 2, expansion).hashCode();
+	}
+
+	@Benchmark
+	public Derivation derivationCopy() {
+		return new Derivation(derivation);
+	}
+
+	@Benchmark
+	public Derivation derivationAddStep() {
+		return derivation.addStep(expansion, rule, 0);
+	}
+
+	@Benchmark
+	public boolean parseTreeEquals() {
+		return tree.equals(treeCopy);
+	}
+
+}
@@ -0,0 +1,141 @@
+package computation.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import computation.contextfreegrammar.*;
+import computation.parser.*;
+
+/**
+ * Quick comparisons which don't need JMH, for a first look before a proper
+ * benchmark run.
+ * <p>
+ * With no arguments, this compares the time taken by {@link BitsetCYKParser}
+ * and the object based {@link CYKParser}. It runs first on a
+ * {@code MyGrammar} expression and then on a randomly generated CNF grammar
+ * with 256 variables.
+ * <p>
+ * Run with the arguments {@code scaling n} instead to print how the
+ * parallel mode of {@link BitsetCYKParser} speeds up with the number of
+ * cores, for an expression of about n symbols.
+ */
+public final class ParallelScaling {
+
+	private ParallelScaling() {
+	}
+
+	/**
+	 * Runs the comparison, or the scaling table.
+	 *
+	 * @param args nothing, or {@code scaling} and optionally a length
+	 */
+	public static void main(String... args) {
+		if(args.length > 0 && args[0].equals("scaling")) {
+			scaling(args.length > 1 ? Integer.parseInt(args[1]) : 4000);
+			return;
+		}
+		compare(Workloads.grammar("MyGrammar"), Workloads.word("MyGrammar", 400));
+
+		ContextFreeGrammar random = randomGrammar(256, 4, new Random(42));
+		StringBuilder sb = new StringBuilder();
+		Random r = new Random(7);
+		while(sb.length() < 60) {
+			sb.append(r.nextBoolean() ? 'a' : 'b');
+		}
+		compare(random, new Word(sb.toString()));
+	}
+
+	/**
+	 * Times the parallel mode on one long expression with 1, 2, 4, ... threads,
+	 * up to the number of available processors, and prints the speed-up over
+	 * the sequential parser.
+	 */
+	private static void scaling(int n) {
+		ContextFreeGrammar cfg = Workloads.grammar("MyGrammar");
+		Word w = Workloads.word("MyGrammar", n);
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("word of length " + w.length() + ", " + cores + " processors");
+
+		double sequential = time(new BitsetCYKParser(), cfg, w);
+		System.out.printf("\tsequential %10.1f ms%n", sequential / 1e6);
+		for(int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			double parallel = time(new BitsetCYKParser(pool), cfg, w);
+			pool.shutdown();
+			System.out.printf("\t%3d threads %9.1f ms  speed-up %5.2f%n", threads, parallel / 1e6, sequential / parallel);
+		}
+	}
+
+	/**
+	 * The best of three runs of isInLanguage, in nanoseconds.
+	 */
+	private static double time(IParser parser, ContextFreeGrammar cfg, Word w) {
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 3; i++) {
+			long start = System.nanoTime();
+			parser.isInLanguage(cfg, w);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	/**
+	 * Times both CYK parsers on one word and prints the results.
+	 */
+	private static void compare(ContextFreeGrammar cfg, Word w) {
+		IParser[] parsers = {new CYKParser(), new BitsetCYKParser()};
+		System.out.println(cfg.getVariables().size() + " variables, word of length " + w.length());
+		for(IParser parser : parsers) {
+			boolean result = false;
+			long best = Long.MAX_VALUE;
+			for(int i = 0; i < 3; i++) {
+				long start = System.nanoTime();
+				result = parser.isInLanguage(cfg, w);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("\t%-16s %-6s %8.2f ms%n", parser.getClass().getSimpleName(), result, best / 1e6);
+		}
+	}
+
+	/**
+	 * Generates a random CNF grammar over the terminals a and b.
+	 *
+	 * @param variableCount how many variables, at most 286 (26 letters with up to 10 subscripts each)
+	 * @param rulesPerVariable how many rules A → BC each variable gets
+	 * @param random the source of randomness
+	 * @return the grammar
+	 */
+	private static ContextFreeGrammar randomGrammar(int variableCount, int rulesPerVariable, Random random) {
+		Variable[] variables = new Variable[variableCount];
+		for(int i = 0; i < variableCount; i++) {
+			char letter = (char) ('A' + i % 26);
+			int subscript = i / 26;
+			variables[i] = subscript == 0 ? new Variable(letter) : new Variable("" + letter + (subscript - 1));
+		}
+		Terminal[] terminals = {new Terminal('a'), new Terminal('b')};
+
+		List<Rule> rules = new ArrayList<>();
+		Set<Rule> seen = new HashSet<>();
+		for(int i = 0; i < variableCount; i++) {
+			if(random.nextInt(4) == 0) {
+				rules.add(new Rule(variables[i], new Word(terminals[random.nextInt(2)])));
+			}
+			for(int j = 0; j < rulesPerVariable; j++) {
+				Rule rule = new Rule(variables[i], new Word(variables[1 + random.nextInt(variableCount - 1)],
+						variables[1 + random.nextInt(variableCount - 1)]));
+				if(seen.add(rule)) {
+					rules.add(rule);
+				}
+			}
+		}
+		// make sure both terminals are produced by something
+		rules.add(new Rule(variables[1], new Word(terminals[0])));
+		rules.add(new Rule(variables[2], new Word(terminals[1])));
+		return new ContextFreeGrammar(rules);
+	}
+
+}
@@ -0,0 +1,164 @@
+package computation.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import computation.contextfreegrammar.*;
+import computation.parser.*;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Times {@link IParser#isInLanguage(ContextFreeGrammar, Word)} and
+ * {@link IParser#generateParseTree(ContextFreeGrammar, Word)} for every
+ * engine, on {@code simpleCNF()} and {@code MyGrammar.makeGrammar()}.
+ * <p>
+ * Every engine is run up to the longest word it can parse in about a second:
+ * <ul>
+ * <li>{@code Parser}, which searches derivations, up to 16 symbols ({@link Naive}),</li>
+ * <li>{@code CYKParser}, which is O(n³) with sets of variables, up to 256 ({@link Chart}),</li>
+ * <li>{@code BitsetCYKParser}, which is still O(n³), up to 1024 ({@link Chart} and {@link BitsetLong}), and</li>
+ * <li>{@code EarleyParser}, which is linear on these grammars, up to 10000 ({@link Chart} and {@link EarleyLong}).</li>
+ * </ul>
+ * Each run parses the same word, which is in the language, so this measures
+ * the cost of a successful parse. The grammars are frozen, so compiling them
+ * happens once in the set up, not in the measurements.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	/**
+	 * The state shared by all the sizes: a parser, a grammar and a word.
+	 */
+	public abstract static class Input {
+
+		IParser parser;
+		ContextFreeGrammar grammar;
+		Word word;
+
+		void setUp(String engine, String grammarName, int length) {
+			parser = Workloads.parser(engine);
+			grammar = Workloads.grammar(grammarName);
+			word = Workloads.word(grammarName, length);
+			if(!parser.isInLanguage(grammar, word)) {
+				throw new IllegalStateException(word + " should be in " + grammarName);
+			}
+		}
+	}
+
+	/** The derivation search in the default package, on short words. */
+	@State(Scope.Benchmark)
+	public static class Naive extends Input {
+
+		@Param({"simpleCNF", "MyGrammar"})
+		public String grammarName;
+
+		@Param({"4", "8", "16"})
+		public int length;
+
+		@Setup
+		public void setUp() {
+			setUp("Parser", grammarName, length);
+		}
+	}
+
+	/** The chart parsers, on words of up to a few hundred symbols. */
+	@State(Scope.Benchmark)
+	public static class Chart extends Input {
+
+		@Param({"CYKParser", "BitsetCYKParser", "EarleyParser"})
+		public String engine;
+
+		@Param({"simpleCNF", "MyGrammar"})
+		public String grammarName;
+
+		@Param({"4", "16", "64", "256"})
+		public int length;
+
+		@Setup
+		public void setUp() {
+			setUp(engine, grammarName, length);
+		}
+	}
+
+	/** The bitset CYK parser, on longer words. */
+	@State(Scope.Benchmark)
+	public static class BitsetLong extends Input {
+
+		@Param({"simpleCNF", "MyGrammar"})
+		public String grammarName;
+
+		@Param({"1024"})
+		public int length;
+
+		@Setup
+		public void setUp() {
+			setUp("BitsetCYKParser", grammarName, length);
+		}
+	}
+
+	/** The Earley parser, on long words. */
+	@State(Scope.Benchmark)
+	public static class EarleyLong extends Input {
+
+		@Param({"simpleCNF", "MyGrammar"})
+		public String grammarName;
+
+		@Param({"1024", "4096", "10000"})
+		public int length;
+
+		@Setup
+		public void setUp() {
+			setUp("EarleyParser", grammarName, length);
+		}
+	}
+
+	@Benchmark
+	public boolean naiveIsInLanguage(Naive input) {
+		return input.parser.isInLanguage(input.grammar, input.word);
+	}
+
+	@Benchmark
+	public ParseTreeNode naiveGenerateParseTree(Naive input) {
+		return input.parser.generateParseTree(input.grammar, input.word);
+	}
+
+	@Benchmark
+	public boolean chartIsInLanguage(Chart input) {
+		return input.parser.isInLanguage(input.grammar, input.word);
+	}
+
+	@Benchmark
+	public ParseTreeNode chartGenerateParseTree(Chart input) {
+		return input.parser.generateParseTree(input.grammar, input.word);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public boolean bitsetLongIsInLanguage(BitsetLong input) {
+		return input.parser.isInLanguage(input.grammar, input.word);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public ParseTreeNode bitsetLongGenerateParseTree(BitsetLong input) {
+		return input.parser.generateParseTree(input.grammar, input.word);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public boolean earleyLongIsInLanguage(EarleyLong input) {
+		return input.parser.isInLanguage(input.grammar, input.word);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public ParseTreeNode earleyLongGenerateParseTree(EarleyLong input) {
+		return input.parser.generateParseTree(input.grammar, input.word);
+	}
+
+}
@@ -0,0 +1,93 @@
+package computation.benchmark;
+
+import computation.contextfreegrammar.*;
+import computation.parser.*;
+
+/**
+ * The grammars, words and parsers shared by the benchmarks.
+ */
+final class Workloads {
+
+	private Workloads() {
+	}
+
+	/**
+	 * Gets a grammar by name: {@code simpleCNF} or {@code MyGrammar}.
+	 * {@code MyGrammar} is in the default package, which can't be imported,
+	 * so it is loaded by name.
+	 *
+	 * @param name the name of the grammar
+	 * @return the grammar, frozen
+	 */
+	static ContextFreeGrammar grammar(String name) {
+		switch(name) {
+		case "simpleCNF":
+			return ContextFreeGrammar.simpleCNF().freeze();
+		case "MyGrammar":
+			try {
+				return ((ContextFreeGrammar) Class.forName("MyGrammar").getMethod("makeGrammar").invoke(null)).freeze();
+			} catch(ReflectiveOperationException e) {
+				throw new IllegalStateException("MyGrammar must be on the class path", e);
+			}
+		default:
+			throw new IllegalArgumentException("Unknown grammar " + name);
+		}
+	}
+
+	/**
+	 * Makes a word in the language of the named grammar, as close to the
+	 * given length as the language allows (never longer).
+	 *
+	 * @param grammar the name of the grammar
+	 * @param length the length wanted, at least 2
+	 * @return the word
+	 */
+	static Word word(String grammar, int length) {
+		StringBuilder sb = new StringBuilder();
+		if(grammar.equals("simpleCNF")) {
+			// 0ⁿ1ⁿ
+			for(int i = 0; i < length / 2; i++) {
+				sb.append('0');
+			}
+			for(int i = 0; i < length / 2; i++) {
+				sb.append('1');
+			}
+		} else {
+			sb.append('1');
+			while(sb.length() + 6 <= length) {
+				sb.append("+(x*0)");
+			}
+			while(sb.length() + 2 <= length) {
+				sb.append("*x");
+			}
+		}
+		return new Word(sb.toString());
+	}
+
+	/**
+	 * Makes a parser by name: {@code Parser} (the derivation search in the
+	 * default package), {@code CYKParser}, {@code BitsetCYKParser} or {@code EarleyParser}.
+	 *
+	 * @param name the simple class name
+	 * @return the parser
+	 */
+	static IParser parser(String name) {
+		switch(name) {
+		case "CYKParser":
+			return new CYKParser();
+		case "BitsetCYKParser":
+			return new BitsetCYKParser();
+		case "EarleyParser":
+			return new EarleyParser();
+		case "Parser":
+			try {
+				return (IParser) Class.forName("Parser").getConstructor().newInstance();
+			} catch(ReflectiveOperationException e) {
+				throw new IllegalStateException("Parser must be on the class path", e);
+			}
+		default:
+			throw new IllegalArgumentException("Unknown parser " + name);
+		}
+	}
+
+}
@@ -0,0 +1,855 @@
+package computation.contextfreegrammar;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Converts a {@link ContextFreeGrammar} into Chomsky normal form, and
+ * remembers how to turn parse trees in the new grammar back into parse trees
+ * in the original one.
+ * <p>
+ * The conversion is done in the usual steps, in this order:
+ * <ol>
+ * <li><b>START</b>: if the start variable S appears on the right hand side of
+ * a rule, add a new start variable S₀ with the rule S₀ → S,</li>
+ * <li><b>TERM</b>: in every rule with 2 or more symbols, replace each terminal
+ * a with a new variable T with the single rule T → a,</li>
+ * <li><b>BIN</b>: split every rule A → X₁X₂...Xₖ with k &gt; 2 into
+ * A → X₁B₁, B₁ → X₂B₂, ..., Bₖ₋₂ → Xₖ₋₁Xₖ,</li>
+ * <li><b>DEL</b>: remove the ε rules, adding a copy of each rule with every
+ * combination of variables which can generate ε left out, and</li>
+ * <li><b>UNIT</b>: remove the unit rules A → B, giving A a copy of every
+ * other rule of each variable it reaches by unit rules.</li>
+ * </ol>
+ * <p>
+ * Before UNIT, variables which reach each other by unit rules (such as A and
+ * B after DEL turns A → BC into A → B, and B → AD into B → A) are merged into
+ * one, since they generate the same language. Otherwise every one of them
+ * would get a copy of all of their rules, which is quadratic in the size of
+ * the cycle.
+ * <p>
+ * Doing BIN before DEL keeps the grammar from blowing up, since each rule
+ * then has at most 2 variables to leave out. The new variables made by BIN
+ * stand for the ends (suffixes) of right hand sides, and two rules which
+ * end in the same symbols share them, so e.g. A → aBCD and E → BCD only
+ * need one variable for CD. Lookups are all hashed, so apart from the unit
+ * closure the conversion takes time in proportion to the size of the
+ * grammar. The unit closure is as large as the unit rules make it, which
+ * for a variable reaching many others by chains of unit rules can be
+ * quadratic; no grammar in Chomsky normal form avoids that in general.
+ * <p>
+ * Every rule of the new grammar has a <i>template</i>: the piece of parse
+ * tree in the original grammar that it stands for, with holes for its
+ * children. Variables made by TERM and BIN don't exist in the original
+ * grammar, so a child may fill its hole with several trees, or just a
+ * terminal. {@link #toOriginalTree(ParseTreeNode)} fills in the templates
+ * from the bottom of a parse tree up, which puts back the unit rules and ε
+ * subtrees and flattens out the binarized rules.
+ * <p>
+ * New variables are named with a letter and a subscript that isn't used by
+ * the original grammar: S for the new start, T for terminals and B for the
+ * binarized rules, e.g. B₁₂.
+ */
+public final class ChomskyNormalForm {
+
+	/** The grammar we converted. */
+	private final ContextFreeGrammar original;
+
+	/** The grammar in Chomsky normal form. */
+	private final ContextFreeGrammar grammar;
+
+	/** The template of each rule in the new grammar. */
+	private final Map<Rule, Part[]> templates;
+
+	/** The names already used by a variable, so new variables don't clash. */
+	private final Set<Variable> usedNames;
+
+	/** The next subscript to try for each letter of new variable. */
+	private final Map<Character, Integer> nextSubscript = new HashMap<>();
+
+	/**
+	 * Converts the given grammar to Chomsky normal form.
+	 *
+	 * @param cfg the context free grammar
+	 */
+	public ChomskyNormalForm(ContextFreeGrammar cfg) {
+		this.original = cfg;
+		this.usedNames = new HashSet<>(cfg.getVariables());
+		for(Rule rule : cfg.getRules()) {
+			usedNames.add(rule.getVariable());
+			for(Symbol s : rule.getExpansion()) {
+				if(!s.isTerminal()) {
+					usedNames.add((Variable) s);
+				}
+			}
+		}
+
+		List<WorkRule> rules = new ArrayList<>();
+		Set<Rule> seen = new HashSet<>();
+		for(Rule rule : cfg.getRules()) {
+			if(seen.add(rule)) {
+				rules.add(WorkRule.of(rule));
+			}
+		}
+
+		Variable start = cfg.getStartVariable();
+		Variable newStart = start(rules, start);
+		rules = term(rules);
+		rules = bin(rules);
+		rules = del(rules, newStart);
+		rules = collapseCycles(rules, newStart);
+		rules = unit(rules);
+		this.templates = new LinkedHashMap<>();
+		this.grammar = reachable(rules, newStart, cfg.getTerminals());
+	}
+
+	/**
+	 * Gets the grammar that was converted.
+	 *
+	 * @return the original grammar
+	 */
+	public ContextFreeGrammar getOriginal() {
+		return original;
+	}
+
+	/**
+	 * Gets the grammar in Chomsky normal form.
+	 *
+	 * @return the converted grammar
+	 */
+	public ContextFreeGrammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Turns a parse tree in the converted grammar into the parse tree in the
+	 * original grammar that it stands for, deriving the same word.
+	 * <p>
+	 * The tree for the empty word is the one made by
+	 * {@link ParseTreeNode#emptyParseTree(Variable)}.
+	 *
+	 * @param tree a parse tree in the converted grammar
+	 * @return the parse tree in the original grammar
+	 * @throws IllegalArgumentException if the tree uses a rule that is not in the converted grammar
+	 */
+	public ParseTreeNode toOriginalTree(ParseTreeNode tree) {
+		// a post-order walk, where each node leaves its trees in the original grammar on a stack
+		Deque<ParseTreeNode> nodes = new ArrayDeque<>();
+		Deque<Integer> visited = new ArrayDeque<>();
+		Deque<List<ParseTreeNode>> results = new ArrayDeque<>();
+		nodes.push(tree);
+		visited.push(0);
+		while(!nodes.isEmpty()) {
+			ParseTreeNode node = nodes.peek();
+			List<ParseTreeNode> children = expandedChildren(node);
+			int next = visited.pop();
+			if(next < children.size()) {
+				visited.push(next + 1);
+				nodes.push(children.get(next));
+				visited.push(0);
+				continue;
+			}
+			nodes.pop();
+			if(node.getSymbol().isTerminal()) {
+				results.push(Collections.singletonList(node));
+				continue;
+			}
+
+			Symbol[] expansion = new Symbol[children.size()];
+			List<List<ParseTreeNode>> forests = new ArrayList<>(Collections.nCopies(children.size(), null));
+			for(int i = children.size() - 1; i >= 0; i--) {
+				expansion[i] = children.get(i).getSymbol();
+				forests.set(i, results.pop());
+			}
+			Rule rule = new Rule((Variable) node.getSymbol(), new Word(expansion));
+			Part[] template = templates.get(rule);
+			if(template == null) {
+				throw new IllegalArgumentException("The rule " + rule + " is not in the converted grammar");
+			}
+			List<ParseTreeNode> forest = new ArrayList<>();
+			instantiate(template, forests, forest);
+			results.push(forest);
+		}
+		return results.pop().get(0);
+	}
+
+	/**
+	 * The children of a node, leaving out the child of an empty tree which
+	 * stands for ε.
+	 */
+	private static List<ParseTreeNode> expandedChildren(ParseTreeNode node) {
+		List<ParseTreeNode> children = node.getChildren();
+		if(children.size() == 1 && children.get(0).getSymbol() == null) {
+			return Collections.emptyList();
+		}
+		return children;
+	}
+
+	/**
+	 * Makes a new variable whose name isn't used yet.
+	 */
+	private Variable fresh(char letter) {
+		int subscript = nextSubscript.getOrDefault(letter, 0);
+		Variable v = Variable.of(letter, subscript);
+		while(usedNames.contains(v)) {
+			v = Variable.of(letter, ++subscript);
+		}
+		nextSubscript.put(letter, subscript + 1);
+		usedNames.add(v);
+		return v;
+	}
+
+	/**
+	 * START: adds S₀ → S if the start variable S is on the right hand side of a rule.
+	 *
+	 * @return the start variable to use from now on
+	 */
+	private Variable start(List<WorkRule> rules, Variable start) {
+		for(WorkRule rule : rules) {
+			for(Symbol s : rule.expansion) {
+				if(s.equals(start)) {
+					Variable newStart = fresh('S');
+					rules.add(0, new WorkRule(newStart, new Symbol[] {start}, new Part[] {Part.hole(0)}));
+					return newStart;
+				}
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * TERM: replaces the terminals in rules of 2 or more symbols with a
+	 * variable for each terminal.
+	 */
+	private List<WorkRule> term(List<WorkRule> rules) {
+		Map<Symbol, Variable> proxies = new HashMap<>();
+		List<WorkRule> result = new ArrayList<>(rules.size());
+		List<WorkRule> proxyRules = new ArrayList<>();
+		for(WorkRule rule : rules) {
+			if(rule.expansion.length < 2) {
+				result.add(rule);
+				continue;
+			}
+			Symbol[] expansion = rule.expansion.clone();
+			for(int i = 0; i < expansion.length; i++) {
+				Symbol s = expansion[i];
+				if(s.isTerminal()) {
+					Variable proxy = proxies.get(s);
+					if(proxy == null) {
+						proxy = fresh('T');
+						proxies.put(s, proxy);
+						proxyRules.add(new WorkRule(proxy, new Symbol[] {s}, new Part[] {Part.hole(0)}));
+					}
+					expansion[i] = proxy;
+				}
+			}
+			result.add(new WorkRule(rule.variable, expansion, rule.template));
+		}
+		result.addAll(proxyRules);
+		return result;
+	}
+
+	/**
+	 * BIN: splits rules of more than 2 symbols into chains of rules of 2
+	 * symbols, sharing the variables for common suffixes.
+	 */
+	private List<WorkRule> bin(List<WorkRule> rules) {
+		Map<Word, Variable> pairs = new HashMap<>();
+		List<WorkRule> result = new ArrayList<>(rules.size());
+		List<WorkRule> chainRules = new ArrayList<>();
+		for(WorkRule rule : rules) {
+			Symbol[] expansion = rule.expansion;
+			int k = expansion.length;
+			if(k <= 2) {
+				result.add(rule);
+				continue;
+			}
+			// build the suffixes from the right, each being X followed by the variable for the rest
+			Symbol rest = expansion[k - 1];
+			for(int i = k - 2; i >= 1; i--) {
+				Word pair = new Word(expansion[i], rest);
+				Variable v = pairs.get(pair);
+				if(v == null) {
+					v = fresh('B');
+					pairs.put(pair, v);
+					chainRules.add(new WorkRule(v, new Symbol[] {expansion[i], rest}, new Part[] {Part.hole(0), Part.hole(1)}));
+				}
+				rest = v;
+			}
+			result.add(new WorkRule(rule.variable, new Symbol[] {expansion[0], rest}, join(rule.template, 1)));
+		}
+		result.addAll(chainRules);
+		return result;
+	}
+
+	/**
+	 * DEL: removes ε rules, other than for the start variable, by adding
+	 * copies of rules with the variables that can generate ε left out.
+	 */
+	private List<WorkRule> del(List<WorkRule> rules, Variable start) {
+		// find the nullable variables, and a forest of trees for how each generates ε
+		Map<Variable, Part[]> empty = new HashMap<>();
+		Map<Variable, List<Integer>> uses = new HashMap<>();
+		int[] missing = new int[rules.size()];
+		Deque<Integer> ready = new ArrayDeque<>();
+		for(int r = 0; r < rules.size(); r++) {
+			WorkRule rule = rules.get(r);
+			missing[r] = rule.expansion.length;
+			for(Symbol s : rule.expansion) {
+				if(!s.isTerminal()) {
+					uses.computeIfAbsent((Variable) s, k -> new ArrayList<>()).add(r);
+				}
+			}
+			if(missing[r] == 0) {
+				ready.add(r);
+			}
+		}
+		while(!ready.isEmpty()) {
+			WorkRule rule = rules.get(ready.poll());
+			if(empty.containsKey(rule.variable)) {
+				continue;
+			}
+			List<List<ParseTreeNode>> forests = new ArrayList<>();
+			for(Symbol s : rule.expansion) {
+				List<ParseTreeNode> forest = new ArrayList<>();
+				instantiate(empty.get(s), Collections.emptyList(), forest);
+				forests.add(forest);
+			}
+			List<ParseTreeNode> trees = new ArrayList<>();
+			instantiate(rule.template, forests, trees);
+			Part[] parts = new Part[trees.size()];
+			for(int i = 0; i < parts.length; i++) {
+				parts[i] = Part.fixed(trees.get(i));
+			}
+			empty.put(rule.variable, parts);
+			for(int r : uses.getOrDefault(rule.variable, Collections.emptyList())) {
+				if(--missing[r] == 0) {
+					ready.add(r);
+				}
+			}
+		}
+
+		// copy each rule with each combination of nullable variables left out
+		List<WorkRule> result = new ArrayList<>();
+		Set<Rule> seen = new HashSet<>();
+		for(WorkRule rule : rules) {
+			int n = rule.expansion.length;
+			for(int leftOut = 0; leftOut < 1 << n; leftOut++) {
+				Symbol[] expansion = rule.expansion;
+				Part[] template = rule.template;
+				boolean possible = true;
+				for(int i = n - 1; i >= 0 && possible; i--) {
+					if((leftOut & 1 << i) != 0) {
+						Part[] forest = empty.get(expansion[i]);
+						if(forest == null) {
+							possible = false;
+						} else {
+							template = substitute(template, i, forest);
+							expansion = remove(expansion, i);
+						}
+					}
+				}
+				if(!possible || (expansion.length == 0 && !rule.variable.equals(start))
+						|| (expansion.length == 1 && expansion[0].equals(rule.variable))) {
+					continue;
+				}
+				WorkRule copy = new WorkRule(rule.variable, expansion, template);
+				if(seen.add(copy.toRule())) {
+					result.add(copy);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Merges each cycle of unit rules into a single variable. The start
+	 * variable is kept if it is on a cycle, otherwise the variable that comes
+	 * first in the rules is.
+	 */
+	private List<WorkRule> collapseCycles(List<WorkRule> rules, Variable start) {
+		// number the variables on either end of a unit rule
+		Map<Variable, Integer> ids = new LinkedHashMap<>();
+		ids.put(start, 0);
+		List<List<WorkRule>> out = new ArrayList<>();
+		out.add(new ArrayList<>());
+		for(WorkRule rule : rules) {
+			if(rule.isUnit()) {
+				for(Symbol s : new Symbol[] {rule.variable, rule.expansion[0]}) {
+					if(!ids.containsKey(s)) {
+						ids.put((Variable) s, ids.size());
+						out.add(new ArrayList<>());
+					}
+				}
+				out.get(ids.get(rule.variable)).add(rule);
+			}
+		}
+		Variable[] variables = ids.keySet().toArray(new Variable[0]);
+		int[] component = components(ids, out);
+
+		// the representative of each component is its first variable
+		Variable[] representative = new Variable[variables.length];
+		boolean merged = false;
+		for(int v = 0; v < variables.length; v++) {
+			if(representative[component[v]] == null) {
+				representative[component[v]] = variables[v];
+			} else {
+				merged = true;
+			}
+		}
+		if(!merged) {
+			return rules;
+		}
+
+		// templates for the unit paths from each representative down to each member, and back up
+		Map<Variable, Part[]> down = new HashMap<>();
+		Map<Variable, Part[]> up = new HashMap<>();
+		Map<Variable, List<WorkRule>> in = new HashMap<>();
+		for(List<WorkRule> list : out) {
+			for(WorkRule rule : list) {
+				in.computeIfAbsent((Variable) rule.expansion[0], k -> new ArrayList<>()).add(rule);
+			}
+		}
+		for(Variable r : representative) {
+			if(r == null) {
+				continue;
+			}
+			int c = component[ids.get(r)];
+			Part[] identity = {Part.hole(0)};
+			down.put(r, identity);
+			up.put(r, identity);
+			Deque<Variable> queue = new ArrayDeque<>();
+			queue.add(r);
+			while(!queue.isEmpty()) {
+				Variable b = queue.poll();
+				for(WorkRule rule : out.get(ids.get(b))) {
+					Variable m = (Variable) rule.expansion[0];
+					if(component[ids.get(m)] == c && !down.containsKey(m)) {
+						down.put(m, substitute(down.get(b), 0, rule.template));
+						queue.add(m);
+					}
+				}
+			}
+			queue.add(r);
+			while(!queue.isEmpty()) {
+				Variable b = queue.poll();
+				for(WorkRule rule : in.getOrDefault(b, Collections.emptyList())) {
+					Variable m = rule.variable;
+					if(component[ids.get(m)] == c && !up.containsKey(m)) {
+						up.put(m, substitute(rule.template, 0, up.get(b)));
+						queue.add(m);
+					}
+				}
+			}
+		}
+
+		// rewrite every rule in terms of the representatives
+		List<WorkRule> result = new ArrayList<>(rules.size());
+		Set<Rule> seen = new HashSet<>();
+		for(WorkRule rule : rules) {
+			Symbol[] expansion = rule.expansion;
+			Part[] template = rule.template;
+			for(int i = 0; i < expansion.length; i++) {
+				Integer id = ids.get(expansion[i]);
+				if(id != null && !representative[component[id]].equals(expansion[i])) {
+					template = substitute(template, i, up.get(expansion[i]));
+					if(expansion == rule.expansion) {
+						expansion = expansion.clone();
+					}
+					expansion[i] = representative[component[id]];
+				}
+			}
+			Variable variable = rule.variable;
+			Integer id = ids.get(variable);
+			if(id != null && !representative[component[id]].equals(variable)) {
+				template = substitute(down.get(variable), 0, template);
+				variable = representative[component[id]];
+			}
+			if(expansion.length == 1 && expansion[0].equals(variable)) {
+				continue;
+			}
+			WorkRule copy = new WorkRule(variable, expansion, template);
+			if(seen.add(copy.toRule())) {
+				result.add(copy);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the strongly connected components of the unit rule graph, with
+	 * Tarjan's algorithm. This is done without recursion, since the graph
+	 * may be large.
+	 *
+	 * @return the component number of each variable
+	 */
+	private static int[] components(Map<Variable, Integer> ids, List<List<WorkRule>> out) {
+		int n = out.size();
+		int[] index = new int[n];
+		int[] low = new int[n];
+		int[] component = new int[n];
+		int[] edge = new int[n];
+		Arrays.fill(index, -1);
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int[] path = new int[n];
+		int stackSize = 0;
+		int counter = 0;
+		int components = 0;
+		for(int root = 0; root < n; root++) {
+			if(index[root] >= 0) {
+				continue;
+			}
+			int depth = 0;
+			path[depth++] = root;
+			index[root] = low[root] = counter++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while(depth > 0) {
+				int v = path[depth - 1];
+				if(edge[v] < out.get(v).size()) {
+					int w = ids.get(out.get(v).get(edge[v]++).expansion[0]);
+					if(index[w] < 0) {
+						index[w] = low[w] = counter++;
+						stack[stackSize++] = w;
+						onStack[w] = true;
+						path[depth++] = w;
+					} else if(onStack[w]) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+					continue;
+				}
+				depth--;
+				if(depth > 0) {
+					int parent = path[depth - 1];
+					low[parent] = Math.min(low[parent], low[v]);
+				}
+				if(low[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--stackSize];
+						onStack[w] = false;
+						component[w] = components;
+					} while(w != v);
+					components++;
+				}
+			}
+		}
+		return component;
+	}
+
+	/**
+	 * UNIT: replaces the unit rules A → B by copies of the other rules of
+	 * every variable A reaches through unit rules.
+	 */
+	private List<WorkRule> unit(List<WorkRule> rules) {
+		Map<Variable, List<WorkRule>> unitRules = new LinkedHashMap<>();
+		Map<Variable, List<WorkRule>> otherRules = new LinkedHashMap<>();
+		for(WorkRule rule : rules) {
+			unitRules.computeIfAbsent(rule.variable, k -> new ArrayList<>());
+			otherRules.computeIfAbsent(rule.variable, k -> new ArrayList<>());
+			if(rule.isUnit()) {
+				unitRules.get(rule.variable).add(rule);
+			} else {
+				otherRules.get(rule.variable).add(rule);
+			}
+		}
+
+		List<WorkRule> result = new ArrayList<>();
+		Set<Rule> seen = new HashSet<>();
+		for(Variable a : otherRules.keySet()) {
+			if(unitRules.get(a).isEmpty()) {
+				// rules are already distinct, so there is nothing to do
+				result.addAll(otherRules.get(a));
+				continue;
+			}
+			// breadth first through the unit rules, with the template for the path to each variable
+			Map<Variable, Part[]> paths = new LinkedHashMap<>();
+			paths.put(a, new Part[] {Part.hole(0)});
+			Deque<Variable> queue = new ArrayDeque<>();
+			queue.add(a);
+			while(!queue.isEmpty()) {
+				Variable b = queue.poll();
+				for(WorkRule rule : unitRules.getOrDefault(b, Collections.emptyList())) {
+					Variable c = (Variable) rule.expansion[0];
+					if(!paths.containsKey(c)) {
+						paths.put(c, substitute(paths.get(b), 0, rule.template));
+						queue.add(c);
+					}
+				}
+			}
+			for(Map.Entry<Variable, Part[]> e : paths.entrySet()) {
+				for(WorkRule rule : otherRules.getOrDefault(e.getKey(), Collections.emptyList())) {
+					Part[] template = e.getKey().equals(a) ? rule.template : substitute(e.getValue(), 0, rule.template);
+					WorkRule copy = new WorkRule(a, rule.expansion, template);
+					if(seen.add(copy.toRule())) {
+						result.add(copy);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps the rules reachable from the start variable, records their
+	 * templates and builds the final grammar.
+	 */
+	private ContextFreeGrammar reachable(List<WorkRule> rules, Variable start, Set<Terminal> terminals) {
+		Map<Variable, List<WorkRule>> byVariable = new HashMap<>();
+		for(WorkRule rule : rules) {
+			byVariable.computeIfAbsent(rule.variable, k -> new ArrayList<>()).add(rule);
+		}
+		Set<Variable> variables = new LinkedHashSet<>();
+		List<Rule> result = new ArrayList<>();
+		Deque<Variable> queue = new ArrayDeque<>();
+		variables.add(start);
+		queue.add(start);
+		while(!queue.isEmpty()) {
+			Variable v = queue.poll();
+			for(WorkRule rule : byVariable.getOrDefault(v, Collections.emptyList())) {
+				Rule r = rule.toRule();
+				result.add(r);
+				templates.put(r, rule.template);
+				for(Symbol s : rule.expansion) {
+					if(!s.isTerminal() && variables.add((Variable) s)) {
+						queue.add((Variable) s);
+					}
+				}
+			}
+		}
+		return new ContextFreeGrammar(variables, new LinkedHashSet<>(terminals), result, start);
+	}
+
+	private static Symbol[] remove(Symbol[] symbols, int index) {
+		Symbol[] result = new Symbol[symbols.length - 1];
+		System.arraycopy(symbols, 0, result, 0, index);
+		System.arraycopy(symbols, index + 1, result, index, result.length - index);
+		return result;
+	}
+
+	/**
+	 * Puts a template in place of one of the holes of another. The holes of
+	 * the replacement are numbered from the hole it fills, and the holes
+	 * after it are renumbered to follow on.
+	 */
+	private static Part[] substitute(Part[] template, int hole, Part[] replacement) {
+		int shift = holes(replacement) - 1;
+		List<Part> result = new ArrayList<>(template.length + replacement.length);
+		for(Part p : template) {
+			if(p.hole >= 0) {
+				if(p.hole < hole) {
+					result.add(p);
+				} else if(p.hole == hole) {
+					for(Part q : replacement) {
+						result.add(renumber(q, hole));
+					}
+				} else {
+					result.add(Part.hole(p.hole + shift));
+				}
+			} else if(p.symbol != null) {
+				result.add(Part.node(p.symbol, substitute(p.children, hole, replacement)));
+			} else {
+				result.add(p);
+			}
+		}
+		return result.toArray(new Part[0]);
+	}
+
+	private static Part renumber(Part p, int by) {
+		if(by == 0 || (p.hole < 0 && p.symbol == null)) {
+			return p;
+		} else if(p.hole >= 0) {
+			return Part.hole(p.hole + by);
+		}
+		Part[] children = new Part[p.children.length];
+		for(int i = 0; i < children.length; i++) {
+			children[i] = renumber(p.children[i], by);
+		}
+		return Part.node(p.symbol, children);
+	}
+
+	private static int holes(Part[] template) {
+		int count = 0;
+		for(Part p : template) {
+			if(p.hole >= 0) {
+				count++;
+			} else if(p.symbol != null) {
+				count += holes(p.children);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Merges the holes from the given one onwards into a single hole. They
+	 * must sit next to each other in the template, as they do in the
+	 * template of a rule from the original grammar.
+	 */
+	private static Part[] join(Part[] template, int from) {
+		List<Part> result = new ArrayList<>(template.length);
+		for(Part p : template) {
+			if(p.hole > from) {
+				continue;
+			} else if(p.symbol != null) {
+				result.add(Part.node(p.symbol, join(p.children, from)));
+			} else {
+				result.add(p);
+			}
+		}
+		return result.toArray(new Part[0]);
+	}
+
+	/**
+	 * Fills in the holes of a template, adding the trees it makes to the given list.
+	 */
+	private static void instantiate(Part[] template, List<List<ParseTreeNode>> forests, List<ParseTreeNode> out) {
+		for(Part p : template) {
+			if(p.hole >= 0) {
+				out.addAll(forests.get(p.hole));
+			} else if(p.symbol != null) {
+				List<ParseTreeNode> children = new ArrayList<>();
+				instantiate(p.children, forests, children);
+				out.add(new ParseTreeNode(p.symbol, children));
+			} else {
+				out.add(p.tree);
+			}
+		}
+	}
+
+	/**
+	 * A rule while it is being converted, along with its template.
+	 */
+	private static final class WorkRule {
+
+		private final Variable variable;
+
+		private final Symbol[] expansion;
+
+		private final Part[] template;
+
+		WorkRule(Variable variable, Symbol[] expansion, Part[] template) {
+			this.variable = variable;
+			this.expansion = expansion;
+			this.template = template;
+		}
+
+		/**
+		 * A rule of the original grammar, whose template is a single node
+		 * with a hole for each symbol, or the tree A → ε for an ε rule.
+		 */
+		static WorkRule of(Rule rule) {
+			Symbol[] expansion = rule.getExpansion().stream().toArray(Symbol[]::new);
+			if(expansion.length == 0) {
+				return new WorkRule(rule.getVariable(), expansion,
+						new Part[] {Part.fixed(ParseTreeNode.emptyParseTree(rule.getVariable()))});
+			}
+			Part[] holes = new Part[expansion.length];
+			for(int i = 0; i < holes.length; i++) {
+				holes[i] = Part.hole(i);
+			}
+			return new WorkRule(rule.getVariable(), expansion, new Part[] {Part.node(rule.getVariable(), holes)});
+		}
+
+		boolean isUnit() {
+			return expansion.length == 1 && !expansion[0].isTerminal();
+		}
+
+		Rule toRule() {
+			return new Rule(variable, expansion.length == 0 ? Word.emptyWord : new Word(expansion));
+		}
+
+		@Override
+		public String toString() {
+			return toRule() + " " + Arrays.toString(template);
+		}
+	}
+
+	/**
+	 * One piece of a template: either a hole for the trees of a child, a
+	 * node of the original grammar with its own template for children, or a
+	 * whole fixed tree (for the variables which generate ε).
+	 */
+	private static final class Part {
+
+		/** The number of the hole, or -1 if this is not a hole. */
+		private final int hole;
+
+		/** The symbol of a node, otherwise null. */
+		private final Symbol symbol;
+
+		/** The template for the children of a node. */
+		private final Part[] children;
+
+		/** The fixed tree, otherwise null. */
+		private final ParseTreeNode tree;
+
+		private Part(int hole, Symbol symbol, Part[] children, ParseTreeNode tree) {
+			this.hole = hole;
+			this.symbol = symbol;
+			this.children = children;
+			this.tree = tree;
+		}
+
+		static Part hole(int hole) {
+			return new Part(hole, null, null, null);
+		}
+
+		static Part node(Symbol symbol, Part[] children) {
+			return new Part(-1, symbol, children, null);
+		}
+
+		static Part fixed(ParseTreeNode tree) {
+			return new Part(-1, null, null, tree);
+		}
+
+		@Override
+		public String toString() {
+			if(hole >= 0) {
+				return "#" + hole;
+			} else if(symbol != null) {
+				return symbol + Arrays.toString(children);
+			}
+			return "fixed";
+		}
+	}
+
+	/**
+	 * A main method which converts a small arithmetic expression grammar,
+	 * which has unit rules and long rules, and prints the result.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String... args) {
+		Variable e = new Variable('E');
+		Variable t = new Variable('T');
+		Variable f = new Variable('F');
+		List<Rule> rules = new ArrayList<>();
+		rules.add(new Rule(e, new Word(e, new Terminal('+'), t)));
+		rules.add(new Rule(e, new Word(t)));
+		rules.add(new Rule(t, new Word(t, new Terminal('*'), f)));
+		rules.add(new Rule(t, new Word(f)));
+		rules.add(new Rule(f, new Word(new Terminal('('), e, new Terminal(')'))));
+		rules.add(new Rule(f, new Word("x")));
+		ContextFreeGrammar cfg = new ContextFreeGrammar(rules);
+
+		ChomskyNormalForm cnf = new ChomskyNormalForm(cfg);
+		System.out.println(cfg);
+		System.out.println();
+		System.out.println(cnf.getGrammar());
+		assert(cnf.getGrammar().isInChomskyNormalForm());
+	}
+
+}
@@ -0,0 +1,408 @@
+package computation.contextfreegrammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, indexed form of a {@link ContextFreeGrammar}, built once
+ * and then shared by parsers.
+ * <p>
+ * Every variable and every terminal is given a dense integer id, starting
+ * from 0. The start variable is always variable 0, and the other symbols are
+ * numbered in the order they first appear in the rules. Rules are numbered in
+ * grammar order, and are indexed three ways:
+ * <ul>
+ * <li>by left hand side, so we can find every rule A → ... for a variable A,</li>
+ * <li>by terminal, so we can find every variable A with a rule A → a, and</li>
+ * <li>by pair of variables, so we can find every variable A with a rule A → BC.</li>
+ * </ul>
+ * A parser can then look rules up directly instead of scanning the whole
+ * rule list, and compare symbols as ints instead of building words.
+ * <p>
+ * In the right hand side of a rule (see {@link #getRuleExpansion(int)}),
+ * variables are written as their id and terminals as {@code -(id + 1)}, so
+ * that one int array can hold both. Use {@link #isTerminalCode(int)} and
+ * {@link #terminalOfCode(int)} to tell them apart.
+ * <p>
+ * Nothing in this class changes once it is constructed, so one instance can
+ * be shared freely between threads. Methods which return an array hand out
+ * the shared internal array for speed, so callers must not modify it.
+ * Changes to the source grammar after compiling are not seen.
+ */
+public final class CompiledGrammar {
+
+	/** Returned when a lookup finds nothing. */
+	private static final int[] NONE = new int[0];
+
+	/** The grammar this was compiled from. */
+	private final ContextFreeGrammar grammar;
+
+	/** The variables, indexed by id. */
+	private final Variable[] variables;
+
+	/** The terminals, indexed by id. */
+	private final Terminal[] terminals;
+
+	/** Ids of the variables. */
+	private final Map<Variable, Integer> variableIds;
+
+	/** Ids of the terminals. */
+	private final Map<Terminal, Integer> terminalIds;
+
+	/** The rules, in grammar order. */
+	private final Rule[] rules;
+
+	/** The left hand side variable id of each rule. */
+	private final int[] ruleVariables;
+
+	/** The right hand side of each rule, with symbols coded as described above. */
+	private final int[][] ruleExpansions;
+
+	/** Rule ids indexed by left hand side variable id. */
+	private final int[][] rulesByVariable;
+
+	/** Ids of the rules A → BC, indexed by the id of B. */
+	private final int[][] binaryRulesByLeft;
+
+	/** Ids of the variables A with a rule A → a, indexed by the id of a. */
+	private final int[][] terminalProducers;
+
+	/** Ids of the variables A with a rule A → BC, keyed by {@link #pairKey(int, int)}. */
+	private final Map<Long, int[]> pairProducers;
+
+	/** Whether the grammar has the rule S → ε for its start variable. */
+	private final boolean derivesEmptyWord;
+
+	/**
+	 * Gets the compiled form of a grammar. A {@link ContextFreeGrammar#freeze()
+	 * frozen} grammar is only compiled once, and the same compiled grammar is
+	 * returned every time after that, so parsers should use this rather than
+	 * the constructor.
+	 *
+	 * @param cfg the context free grammar
+	 * @return the compiled grammar
+	 */
+	public static CompiledGrammar of(ContextFreeGrammar cfg) {
+		return cfg.compiled();
+	}
+
+	/**
+	 * Compiles the given grammar.
+	 *
+	 * @param cfg the context free grammar
+	 */
+	public CompiledGrammar(ContextFreeGrammar cfg) {
+		this.grammar = cfg;
+		List<Rule> ruleList = cfg.getRules();
+
+		// number the symbols: start variable first, then in order of appearance
+		Map<Variable, Integer> varIds = new LinkedHashMap<>();
+		Map<Terminal, Integer> termIds = new LinkedHashMap<>();
+		// the keys are the canonical symbols, so that looking up a canonical symbol is a reference comparison
+		varIds.put(cfg.getStartVariable().intern(), 0);
+		for(Rule rule : ruleList) {
+			varIds.putIfAbsent(rule.getVariable().intern(), varIds.size());
+			for(Symbol s : rule.getExpansion()) {
+				if(s.isTerminal()) {
+					termIds.putIfAbsent((Terminal) s.intern(), termIds.size());
+				} else {
+					varIds.putIfAbsent((Variable) s.intern(), varIds.size());
+				}
+			}
+		}
+		for(Variable v : cfg.getVariables()) {
+			varIds.putIfAbsent(v.intern(), varIds.size());
+		}
+		for(Terminal t : cfg.getTerminals()) {
+			termIds.putIfAbsent(t.intern(), termIds.size());
+		}
+		this.variableIds = new HashMap<>(varIds);
+		this.terminalIds = new HashMap<>(termIds);
+		this.variables = varIds.keySet().toArray(new Variable[0]);
+		this.terminals = termIds.keySet().toArray(new Terminal[0]);
+
+		// code up the rules and build the indexes
+		int ruleCount = ruleList.size();
+		this.rules = ruleList.toArray(new Rule[0]);
+		this.ruleVariables = new int[ruleCount];
+		this.ruleExpansions = new int[ruleCount][];
+
+		List<Collection<Integer>> byVariable = emptyCollections(variables.length);
+		List<Collection<Integer>> byLeft = emptyCollections(variables.length);
+		List<Collection<Integer>> byTerminal = emptyCollections(terminals.length);
+		Map<Long, Collection<Integer>> byPair = new HashMap<>();
+		boolean emptyWord = false;
+
+		for(int r = 0; r < ruleCount; r++) {
+			Rule rule = rules[r];
+			int lhs = variableIds.get(rule.getVariable());
+			Word expansion = rule.getExpansion();
+			int[] codes = new int[expansion.length()];
+			for(int i = 0; i < codes.length; i++) {
+				Symbol s = expansion.get(i);
+				codes[i] = s.isTerminal() ? -(terminalIds.get(s) + 1) : variableIds.get(s);
+			}
+			ruleVariables[r] = lhs;
+			ruleExpansions[r] = codes;
+			byVariable.get(lhs).add(r);
+
+			if(codes.length == 0 && lhs == 0) {
+				emptyWord = true;
+			} else if(codes.length == 1 && isTerminalCode(codes[0])) {
+				byTerminal.get(terminalOfCode(codes[0])).add(lhs);
+			} else if(codes.length == 2 && !isTerminalCode(codes[0]) && !isTerminalCode(codes[1])) {
+				byLeft.get(codes[0]).add(r);
+				byPair.computeIfAbsent(pairKey(codes[0], codes[1]), k -> new LinkedHashSet<>()).add(lhs);
+			}
+		}
+
+		this.rulesByVariable = toArrays(byVariable);
+		this.binaryRulesByLeft = toArrays(byLeft);
+		this.terminalProducers = toArrays(byTerminal);
+		Map<Long, int[]> pairs = new HashMap<>();
+		for(Map.Entry<Long, Collection<Integer>> e : byPair.entrySet()) {
+			pairs.put(e.getKey(), toArray(e.getValue()));
+		}
+		this.pairProducers = pairs;
+		this.derivesEmptyWord = emptyWord;
+	}
+
+	/**
+	 * Gets the grammar this was compiled from.
+	 *
+	 * @return the grammar
+	 */
+	public ContextFreeGrammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Gets the number of variables. Variable ids run from 0 to this minus 1.
+	 *
+	 * @return the number of variables
+	 */
+	public int getVariableCount() {
+		return variables.length;
+	}
+
+	/**
+	 * Gets the number of terminals. Terminal ids run from 0 to this minus 1.
+	 *
+	 * @return the number of terminals
+	 */
+	public int getTerminalCount() {
+		return terminals.length;
+	}
+
+	/**
+	 * Gets the number of rules. Rule ids run from 0 to this minus 1.
+	 *
+	 * @return the number of rules
+	 */
+	public int getRuleCount() {
+		return rules.length;
+	}
+
+	/**
+	 * Gets the id of the start variable, which is always 0.
+	 *
+	 * @return the start variable id
+	 */
+	public int getStartId() {
+		return 0;
+	}
+
+	/**
+	 * Gets the variable with the given id.
+	 *
+	 * @param id the variable id
+	 * @return the canonical instance of the variable
+	 */
+	public Variable getVariable(int id) {
+		return variables[id];
+	}
+
+	/**
+	 * Gets the terminal with the given id.
+	 *
+	 * @param id the terminal id
+	 * @return the canonical instance of the terminal
+	 */
+	public Terminal getTerminal(int id) {
+		return terminals[id];
+	}
+
+	/**
+	 * Gets the id of a variable.
+	 *
+	 * @param symbol the symbol
+	 * @return the id, or -1 if the symbol is not a variable in this grammar
+	 */
+	public int getVariableId(Symbol symbol) {
+		Integer id = variableIds.get(symbol);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the id of a terminal.
+	 *
+	 * @param symbol the symbol
+	 * @return the id, or -1 if the symbol is not a terminal in this grammar
+	 */
+	public int getTerminalId(Symbol symbol) {
+		Integer id = terminalIds.get(symbol);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the rule with the given id.
+	 *
+	 * @param ruleId the rule id
+	 * @return the rule
+	 */
+	public Rule getRule(int ruleId) {
+		return rules[ruleId];
+	}
+
+	/**
+	 * Gets the id of the left hand side variable of a rule.
+	 *
+	 * @param ruleId the rule id
+	 * @return the variable id
+	 */
+	public int getRuleVariable(int ruleId) {
+		return ruleVariables[ruleId];
+	}
+
+	/**
+	 * Gets the right hand side of a rule, with variables as their id and
+	 * terminals as {@code -(id + 1)}.
+	 *
+	 * @param ruleId the rule id
+	 * @return the coded expansion, which must not be modified
+	 */
+	public int[] getRuleExpansion(int ruleId) {
+		return ruleExpansions[ruleId];
+	}
+
+	/**
+	 * Gets the ids of every rule with the given variable on the left hand side,
+	 * in grammar order.
+	 *
+	 * @param variableId the variable id
+	 * @return the rule ids, which must not be modified
+	 */
+	public int[] getRulesFor(int variableId) {
+		return rulesByVariable[variableId];
+	}
+
+	/**
+	 * Gets the ids of every rule A → BC for the given B, in grammar order.
+	 *
+	 * @param leftId the id of B
+	 * @return the rule ids, which must not be modified
+	 */
+	public int[] getBinaryRulesByLeft(int leftId) {
+		return binaryRulesByLeft[leftId];
+	}
+
+	/**
+	 * Gets the ids of every variable A with a rule A → a.
+	 *
+	 * @param terminalId the id of a
+	 * @return the variable ids, which must not be modified
+	 */
+	public int[] getTerminalProducers(int terminalId) {
+		return terminalProducers[terminalId];
+	}
+
+	/**
+	 * Gets the ids of every variable A with a rule A → BC.
+	 *
+	 * @param leftId the id of B
+	 * @param rightId the id of C
+	 * @return the variable ids, which must not be modified
+	 */
+	public int[] getPairProducers(int leftId, int rightId) {
+		int[] producers = pairProducers.get(pairKey(leftId, rightId));
+		return producers == null ? NONE : producers;
+	}
+
+	/**
+	 * Checks for the rule S → ε, where S is the start variable.
+	 *
+	 * @return true, if the start variable has an ε rule
+	 */
+	public boolean derivesEmptyWord() {
+		return derivesEmptyWord;
+	}
+
+	/**
+	 * Checks whether a symbol in a coded expansion is a terminal.
+	 *
+	 * @param code the coded symbol
+	 * @return true, if it is a terminal
+	 */
+	public static boolean isTerminalCode(int code) {
+		return code < 0;
+	}
+
+	/**
+	 * Gets the terminal id from a coded terminal.
+	 *
+	 * @param code the coded symbol, which must be a terminal
+	 * @return the terminal id
+	 */
+	public static int terminalOfCode(int code) {
+		return -code - 1;
+	}
+
+	/**
+	 * Packs a pair of variable ids into a single map key.
+	 */
+	private static long pairKey(int leftId, int rightId) {
+		return ((long) leftId << 32) | (rightId & 0xffffffffL);
+	}
+
+	/**
+	 * Makes n empty collections to index into. Sets are used so that a
+	 * variable listed by several rules only appears once in an index.
+	 */
+	private static List<Collection<Integer>> emptyCollections(int n) {
+		List<Collection<Integer>> collections = new ArrayList<>(n);
+		for(int i = 0; i < n; i++) {
+			collections.add(new LinkedHashSet<>());
+		}
+		return collections;
+	}
+
+	private static int[][] toArrays(List<Collection<Integer>> lists) {
+		int[][] arrays = new int[lists.size()][];
+		for(int i = 0; i < arrays.length; i++) {
+			arrays[i] = toArray(lists.get(i));
+		}
+		return arrays;
+	}
+
+	private static int[] toArray(Collection<Integer> list) {
+		if(list.isEmpty()) {
+			return NONE;
+		}
+		return list.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CompiledGrammar" + Arrays.toString(variables) + Arrays.toString(terminals) + " with " + rules.length + " rules";
+	}
+
+}
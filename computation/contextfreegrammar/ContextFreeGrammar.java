@@ -1,7 +1,9 @@
 package computation.contextfreegrammar;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -9,6 +11,12 @@ import java.util.stream.Collectors;
 
 /**
  * Represents a context free grammar.
+ * <p>
+ * A grammar hands out its own sets and list, so it can be changed by
+ * changing them. Anything which needs a grammar to stay the same, e.g. a
+ * cache keyed on it, should use a <i>frozen</i> copy from {@link #freeze()},
+ * which can't be changed and remembers its hash code, its
+ * {@link #getFingerprint() fingerprint} and its {@link CompiledGrammar}.
  * 
  * @author Andrew Chinery
  */
@@ -33,6 +41,18 @@ public class ContextFreeGrammar {
 	/** The start variable. */
 	private Variable startVariable;
 
+	/** Whether this grammar is frozen, see {@link #freeze()}. */
+	private final boolean frozen;
+
+	/** The hash code of a frozen grammar, once worked out (0 until then). */
+	private int hash;
+
+	/** The fingerprint of a frozen grammar, once worked out. */
+	private volatile Fingerprint fingerprint;
+
+	/** The compiled form of a frozen grammar, once made. */
+	private volatile CompiledGrammar compiled;
+
 	/**
 	 * Instantiates a new context free grammar with all parts supplied.
 	 *
@@ -47,6 +67,18 @@ public class ContextFreeGrammar {
 		this.terminals = terminals;
 		this.rules = rules;
 		this.startVariable = startVariable;
+		this.frozen = false;
+	}
+
+	/**
+	 * Instantiates a frozen copy of a grammar.
+	 */
+	private ContextFreeGrammar(ContextFreeGrammar cfg) {
+		this.variables = Collections.unmodifiableSet(new LinkedHashSet<>(cfg.variables));
+		this.terminals = Collections.unmodifiableSet(new LinkedHashSet<>(cfg.terminals));
+		this.rules = Collections.unmodifiableList(new ArrayList<>(cfg.rules));
+		this.startVariable = cfg.startVariable;
+		this.frozen = true;
 	}
 
 	/**
@@ -71,6 +103,103 @@ public class ContextFreeGrammar {
 				.map(n -> (Terminal)n)					//-casts symbols to terminal objects
 				.collect(Collectors.toSet()); 			//-converts to a set
 		startVariable = rules.get(0).getVariable();
+		frozen = false;
+	}
+
+	/**
+	 * Reads a grammar from text, in the same form that {@link #toString()}
+	 * prints it: one or more rules per line, such as
+	 * <blockquote><pre>
+	 * # the start variable is the left hand side of the first rule
+	 * A₀ → ε | ZY | ZB
+	 * B → AY
+	 * Z → 0
+	 * </pre></blockquote>
+	 * The arrow can also be written {@code ->}, and {@code |} separates
+	 * several right hand sides for the same variable. An upper case letter is
+	 * a variable, which can have a subscript written with subscript digits
+	 * (A₀) or with an underscore (A_0). Anything else is a terminal, except
+	 * that ε (or nothing at all) is the empty word. Spaces are ignored, and so are blank lines
+	 * and lines starting with #.
+	 *
+	 * @param text the rules
+	 * @return the grammar
+	 * @throws IllegalArgumentException if the text is not a grammar, saying which line is wrong
+	 */
+	public static ContextFreeGrammar fromString(String text) {
+		List<Rule> rules = new ArrayList<>();
+		String[] lines = text.split("\r?\n");
+		for(int n = 0; n < lines.length; n++) {
+			String line = lines[n].trim();
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int arrow = line.indexOf('→');
+			int arrowLength = 1;
+			if(arrow < 0) {
+				arrow = line.indexOf("->");
+				arrowLength = 2;
+			}
+			if(arrow < 0) {
+				throw new IllegalArgumentException("Line " + (n + 1) + ": no → in \"" + line + "\"");
+			}
+			List<Symbol> lhs = readSymbols(line.substring(0, arrow), n);
+			if(lhs.size() != 1 || lhs.get(0).isTerminal()) {
+				throw new IllegalArgumentException("Line " + (n + 1) + ": the left hand side must be one variable");
+			}
+			Variable variable = (Variable) lhs.get(0);
+			for(String expansion : line.substring(arrow + arrowLength).split("\\|", -1)) {
+				List<Symbol> symbols = readSymbols(expansion, n);
+				rules.add(new Rule(variable, symbols.isEmpty() ? Word.emptyWord : new Word(symbols.toArray(new Symbol[0]))));
+			}
+		}
+		if(rules.isEmpty()) {
+			throw new IllegalArgumentException("A grammar needs at least one rule");
+		}
+		return new ContextFreeGrammar(rules);
+	}
+
+	/**
+	 * Reads the symbols of one side of a rule, for {@link #fromString(String)}.
+	 * A lone ε gives no symbols.
+	 */
+	private static List<Symbol> readSymbols(String side, int line) {
+		List<Symbol> symbols = new ArrayList<>();
+		String trimmed = side.trim();
+		if(trimmed.equals("ε")) {
+			return symbols;
+		}
+		for(int i = 0; i < trimmed.length(); i++) {
+			char c = trimmed.charAt(i);
+			if(Character.isWhitespace(c)) {
+				continue;
+			}
+			if(c == 'ε') {
+				throw new IllegalArgumentException("Line " + (line + 1) + ": ε must be on its own");
+			}
+			if(!Character.isUpperCase(c)) {
+				symbols.add(Terminal.of(c));
+				continue;
+			}
+			// an optional subscript, as subscript digits or _ and digits
+			int subscript = -1;
+			if(i + 1 < trimmed.length() && trimmed.charAt(i + 1) == '_') {
+				i++;
+				if(i + 1 >= trimmed.length() || !Character.isDigit(trimmed.charAt(i + 1))) {
+					throw new IllegalArgumentException("Line " + (line + 1) + ": _ must be followed by a subscript");
+				}
+				subscript = 0;
+				while(i + 1 < trimmed.length() && trimmed.charAt(i + 1) >= '0' && trimmed.charAt(i + 1) <= '9') {
+					subscript = subscript * 10 + (trimmed.charAt(++i) - '0');
+				}
+			} else {
+				while(i + 1 < trimmed.length() && trimmed.charAt(i + 1) >= '₀' && trimmed.charAt(i + 1) <= '₉') {
+					subscript = Math.max(subscript, 0) * 10 + (trimmed.charAt(++i) - '₀');
+				}
+			}
+			symbols.add(subscript < 0 ? Variable.of(c) : Variable.of(c, subscript));
+		}
+		return symbols;
 	}
 
 	/**
@@ -109,6 +238,67 @@ public class ContextFreeGrammar {
 		return startVariable;
 	}
 
+	/**
+	 * Gets a frozen copy of this grammar, with the same rules in the same
+	 * order. Its sets and list can't be changed (rules, words and symbols
+	 * never change anyway), so it can safely be shared and used as a key.
+	 * <p>
+	 * The copy is equal to this grammar (as long as this one isn't changed).
+	 * Freezing a grammar which is already frozen just returns it.
+	 *
+	 * @return the frozen grammar
+	 */
+	public ContextFreeGrammar freeze() {
+		return frozen ? this : new ContextFreeGrammar(this);
+	}
+
+	/**
+	 * Checks if this grammar is frozen, see {@link #freeze()}.
+	 *
+	 * @return true, if this grammar can't be changed
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Gets the 128-bit fingerprint of the contents of this grammar, which
+	 * doesn't depend on the order of the rules. See {@link Fingerprint}.
+	 * <p>
+	 * A frozen grammar only works this out once. Otherwise it is worked out
+	 * again every time, since the grammar might have changed.
+	 *
+	 * @return the fingerprint
+	 */
+	public Fingerprint getFingerprint() {
+		if(!frozen) {
+			return Fingerprint.of(this);
+		}
+		Fingerprint result = fingerprint;
+		if(result == null) {
+			// two threads might both work it out, but they get the same answer
+			result = Fingerprint.of(this);
+			fingerprint = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the compiled form of this grammar. A frozen grammar only compiles
+	 * itself once. See {@link CompiledGrammar#of(ContextFreeGrammar)}.
+	 */
+	CompiledGrammar compiled() {
+		if(!frozen) {
+			return new CompiledGrammar(this);
+		}
+		CompiledGrammar result = compiled;
+		if(result == null) {
+			result = new CompiledGrammar(this);
+			compiled = result;
+		}
+		return result;
+	}
+
 	/**
 	 * Checks if this grammar is is in Chomsky normal form (CNF).
 	 * <p>
@@ -156,6 +346,20 @@ public class ContextFreeGrammar {
 		return true;
 	}
 
+	/**
+	 * Makes a new grammar in Chomsky normal form (CNF) which generates the
+	 * same language as this one. This grammar is not changed.
+	 * <p>
+	 * To turn parse trees in the new grammar back into parse trees in this
+	 * one, use a {@link ChomskyNormalForm} object directly instead.
+	 *
+	 * @return the grammar in Chomsky normal form
+	 * @see ChomskyNormalForm
+	 */
+	public ContextFreeGrammar toChomskyNormalForm() {
+		return new ChomskyNormalForm(this).getGrammar();
+	}
+
 	/**
 	 * This static method will generate an example context free grammar
 	 * which is already in Chomsky Normal Form (CNF). You may wish to
@@ -255,12 +459,18 @@ public class ContextFreeGrammar {
 	 */
 	@Override
 	public int hashCode() {
+		if(frozen && hash != 0) {
+			return hash;
+		}
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((rules == null) ? 0 : rules.hashCode());
 		result = prime * result + ((startVariable == null) ? 0 : startVariable.hashCode());
 		result = prime * result + ((terminals == null) ? 0 : terminals.hashCode());
 		result = prime * result + ((variables == null) ? 0 : variables.hashCode());
+		if(frozen) {
+			hash = result;
+		}
 		return result;
 	}
 
@@ -0,0 +1,188 @@
+package computation.contextfreegrammar;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A 128-bit fingerprint of the contents of a {@link ContextFreeGrammar}: its
+ * rules, variables, terminals and start variable.
+ * <p>
+ * Grammars with the same contents have the same fingerprint, whatever order
+ * their rules are listed in, and however many times a rule is repeated. Two
+ * grammars with different contents are very unlikely to share one (with a
+ * billion grammars, the chance is about 1 in 10<sup>20</sup>), so the
+ * fingerprint can stand in for the grammar as a key, e.g. in a cache.
+ * <p>
+ * The fingerprint only depends on the characters and subscripts of the
+ * symbols, not on anything which changes from run to run, so it can also be
+ * saved, e.g. with a file of results, and compared next time.
+ * <p>
+ * Each rule, variable and terminal is hashed to 128 bits on its own, and the
+ * hashes are added up, which is why the order doesn't matter. The sums and
+ * the start variable are then mixed together. This is meant to catch
+ * accidents, not to resist someone making collisions on purpose.
+ *
+ * @see ContextFreeGrammar#getFingerprint()
+ */
+public final class Fingerprint {
+
+	/** Tags which keep e.g. the hash of a variable apart from the hash of a rule. */
+	private static final long RULE = 1, VARIABLE = 2, TERMINAL = 3, START = 4;
+
+	private final long high;
+	private final long low;
+
+	/**
+	 * Instantiates a fingerprint from its two halves, e.g. to compare with a saved one.
+	 *
+	 * @param high the high 64 bits
+	 * @param low the low 64 bits
+	 */
+	public Fingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Works out the fingerprint of a grammar. This looks at every rule, so
+	 * use {@link ContextFreeGrammar#getFingerprint()}, which remembers it for
+	 * a frozen grammar.
+	 *
+	 * @param cfg the context free grammar
+	 * @return the fingerprint
+	 */
+	static Fingerprint of(ContextFreeGrammar cfg) {
+		long high = 0, low = 0;
+		// a rule listed twice is still one rule
+		Set<Rule> rules = new HashSet<>(cfg.getRules());
+		Hasher hasher = new Hasher();
+		for(Rule rule : rules) {
+			hasher.start(RULE);
+			hasher.add(code(rule.getVariable()));
+			Word expansion = rule.getExpansion();
+			hasher.add(expansion.length());
+			for(Symbol s : expansion) {
+				hasher.add(code(s));
+			}
+			high += hasher.high();
+			low += hasher.low();
+		}
+		for(Variable v : cfg.getVariables()) {
+			hasher.start(VARIABLE);
+			hasher.add(code(v));
+			high += hasher.high();
+			low += hasher.low();
+		}
+		for(Terminal t : cfg.getTerminals()) {
+			hasher.start(TERMINAL);
+			hasher.add(code(t));
+			high += hasher.high();
+			low += hasher.low();
+		}
+		hasher.start(START);
+		hasher.add(code(cfg.getStartVariable()));
+		hasher.add(rules.size());
+		hasher.add(high);
+		hasher.add(low);
+		return new Fingerprint(hasher.high(), hasher.low());
+	}
+
+	/**
+	 * A number for a symbol which only depends on what it is.
+	 */
+	private static long code(Symbol s) {
+		if(s.isTerminal()) {
+			return 1L << 48 | (long) s.getCharacter() << 32;
+		}
+		return 2L << 48 | (long) s.getCharacter() << 32 | (((Variable) s).getSubscript() & 0xffffffffL);
+	}
+
+	/**
+	 * Hashes a sequence of longs to 128 bits, as two 64-bit halves with
+	 * different multipliers, finishing each with the MurmurHash3 mixer.
+	 */
+	private static final class Hasher {
+
+		private long h1, h2;
+
+		void start(long tag) {
+			h1 = 0x9e3779b97f4a7c15L ^ tag;
+			h2 = 0xc2b2ae3d27d4eb4fL ^ tag;
+		}
+
+		void add(long value) {
+			h1 = mix(h1 ^ value) * 0x87c37b91114253d5L;
+			h2 = mix(h2 + value) * 0x4cf5ad432745937fL;
+			h2 += h1;
+		}
+
+		long high() {
+			return mix(h1 + h2);
+		}
+
+		long low() {
+			return mix(h2 ^ Long.rotateLeft(h1, 31));
+		}
+
+		private static long mix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+	}
+
+	/**
+	 * Gets the high 64 bits.
+	 *
+	 * @return the high half
+	 */
+	public long getHigh() {
+		return high;
+	}
+
+	/**
+	 * Gets the low 64 bits.
+	 *
+	 * @return the low half
+	 */
+	public long getLow() {
+		return low;
+	}
+
+	/**
+	 * Produces the fingerprint as 32 hexadecimal digits.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return (int) (low ^ (low >>> 32));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof Fingerprint)) {
+			return false;
+		}
+		Fingerprint other = (Fingerprint) obj;
+		return high == other.high && low == other.low;
+	}
+
+}
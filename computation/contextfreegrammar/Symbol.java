@@ -2,11 +2,28 @@ package computation.contextfreegrammar;
 
 /**
  * A superclass for variables and terminals.
+ * <p>
+ * Symbols can be made with {@code new}, but there is also exactly one
+ * shared <i>canonical</i> instance of each symbol, given by
+ * {@link Terminal#of(char)}, {@link Variable#of(char)} and
+ * {@link #intern()}. Two canonical symbols are equal only if they are the
+ * same object, so comparing them is a single reference comparison. A symbol
+ * made with {@code new} is still equal to the canonical one with the same
+ * value, it is just slower to compare.
  */
 public abstract class Symbol {
 
 	/** The symbol. */
-	private char symbol;
+	private final char symbol;
+
+	/** The hash code, worked out once. */
+	private final int hash;
+
+	/** Whether this is the shared instance for its value. */
+	private final boolean canonical;
+
+	/** The id of a canonical symbol in the {@link SymbolTable}, otherwise -1. */
+	private final int id;
 
 	/**
 	 * Instantiates a new symbol.
@@ -14,12 +31,59 @@ public abstract class Symbol {
 	 * @param symbol the symbol
 	 */
 	public Symbol(char symbol) {
+		this(symbol, false);
+	}
+
+	/**
+	 * Instantiates a new symbol, which may be the canonical instance.
+	 *
+	 * @param symbol the symbol
+	 * @param canonical true, if this is the shared instance for its value
+	 */
+	Symbol(char symbol, boolean canonical) {
 		if(symbol == 'ε') {
 			throw new IllegalArgumentException("ε is reserved for the empty word (see Word.emptyWord).");
 		}
 		this.symbol = symbol;
+		this.hash = 31 + symbol;
+		this.canonical = canonical;
+		this.id = canonical ? SymbolTable.register(this) : -1;
 	}
 
+	/**
+	 * Gets the character of this symbol, without any subscript.
+	 *
+	 * @return the character
+	 */
+	char getCharacter() {
+		return symbol;
+	}
+
+	/**
+	 * Checks if this is the shared instance for its value.
+	 *
+	 * @return true, if canonical
+	 */
+	boolean isCanonical() {
+		return canonical;
+	}
+
+	/**
+	 * Gets the id of this symbol in the {@link SymbolTable}.
+	 *
+	 * @return the id, or -1 if this is not canonical
+	 */
+	int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the canonical instance of this symbol, which is equal to it.
+	 *
+	 * @return the canonical symbol
+	 */
+	public abstract Symbol intern();
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -33,10 +97,7 @@ public abstract class Symbol {
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + symbol;
-		return result;
+		return hash;
 	}
 
 	/* (non-Javadoc)
@@ -46,6 +107,9 @@ public abstract class Symbol {
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
+		// there is only one canonical instance of each symbol
+		if (canonical && obj instanceof Symbol && ((Symbol) obj).canonical)
+			return false;
 		if (obj == null)
 			return false;
 		if (getClass() != obj.getClass())
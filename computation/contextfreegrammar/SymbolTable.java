@@ -0,0 +1,50 @@
+package computation.contextfreegrammar;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the canonical symbols, so that a {@link Word} can store a symbol
+ * as a small int instead of a reference.
+ * <p>
+ * Ids are handed out in the order the canonical symbols are made, starting
+ * from 0, and are never reused. Ids below 65536 fit in a char, which is
+ * what words use when they can.
+ */
+final class SymbolTable {
+
+	/** The canonical symbols, indexed by id. Replaced by a larger copy when full. */
+	private static volatile Symbol[] symbols = new Symbol[512];
+
+	/** The number of ids handed out. */
+	private static int size;
+
+	private SymbolTable() {
+	}
+
+	/**
+	 * Gives a canonical symbol its id.
+	 *
+	 * @param symbol the canonical symbol
+	 * @return the id
+	 */
+	static synchronized int register(Symbol symbol) {
+		Symbol[] table = symbols;
+		if(size == table.length) {
+			table = Arrays.copyOf(table, table.length * 2);
+		}
+		table[size] = symbol;
+		symbols = table;
+		return size++;
+	}
+
+	/**
+	 * Gets the canonical symbol with the given id.
+	 *
+	 * @param id the id, which must have been handed out
+	 * @return the symbol
+	 */
+	static Symbol get(int id) {
+		return symbols[id];
+	}
+
+}
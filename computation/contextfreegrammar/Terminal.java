@@ -1,10 +1,32 @@
 package computation.contextfreegrammar;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Represents a terminal symbol. Not much to see here!
+ * <p>
+ * Use {@link #of(char)} to get the shared instance of a terminal instead of
+ * making a new one each time.
  */
 public class Terminal extends Symbol {
 
+	/** The canonical ASCII terminals, made up front since they are by far the most used. */
+	private static final Terminal[] ascii = new Terminal[128];
+
+	/** The canonical terminals outside ASCII, made when first asked for. */
+	private static final ConcurrentMap<Character, Terminal> interned = new ConcurrentHashMap<>();
+
+	static {
+		for(char c = 0; c < ascii.length; c++) {
+			char lower = Character.toLowerCase(c);
+			if(ascii[lower] == null) {
+				ascii[lower] = new Terminal(lower, true);
+			}
+			ascii[c] = ascii[lower];
+		}
+	}
+
 	/**
 	 * Instantiates a new terminal.
 	 *
@@ -14,6 +36,36 @@ public class Terminal extends Symbol {
 		super(Character.toLowerCase(symbol));
 	}
 
+	private Terminal(char symbol, boolean canonical) {
+		super(Character.toLowerCase(symbol), canonical);
+	}
+
+	/**
+	 * Gets the shared instance of a terminal. Automatically converts to lower case.
+	 *
+	 * @param symbol the symbol
+	 * @return the terminal
+	 */
+	public static Terminal of(char symbol) {
+		if(symbol < ascii.length) {
+			return ascii[symbol];
+		}
+		char lower = Character.toLowerCase(symbol);
+		Terminal t = interned.get(lower);
+		if(t == null) {
+			t = interned.computeIfAbsent(lower, c -> new Terminal(c, true));
+		}
+		return t;
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.contextfreegrammar.Symbol#intern()
+	 */
+	@Override
+	public Terminal intern() {
+		return isCanonical() ? this : of(getCharacter());
+	}
+
 	/* (non-Javadoc)
 	 * @see computation.contextfreegrammar.Symbol#isTerminal()
 	 */
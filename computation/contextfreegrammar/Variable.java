@@ -1,6 +1,8 @@
 package computation.contextfreegrammar;
 
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Represents a variable, a.k.a. a nonterminal.
@@ -13,23 +15,47 @@ import java.util.Arrays;
  * this will become especially clear when you convert a grammar into
  * Chomsky normal form.
  * <p>
- * This class allows for variables with subscripts from 0 to 9, and
+ * This class allows for variables with any non-negative subscript, and
  * should handle them consistently as if they were different letters.
+ * Subscripts from 0 to 9 are the usual case, but larger ones are useful
+ * when a program makes up new variables, e.g. S₁₂.
  * There is also a {@link #subscriptedVariables(char, int) helper method}
  * which will produce an array of variable objects, 
  * e.g. I want 3 S variables: S₀, S₁, S₂.
+ * <p>
+ * Use {@link #of(char)} and {@link #of(char, int)} to get the shared
+ * instance of a variable instead of making a new one each time.
  */
 public class Variable extends Symbol {
 
 	/** All symbols have a character, variables can have an additional subscript */
-	private char subscript = empty;
+	private final int subscript;
+
+	/** The hash code, worked out once. */
+	private final int hash;
 
-	/** This null character is used if you just want a single character variable. */
-	private final static char empty = '\u0000';
+	/** This value is used if you just want a single character variable. */
+	private final static int empty = -1;
 
 	/** Here are the Unicode subscripts we're using. */
 	private final static char[] subscripts = {'₀', '₁', '₂', '₃', '₄', '₅', '₆', '₇', '₈', '₉'}; 
 
+	/** The canonical ASCII variables without a subscript, made up front. */
+	private final static Variable[] ascii = new Variable[128];
+
+	/** The other canonical variables, keyed by character and subscript, made when first asked for. */
+	private final static ConcurrentMap<Long, Variable> interned = new ConcurrentHashMap<>();
+
+	static {
+		for(char c = 0; c < ascii.length; c++) {
+			char upper = Character.toUpperCase(c);
+			if(ascii[upper] == null) {
+				ascii[upper] = new Variable(upper, empty, true);
+			}
+			ascii[c] = ascii[upper];
+		}
+	}
+
 	/**
 	 * Instantiates a new variable with a single character symbol. Automatically
 	 * converts to upper case.
@@ -37,19 +63,36 @@ public class Variable extends Symbol {
 	 * @param symbol the symbol for this variable
 	 */
 	public Variable(char symbol) {
-		super(Character.toUpperCase(symbol));
+		this(symbol, empty, false);
 	}
 
 	/**
-	 * Instantiates a new variable with a string, must be of length 1 or 2.
+	 * Instantiates a new variable with a single character symbol and a
+	 * subscript. Automatically converts to upper case.
+	 * <p>
+	 * e.g. {@code new Variable('A', 3)} is the same variable as
+	 * {@code new Variable("A3")}.
+	 *
+	 * @param symbol the symbol for this variable
+	 * @param subscript the subscript, which may be more than one digit
+	 * @throws IllegalArgumentException if the subscript is negative
+	 */
+	public Variable(char symbol, int subscript) {
+		this(symbol, checkSubscript(subscript), false);
+	}
+
+	/**
+	 * Instantiates a new variable with a string, which must be a single
+	 * character followed by an optional number.
 	 * <p>
 	 * If length 1, will just initialise as if you called
 	 * {@link #Variable(char) the other constructor}.
 	 * <p>
-	 * If length 2, will use the second character as a subscript.
+	 * Otherwise, will use the digits after the first character as a subscript.
 	 * <p>
-	 * e.g. this is valid:<br>
+	 * e.g. these are valid:<br>
 	 * {@code new Variable("A3");} <br>
+	 * {@code new Variable("A12");} <br>
 	 * this is not: <br>
 	 * {@code new Variable("BB");} <br>
 	 * and will throw an exception.
@@ -58,15 +101,108 @@ public class Variable extends Symbol {
 	 * @param symbolSubscript the symbol subscript
 	 */
 	public Variable(String symbolSubscript) {
-		super(Character.toUpperCase(symbolSubscript.charAt(0)));
-		if(symbolSubscript.length() > 1) {
-			if(symbolSubscript.length() > 2 || symbolSubscript.charAt(1) < '0' || symbolSubscript.charAt(1) > '9') {
+		this(symbolSubscript.charAt(0), parseSubscript(symbolSubscript), false);
+	}
+
+	private Variable(char symbol, int subscript, boolean canonical) {
+		super(Character.toUpperCase(symbol), canonical);
+		this.subscript = subscript;
+		this.hash = 31 * super.hashCode() + subscript;
+	}
+
+	/**
+	 * Gets the subscript of this variable.
+	 *
+	 * @return the subscript, or -1 if there is none
+	 */
+	int getSubscript() {
+		return subscript;
+	}
+
+	private static int checkSubscript(int subscript) {
+		if(subscript < 0) {
+			throw new IllegalArgumentException("Subscripts must not be negative");
+		}
+		return subscript;
+	}
+
+	/**
+	 * Reads the subscript from a string such as "A12".
+	 */
+	private static int parseSubscript(String symbolSubscript) {
+		if(symbolSubscript.length() == 1) {
+			return empty;
+		}
+		int value = 0;
+		for(int i = 1; i < symbolSubscript.length(); i++) {
+			char c = symbolSubscript.charAt(i);
+			if(c < '0' || c > '9' || value > (Integer.MAX_VALUE - 9) / 10) {
 				throw new IllegalArgumentException("Variables must be of the form 'A' or \"A1\"");
 			}
-			this.subscript = subscripts[symbolSubscript.charAt(1) - '0'];
+			value = value * 10 + (c - '0');
 		}
+		return value;
 	}
 
+	/**
+	 * Gets the shared instance of a variable with a single character symbol.
+	 * Automatically converts to upper case.
+	 *
+	 * @param symbol the symbol for this variable
+	 * @return the variable
+	 */
+	public static Variable of(char symbol) {
+		if(symbol < ascii.length) {
+			return ascii[symbol];
+		}
+		return canonical(Character.toUpperCase(symbol), empty);
+	}
+
+	/**
+	 * Gets the shared instance of a variable with a subscript. Automatically
+	 * converts to upper case.
+	 *
+	 * @param symbol the symbol for this variable
+	 * @param subscript the subscript
+	 * @return the variable
+	 * @throws IllegalArgumentException if the subscript is negative
+	 */
+	public static Variable of(char symbol, int subscript) {
+		return canonical(Character.toUpperCase(symbol), checkSubscript(subscript));
+	}
+
+	/**
+	 * Gets the shared instance of a variable given as a string, in the same
+	 * form as {@link #Variable(String)}.
+	 *
+	 * @param symbolSubscript the symbol subscript
+	 * @return the variable
+	 * @throws IllegalArgumentException if the string is invalid
+	 */
+	public static Variable of(String symbolSubscript) {
+		int subscript = parseSubscript(symbolSubscript);
+		return subscript == empty ? of(symbolSubscript.charAt(0)) : of(symbolSubscript.charAt(0), subscript);
+	}
+
+	private static Variable canonical(char upper, int subscript) {
+		if(subscript == empty && upper < ascii.length) {
+			return ascii[upper];
+		}
+		long key = (long) upper << 32 | (subscript & 0xffffffffL);
+		Variable v = interned.get(key);
+		if(v == null) {
+			v = interned.computeIfAbsent(key, k -> new Variable(upper, subscript, true));
+		}
+		return v;
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.contextfreegrammar.Symbol#intern()
+	 */
+	@Override
+	public Variable intern() {
+		return isCanonical() ? this : canonical(getCharacter(), subscript);
+	}
 
 	/* (non-Javadoc)
 	 * @see computation.contextfreegrammar.Symbol#isTerminal()
@@ -81,7 +217,14 @@ public class Variable extends Symbol {
 	 */
 	@Override
 	public String toString() {
-		return this.subscript == empty ? super.toString() : super.toString() + this.subscript;
+		if(this.subscript == empty) {
+			return super.toString();
+		}
+		StringBuilder sb = new StringBuilder(super.toString());
+		for(char c : Integer.toString(subscript).toCharArray()) {
+			sb.append(subscripts[c - '0']);
+		}
+		return sb.toString();
 	}
 
 	/**
@@ -103,7 +246,7 @@ public class Variable extends Symbol {
 		}
 		Variable[] variables = new Variable[n];
 		for(int i = 0; i<n; i++) {
-			variables[i] = new Variable("" + letter + i);
+			variables[i] = of(letter, i);
 		}
 		return variables;
 	}
@@ -113,10 +256,7 @@ public class Variable extends Symbol {
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = super.hashCode();
-		result = prime * result + subscript;
-		return result;
+		return hash;
 	}
 
 	/* (non-Javadoc)
@@ -1,13 +1,37 @@
 package computation.contextfreegrammar;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A class for a string in our context free grammar. We use the term
  * 'word' to refer to a string, since string is already taken in Java!
+ * <p>
+ * Words are immutable. A word doesn't keep its symbol objects, but the
+ * id of the canonical instance of each one (see {@link Symbol#intern()}),
+ * packed into a char array, or an int array if there are ever more than
+ * 65536 canonical symbols. So a word of a million terminals takes about
+ * 2MB, rather than a reference and a symbol object per position, and
+ * {@link #get(int)} always gives back the canonical symbols. The hash code
+ * is worked out the first time it is asked for, and kept.
+ * <p>
+ * A short word is a single packed array. A longer word is a <i>rope</i>: a
+ * balanced binary tree whose leaves are packed arrays of at most
+ * {@value #LEAF_SIZE} symbols, and whose inner nodes are the words made by
+ * joining their two children. {@link #replace(int, Word)},
+ * {@link #subword(int, int)} and {@link #concatenate(Terminal)} take
+ * O(log n) time on a rope, and the word they return shares all but O(log n)
+ * of its nodes with the words it was made from. So the many sentential
+ * forms of a derivation search mostly share memory with each other.
  */
 public class Word implements Iterable<Symbol> {
 
@@ -19,8 +43,45 @@ public class Word implements Iterable<Symbol> {
 	 * */
 	public static Word emptyWord = new Word();
 
-	/** The contents of this word. */
-	private Symbol[] contents;
+	/** The most symbols in a leaf. Shorter words are copied whole, like an array. */
+	private static final int LEAF_SIZE = 256;
+
+	/**
+	 * The symbol id of each ASCII character, as {@link #Word(String)} reads it,
+	 * or null in the unlikely case that one of them doesn't fit in a char.
+	 */
+	private static final char[] ASCII_IDS = asciiIds();
+
+	/** The symbol ids of a leaf, if they all fit in a char, otherwise null. */
+	private final char[] narrow;
+
+	/** The symbol ids of a leaf, if some don't fit in a char, otherwise null. */
+	private final int[] wide;
+
+	/** The left half of an inner node, or null for a leaf. */
+	private final Word left;
+
+	/** The right half of an inner node, or null for a leaf. */
+	private final Word right;
+
+	/** The number of symbols. */
+	private final int length;
+
+	/** The height of the tree, 0 for a leaf. */
+	private final int height;
+
+	/**
+	 * The polynomial hash of the ids, see {@link #hashCode()}, or 0 if it
+	 * hasn't been worked out yet (or is 0, see {@link #polynomialIsZero}).
+	 * <p>
+	 * As in {@link String#hashCode()}, each of the two fields is written
+	 * once with a value any thread would work out, and read once into a
+	 * local, so a thread which sees a stale value just works it out again.
+	 */
+	private int polynomial;
+
+	/** Whether the polynomial hash has been worked out and is 0. */
+	private boolean polynomialIsZero;
 
 	/**
 	 * Instantiates a new word with the given symbols.
@@ -28,53 +89,300 @@ public class Word implements Iterable<Symbol> {
 	 * @param symbols the symbols
 	 */
 	public Word(Symbol... symbols) {
-		contents = symbols;
+		this(fromIds(idsOf(symbols), symbols.length));
 	}
 
 	/**
 	 * This constructor parses a Java string into a word object.
-	 * 
+	 *
 	 * Upper case symbols assumed to be variables.
-	 * 
+	 *
 	 * Everything else assumed to be a terminal.
-	 * 
+	 *
+	 * The symbols are the shared instances from {@link Terminal#of(char)}
+	 * and {@link Variable#of(char)}, so no new symbols are made.
+	 *
 	 * @param word the word
 	 */
 	public Word(String word) {
-		this(convertStringToSymbols(word));
+		this(fromIds(idsOf(word), word.length()));
+	}
+
+	/**
+	 * Makes a word straight from bytes, e.g. a line of a memory-mapped file,
+	 * without making a string first. Each byte is one character, read in
+	 * the same way as {@link #Word(String)}. A slice with any bytes that
+	 * aren't ASCII is decoded as UTF-8 instead, through a string.
+	 * <p>
+	 * The buffer's position and limit are not used or changed.
+	 *
+	 * @param bytes the buffer
+	 * @param start the index of the first byte
+	 * @param end the index after the last byte
+	 * @return the word
+	 */
+	public static Word fromBytes(ByteBuffer bytes, int start, int end) {
+		int n = end - start;
+		if(n == 0) {
+			return emptyWord;
+		}
+		if(ASCII_IDS != null && n <= LEAF_SIZE) {
+			// the common case, a short line: fill in the leaf's array directly
+			char[] packed = new char[n];
+			for(int i = 0; i < n; i++) {
+				byte b = bytes.get(start + i);
+				if(b < 0) {
+					return fromUtf8(bytes, start, end);
+				}
+				packed[i] = ASCII_IDS[b];
+			}
+			return new Word(packed, null);
+		}
+		int[] ids = new int[n];
+		for(int i = 0; i < n; i++) {
+			byte b = bytes.get(start + i);
+			if(b < 0) {
+				return fromUtf8(bytes, start, end);
+			}
+			ids[i] = convertCharToSymbol((char) b).getId();
+		}
+		return fromIds(ids, n);
+	}
+
+	private static Word fromUtf8(ByteBuffer bytes, int start, int end) {
+		byte[] copy = new byte[end - start];
+		for(int i = 0; i < copy.length; i++) {
+			copy[i] = bytes.get(start + i);
+		}
+		return new Word(new String(copy, StandardCharsets.UTF_8));
+	}
+
+	private static char[] asciiIds() {
+		char[] ids = new char[128];
+		for(char c = 0; c < ids.length; c++) {
+			int id = convertCharToSymbol(c).getId();
+			if(id > Character.MAX_VALUE) {
+				return null;
+			}
+			ids[c] = (char) id;
+		}
+		return ids;
+	}
+
+	/**
+	 * Copies the root of another word, so that the public constructors
+	 * can share the code that builds ropes.
+	 */
+	private Word(Word other) {
+		this.narrow = other.narrow;
+		this.wide = other.wide;
+		this.left = other.left;
+		this.right = other.right;
+		this.length = other.length;
+		this.height = other.height;
+	}
+
+	/**
+	 * Instantiates a leaf from packed ids, which are not copied.
+	 */
+	private Word(char[] narrow, int[] wide) {
+		this.narrow = narrow;
+		this.wide = wide;
+		this.left = null;
+		this.right = null;
+		this.length = narrow != null ? narrow.length : wide.length;
+		this.height = 0;
+	}
+
+	/**
+	 * Instantiates an inner node joining two words.
+	 */
+	private Word(Word left, Word right) {
+		this.narrow = null;
+		this.wide = null;
+		this.left = left;
+		this.right = right;
+		this.length = left.length + right.length;
+		this.height = Math.max(left.height, right.height) + 1;
 	}
 
 	/**
 	 * Converts a java char into a Symbol object.
-	 * 
+	 *
 	 * Upper case symbols assumed to be variables.
-	 * 
+	 *
 	 * Everything else assumed to be a terminal.
-	 * 
+	 *
 	 * @param symbol the symbol
 	 * @return the symbol
 	 */
 	private static Symbol convertCharToSymbol(char symbol) {
 		if(symbol >= 'A' && symbol <= 'Z') {
-			return new Variable(symbol);
+			return Variable.of(symbol);
 		} else {
-			return new Terminal(symbol);
+			return Terminal.of(symbol);
+		}
+	}
+
+	private static int[] idsOf(Symbol[] symbols) {
+		int[] ids = new int[symbols.length];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = symbols[i].intern().getId();
+		}
+		return ids;
+	}
+
+	private static int[] idsOf(String word) {
+		int[] ids = new int[word.length()];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = convertCharToSymbol(word.charAt(i)).getId();
 		}
+		return ids;
 	}
 
 	/**
-	 * Convert string to symbols.
-	 *
-	 * @param word the word
-	 * @return the symbol[]
+	 * Makes a word from the first n ids in a scratch array: a single leaf
+	 * if it is short, otherwise a balanced tree of leaves.
+	 */
+	private static Word fromIds(int[] ids, int n) {
+		if(n <= LEAF_SIZE) {
+			return leaf(ids, 0, n);
+		}
+		int leaves = (n + LEAF_SIZE - 1) / LEAF_SIZE;
+		Word[] level = new Word[leaves];
+		for(int i = 0; i < leaves; i++) {
+			level[i] = leaf(ids, i * LEAF_SIZE, Math.min(n, (i + 1) * LEAF_SIZE));
+		}
+		return balanced(level, 0, leaves);
+	}
+
+	/**
+	 * Joins words[from] to words[to - 1] into a tree, halving each time so
+	 * that the heights of any two siblings differ by at most 1.
 	 */
-	private static Symbol[] convertStringToSymbols(String word) {
-		Symbol[] symbolArray = new Symbol[word.length()];
-		int i = 0;
-		for(char c : word.toCharArray()) {
-			symbolArray[i++] = convertCharToSymbol(c);
+	private static Word balanced(Word[] words, int from, int to) {
+		if(to - from == 1) {
+			return words[from];
 		}
-		return symbolArray;
+		int middle = (from + to) >>> 1;
+		return new Word(balanced(words, from, middle), balanced(words, middle, to));
+	}
+
+	/**
+	 * Makes a leaf from ids[from] to ids[to - 1], packed into chars if possible.
+	 */
+	private static Word leaf(int[] ids, int from, int to) {
+		char[] packed = new char[to - from];
+		for(int i = from; i < to; i++) {
+			if(ids[i] > Character.MAX_VALUE) {
+				return new Word(null, Arrays.copyOfRange(ids, from, to));
+			}
+			packed[i - from] = (char) ids[i];
+		}
+		return new Word(packed, null);
+	}
+
+	private boolean isLeaf() {
+		return left == null;
+	}
+
+	/**
+	 * Gets the id of the symbol at the given position.
+	 */
+	private int id(int i) {
+		Word w = this;
+		while(!w.isLeaf()) {
+			if(i < w.left.length) {
+				w = w.left;
+			} else {
+				i -= w.left.length;
+				w = w.right;
+			}
+		}
+		return w.narrow != null ? w.narrow[i] : w.wide[i];
+	}
+
+	/**
+	 * Copies the ids of this word into an array, starting at the given offset.
+	 */
+	private void copyIds(int[] into, int offset) {
+		IdCursor cursor = new IdCursor(this);
+		for(int i = 0; i < length; i++) {
+			into[offset + i] = cursor.next();
+		}
+	}
+
+	/**
+	 * Joins two words, keeping the tree balanced. Two short words are copied
+	 * into one leaf.
+	 */
+	private static Word join(Word a, Word b) {
+		if(a.length == 0) {
+			return b;
+		} else if(b.length == 0) {
+			return a;
+		} else if(a.length + b.length <= LEAF_SIZE) {
+			int[] ids = new int[a.length + b.length];
+			a.copyIds(ids, 0);
+			b.copyIds(ids, a.length);
+			return leaf(ids, 0, ids.length);
+		} else if(a.height > b.height + 1) {
+			return balance(a.left, join(a.right, b));
+		} else if(b.height > a.height + 1) {
+			return balance(join(a, b.left), b.right);
+		}
+		return new Word(a, b);
+	}
+
+	/**
+	 * Joins two balanced trees whose heights differ by at most 2, rotating
+	 * so that the result is balanced (as in an AVL tree).
+	 */
+	private static Word balance(Word l, Word r) {
+		if(l.height > r.height + 1) {
+			if(l.left.height >= l.right.height) {
+				return new Word(l.left, new Word(l.right, r));
+			}
+			return new Word(new Word(l.left, l.right.left), new Word(l.right.right, r));
+		} else if(r.height > l.height + 1) {
+			if(r.right.height >= r.left.height) {
+				return new Word(new Word(l, r.left), r.right);
+			}
+			return new Word(new Word(l, r.left.left), new Word(r.left.right, r.right));
+		}
+		return new Word(l, r);
+	}
+
+	/**
+	 * The first i symbols of this word.
+	 */
+	private Word prefix(int i) {
+		if(i <= 0) {
+			return emptyWord;
+		} else if(i >= length) {
+			return this;
+		} else if(isLeaf()) {
+			return narrow != null ? new Word(Arrays.copyOf(narrow, i), null) : new Word(null, Arrays.copyOf(wide, i));
+		} else if(i <= left.length) {
+			return left.prefix(i);
+		}
+		return join(left, right.prefix(i - left.length));
+	}
+
+	/**
+	 * The symbols of this word from position i onwards.
+	 */
+	private Word suffix(int i) {
+		if(i <= 0) {
+			return this;
+		} else if(i >= length) {
+			return emptyWord;
+		} else if(isLeaf()) {
+			return narrow != null ? new Word(Arrays.copyOfRange(narrow, i, length), null) : new Word(null, Arrays.copyOfRange(wide, i, length));
+		} else if(i >= left.length) {
+			return right.suffix(i - left.length);
+		}
+		return join(left.suffix(i), right);
 	}
 
 	/* (non-Javadoc)
@@ -82,20 +390,60 @@ public class Word implements Iterable<Symbol> {
 	 */
 	@Override
 	public String toString() {
-		if(contents.length == 0) {
+		if(length == 0) {
 			return "ε";
 		}
-		return Arrays.stream(contents).map(Symbol::toString).collect(Collectors.joining());
+		StringBuilder sb = new StringBuilder(length);
+		for(Symbol s : this) {
+			sb.append(s);
+		}
+		return sb.toString();
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * The hash code is 31ⁿ + the sum of id(i)·31ⁿ⁻¹⁻ⁱ, like a list of ints.
+	 * Each node keeps the sum for its own symbols, so the hash of a word made
+	 * by joining two others takes O(log n) once theirs are known.
+	 *
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
+		return power(length) + polynomial();
+	}
+
+	private int polynomial() {
+		int result = polynomial;
+		if(result == 0 && !polynomialIsZero) {
+			if(isLeaf()) {
+				for(int i = 0; i < length; i++) {
+					result = 31 * result + (narrow != null ? narrow[i] : wide[i]);
+				}
+			} else {
+				result = left.polynomial() * power(right.length) + right.polynomial();
+			}
+			if(result == 0) {
+				polynomialIsZero = true;
+			} else {
+				polynomial = result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 31 to the power n, with int overflow.
+	 */
+	private static int power(int n) {
 		int result = 1;
-		result = prime * result + Arrays.hashCode(contents);
+		int base = 31;
+		while(n > 0) {
+			if((n & 1) != 0) {
+				result *= base;
+			}
+			base *= base;
+			n >>>= 1;
+		}
 		return result;
 	}
 
@@ -111,8 +459,18 @@ public class Word implements Iterable<Symbol> {
 		if (getClass() != obj.getClass())
 			return false;
 		Word other = (Word) obj;
-		if (!Arrays.equals(contents, other.contents))
+		if (length != other.length)
+			return false;
+		if (isLeaf() && other.isLeaf() && narrow != null && other.narrow != null)
+			return Arrays.equals(narrow, other.narrow);
+		if (hashCode() != other.hashCode())
 			return false;
+		IdCursor mine = new IdCursor(this);
+		IdCursor theirs = new IdCursor(other);
+		for (int i = 0; i < length; i++) {
+			if (mine.next() != theirs.next())
+				return false;
+		}
 		return true;
 	}
 
@@ -122,7 +480,7 @@ public class Word implements Iterable<Symbol> {
 	 * @return the int
 	 */
 	public int length() {
-		return contents.length;
+		return length;
 	}
 
 	/**
@@ -132,9 +490,11 @@ public class Word implements Iterable<Symbol> {
 	 * @return the number of times this symbol appears
 	 */
 	public int count(Symbol target) {
+		int id = target.intern().getId();
 		int count = 0;
-		for(Symbol s : contents) {
-			if(s.equals(target)) {
+		IdCursor cursor = new IdCursor(this);
+		for(int i = 0; i < length; i++) {
+			if(cursor.next() == id) {
 				count++;
 			}
 		}
@@ -160,11 +520,13 @@ public class Word implements Iterable<Symbol> {
 	 * @param n 0 is first, 1 is second, and so on
 	 * @return the index if it exists, otherwise -1
 	 */
-	// 
+	//
 	public int indexOfNth(Symbol target, int n) {
+		int id = target.intern().getId();
 		int count = 0;
-		for(int i = 0; i < contents.length; i++) {
-			if(contents[i].equals(target)) {
+		IdCursor cursor = new IdCursor(this);
+		for(int i = 0; i < length; i++) {
+			if(cursor.next() == id) {
 				if(count == n) {
 					return i;
 				}
@@ -176,7 +538,7 @@ public class Word implements Iterable<Symbol> {
 
 	/**
 	 * Replace the symbol at the given index with the given word.
-	 * 
+	 *
 	 * Useful for applying a rule to a given word, perhaps!
 	 *
 	 * @param index the index of the symbol to replace
@@ -187,22 +549,15 @@ public class Word implements Iterable<Symbol> {
 		if(index < 0 || index >= this.length()) {
 			throw new ArrayIndexOutOfBoundsException("Word index " + index + " out of range for word " + word.toString());
 		}
-
-		Symbol[] newWord = new Symbol[contents.length + word.length() - 1];
-		for(int i = 0; i < contents.length; i++) {
-			if(i < index) {
-				newWord[i] = contents[i];
-			} 
-			else if(i == index) {
-				if (word.length() >= 0) {
-					System.arraycopy(word.contents, 0, newWord, i, word.length());
-				}
-			} 
-			else {
-				newWord[i+word.length()-1] = contents[i];
-			}
+		if(isLeaf() && word.isLeaf() && length + word.length - 1 <= LEAF_SIZE && narrow != null && word.narrow != null) {
+			// the common case of a short sentential form, which is just array copying
+			char[] newWord = new char[length + word.length - 1];
+			System.arraycopy(narrow, 0, newWord, 0, index);
+			System.arraycopy(word.narrow, 0, newWord, index, word.length);
+			System.arraycopy(narrow, index + 1, newWord, index + word.length, length - index - 1);
+			return new Word(newWord, null);
 		}
-		return new Word(newWord);
+		return join(join(prefix(index), word), suffix(index + 1));
 	}
 
 	/**
@@ -215,7 +570,7 @@ public class Word implements Iterable<Symbol> {
 			return false;
 		}
 		else {
-			return this.contents[0].isTerminal();
+			return get(0).isTerminal();
 		}
 	}
 
@@ -226,24 +581,26 @@ public class Word implements Iterable<Symbol> {
 	 * @return the symbol
 	 */
 	public Symbol get(int i) {
-		return contents[i];
+		if(i < 0 || i >= length) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		return SymbolTable.get(id(i));
 	}
 
 	/**
 	 * Returns a subword from index start to end-1 inclusive. New
 	 * length will be end-start.
-	 * 
+	 *
 	 * @param start the index to start
 	 * @param end the index to end before
 	 * @return the word
 	 * @see java.lang.String#substring(int, int)
 	 */
 	public Word subword(int start, int end) {
-		Symbol[] newWord = new Symbol[end-start];
-		if (end > start) {
-			System.arraycopy(contents, start, newWord, 0, end - start);
+		if(start < 0 || end > length || start > end) {
+			throw new ArrayIndexOutOfBoundsException("Subword " + start + " to " + end + " out of range for word of length " + length);
 		}
-		return new Word(newWord);
+		return prefix(end).suffix(start);
 	}
 
 	/**
@@ -252,10 +609,7 @@ public class Word implements Iterable<Symbol> {
 	 * @return the word with a concatenated terminal
 	 */
 	public Word concatenate(Terminal t){
-		final int length = contents.length;
-		Symbol[] newContents = java.util.Arrays.copyOf(contents, length+1);
-		newContents[length] = t;
-		return new Word(newContents);
+		return join(this, new Word(t));
 	}
 
 	/**
@@ -267,7 +621,7 @@ public class Word implements Iterable<Symbol> {
 		Word w = new Word("000111");
 		w = w.subword(1, 5);
 		w = w.replace(2, new Word("abc"));
-		System.out.println(w); 
+		System.out.println(w);
 	}
 
 	/* (non-Javadoc)
@@ -275,7 +629,24 @@ public class Word implements Iterable<Symbol> {
 	 */
 	@Override
 	public Iterator<Symbol> iterator() {
-		return Arrays.stream(contents).iterator();
+		IdCursor cursor = new IdCursor(this);
+		return new Iterator<Symbol>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < length;
+			}
+
+			@Override
+			public Symbol next() {
+				if(next >= length) {
+					throw new NoSuchElementException();
+				}
+				next++;
+				return SymbolTable.get(cursor.next());
+			}
+		};
 	}
 
 	/**
@@ -284,7 +655,46 @@ public class Word implements Iterable<Symbol> {
 	 * @return the stream
 	 */
 	public Stream<Symbol> stream() {
-		return Stream.of(contents);
+		return StreamSupport.stream(Spliterators.spliterator(iterator(), length, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Walks the ids of a word from left to right, one leaf at a time.
+	 */
+	private static final class IdCursor {
+
+		/** The right halves still to visit. */
+		private final Deque<Word> pending = new ArrayDeque<>();
+
+		/** The current leaf. */
+		private Word leaf;
+
+		/** The next position in the current leaf. */
+		private int position;
+
+		IdCursor(Word word) {
+			descend(word);
+		}
+
+		private void descend(Word w) {
+			while(!w.isLeaf()) {
+				pending.push(w.right);
+				w = w.left;
+			}
+			leaf = w;
+			position = 0;
+		}
+
+		/**
+		 * Gets the next id. The caller must not ask for more than the length of the word.
+		 */
+		int next() {
+			while(position == leaf.length) {
+				descend(pending.pop());
+			}
+			int i = position++;
+			return leaf.narrow != null ? leaf.narrow[i] : leaf.wide[i];
+		}
 	}
 
 }
@@ -1,9 +1,7 @@
 package computation.derivation;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import computation.contextfreegrammar.*;
 
@@ -42,6 +40,13 @@ import computation.contextfreegrammar.*;
  * from the final element inserted backwards to the first
  * (to aid with the parsing).
  * <p>
+ * Derivations are immutable. Each one is its latest step plus a link to
+ * the derivation it extends, so {@link #addStep(Word, Rule, Integer)}
+ * returns a new derivation in O(1) time and space, sharing every earlier
+ * step with this one. A search can then branch a derivation as many times
+ * as it likes without copying it, and iterating backwards just follows
+ * the links.
+ * <p>
  * <b>Again, use of this class is totally optional.</b>
  * <p>
  * It will probably be easier <i>not</i> to use it for
@@ -49,8 +54,14 @@ import computation.contextfreegrammar.*;
  */
 public class Derivation implements Iterable<Step> {
 
-	/** The derivation. */
-	List<Step> derivation;
+	/** The latest step. */
+	private final Step step;
+
+	/** The derivation this one extends by one step, or null if this is just the start symbol. */
+	private final Derivation previous;
+
+	/** The number of steps, including the start symbol. */
+	private final int size;
 
 	/**
 	 * Instantiates a new derivation with a single word as a start symbol.
@@ -58,38 +69,41 @@ public class Derivation implements Iterable<Step> {
 	 * @param word the word
 	 */
 	public Derivation(Word word) {
-		derivation = new ArrayList<>();
-		this.addStartSymbol(word);
+		this(null, new Step(word, null, -1));
 	}
 
 	/**
 	 * Instantiates a new derivation from an existing derivation. Also
 	 * known as a copy constructor.
+	 * <p>
+	 * Since derivations can't be changed, this shares everything with the
+	 * original and takes O(1) time.
 	 *
 	 * @param d the d
 	 */
 	public Derivation(Derivation d) {
-		derivation = new ArrayList<>(d.derivation);
+		this(d.previous, d.step);
 	}
 
 	/**
-	 * Adds the start symbol.
-	 *
-	 * @param word the word
+	 * Instantiates a derivation which extends another by one step.
 	 */
-	private void addStartSymbol(Word word) {
-		derivation.add(new Step(word, null, -1));
+	private Derivation(Derivation previous, Step step) {
+		this.previous = previous;
+		this.step = step;
+		this.size = previous == null ? 1 : previous.size + 1;
 	}
 
 	/**
-	 * Adds a step.
+	 * Makes a new derivation with one more step. This derivation is not changed.
 	 *
 	 * @param word the next word
 	 * @param rule the rule used
 	 * @param index the index modified
+	 * @return the longer derivation
 	 */
-	public void addStep(Word word, Rule rule, Integer index) {
-		derivation.add(new Step(word, rule, index));
+	public Derivation addStep(Word word, Rule rule, Integer index) {
+		return new Derivation(this, new Step(word, rule, index));
 	}
 
 	/**
@@ -98,7 +112,34 @@ public class Derivation implements Iterable<Step> {
 	 * @return the latest word
 	 */
 	public Word getLatestWord() {
-		return derivation.get(derivation.size()-1).getWord();
+		return step.getWord();
+	}
+
+	/**
+	 * Gets the latest step.
+	 *
+	 * @return the latest step
+	 */
+	public Step getLatestStep() {
+		return step;
+	}
+
+	/**
+	 * Gets the derivation this one extends by one step.
+	 *
+	 * @return the previous derivation, or null if this is just the start symbol
+	 */
+	public Derivation getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * Gets the number of steps, counting the start symbol as a step.
+	 *
+	 * @return the number of steps
+	 */
+	public int size() {
+		return size;
 	}
 
 	/**
@@ -108,9 +149,24 @@ public class Derivation implements Iterable<Step> {
 	 */
 	@Override
 	public Iterator<Step> iterator() {
-		ArrayList<Step> reverse = new ArrayList<>(derivation);
-		Collections.reverse(reverse);
-		return reverse.iterator();
+		return new Iterator<Step>() {
+			private Derivation next = Derivation.this;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Step next() {
+				if(next == null) {
+					throw new NoSuchElementException();
+				}
+				Step s = next.step;
+				next = next.previous;
+				return s;
+			}
+		};
 	}
 
 
@@ -0,0 +1,472 @@
+package computation.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import computation.contextfreegrammar.*;
+
+/**
+ * Lists the words of a grammar's language in order of length, and words of
+ * the same length in dictionary order, each word once however many parse
+ * trees it has.
+ * <p>
+ * The grammar is first put into Chomsky normal form. A table then says, for
+ * each variable, which lengths of word it can generate. The words of each
+ * length are found by going through them a symbol at a time, keeping the
+ * set of all the ways the word so far could carry on: each way is a stack
+ * of variables still to be expanded, and a stack is only kept if the table
+ * says its variables can generate exactly the number of symbols still to
+ * come. So every prefix which is tried leads to at least one word, and two
+ * derivations of the same word share the same path, which is why no word
+ * comes out twice.
+ * <p>
+ * Only the path to the current word is kept, so memory depends on the
+ * length of the words, not on how many there are. Many prefixes leave the
+ * same set of stacks, so each iterator also remembers what can follow a
+ * bounded number of them. Most grammars have exponentially many words of
+ * each length, so words can be at most
+ * {@link #MAX_LENGTH} symbols long, which keeps the length table in one
+ * long per variable.
+ * <p>
+ * An enumerator only reads the grammar when it is made, and can be used by
+ * several threads at once.
+ */
+public final class LanguageEnumerator {
+
+	/** The longest words that can be listed. */
+	public static final int MAX_LENGTH = 63;
+
+	/** The most sets of stacks a word iterator remembers the successors of. */
+	private static final int CACHE_SIZE = 1 << 16;
+
+	/** The grammar in Chomsky normal form. */
+	private final CompiledGrammar grammar;
+
+	/** For each variable, bit k is set if it generates a word of length k. */
+	private final long[] lengths;
+
+	/** The terminals, in dictionary order. */
+	private final Terminal[] terminals;
+
+	/** For each variable, the positions in {@link #terminals} of the a with a rule A → a. */
+	private final int[][] terminalRules;
+
+	/** For each variable, the B and C of each rule A → BC, one after the other. */
+	private final int[][] binaryRules;
+
+	/**
+	 * Sets up listing the words of a grammar's language.
+	 *
+	 * @param cfg the context free grammar, in any form
+	 */
+	public LanguageEnumerator(ContextFreeGrammar cfg) {
+		this.grammar = new CompiledGrammar(new ChomskyNormalForm(cfg).getGrammar());
+		int variables = grammar.getVariableCount();
+
+		Integer[] byName = new Integer[grammar.getTerminalCount()];
+		for(int t = 0; t < byName.length; t++) {
+			byName[t] = t;
+		}
+		Arrays.sort(byName, Comparator.comparing(t -> grammar.getTerminal(t).toString()));
+		this.terminals = new Terminal[byName.length];
+		int[] position = new int[byName.length];
+		for(int i = 0; i < byName.length; i++) {
+			terminals[i] = grammar.getTerminal(byName[i]);
+			position[byName[i]] = i;
+		}
+
+		this.terminalRules = new int[variables][];
+		this.binaryRules = new int[variables][];
+		for(int v = 0; v < variables; v++) {
+			Set<Integer> singles = new HashSet<>();
+			Set<List<Integer>> pairs = new LinkedHashSet<>();
+			for(int ruleId : grammar.getRulesFor(v)) {
+				int[] expansion = grammar.getRuleExpansion(ruleId);
+				if(expansion.length == 1) {
+					singles.add(position[CompiledGrammar.terminalOfCode(expansion[0])]);
+				} else if(expansion.length == 2) {
+					pairs.add(Arrays.asList(expansion[0], expansion[1]));
+				}
+			}
+			terminalRules[v] = singles.stream().mapToInt(Integer::intValue).sorted().toArray();
+			binaryRules[v] = pairs.stream().flatMap(List::stream).mapToInt(Integer::intValue).toArray();
+		}
+
+		// lengths of 1 come from the rules A → a, and longer ones from A → BC
+		this.lengths = new long[variables];
+		for(int v = 0; v < variables; v++) {
+			lengths[v] = terminalRules[v].length > 0 ? 1L << 1 : 0;
+		}
+		for(int length = 2; length <= MAX_LENGTH; length++) {
+			for(int v = 0; v < variables; v++) {
+				int[] pairs = binaryRules[v];
+				for(int i = 0; i < pairs.length && (lengths[v] & (1L << length)) == 0; i += 2) {
+					long left = lengths[pairs[i]];
+					long right = lengths[pairs[i + 1]];
+					for(int k = 1; k < length; k++) {
+						if((left & (1L << k)) != 0 && (right & (1L << (length - k))) != 0) {
+							lengths[v] |= 1L << length;
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the language has any words of a length.
+	 *
+	 * @param length the length, from 0 to {@link #MAX_LENGTH}
+	 * @return true, if there is at least one word of that length
+	 */
+	public boolean hasWordsOfLength(int length) {
+		checkLength(length);
+		if(length == 0) {
+			return grammar.derivesEmptyWord();
+		}
+		return (lengths[grammar.getStartId()] & (1L << length)) != 0;
+	}
+
+	/**
+	 * Streams every word of the language up to a length, shortest first.
+	 *
+	 * @param maxLength the longest words to include, up to {@link #MAX_LENGTH}
+	 * @return a lazy stream of the words
+	 * @throws IllegalArgumentException if the length is out of range
+	 */
+	public Stream<Word> words(int maxLength) {
+		return words(0, maxLength);
+	}
+
+	/**
+	 * Streams every word of the language with a length in a range, shortest
+	 * first, and in dictionary order for each length. Words are only worked
+	 * out as the stream is read, so e.g. {@code words(0, 20).limit(1000)}
+	 * only does the work for a thousand words.
+	 *
+	 * @param minLength the shortest words to include
+	 * @param maxLength the longest words to include, up to {@link #MAX_LENGTH}
+	 * @return a lazy stream of the words
+	 * @throws IllegalArgumentException if a length is out of range
+	 */
+	public Stream<Word> words(int minLength, int maxLength) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(minLength, maxLength),
+				Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+	}
+
+	/**
+	 * Goes through every word of the language with a length in a range, see
+	 * {@link #words(int, int)}.
+	 *
+	 * @param minLength the shortest words to include
+	 * @param maxLength the longest words to include, up to {@link #MAX_LENGTH}
+	 * @return an iterator over the words
+	 * @throws IllegalArgumentException if a length is out of range
+	 */
+	public Iterator<Word> iterator(int minLength, int maxLength) {
+		checkLength(minLength);
+		checkLength(maxLength);
+		return new WordIterator(minLength, maxLength);
+	}
+
+	private static void checkLength(int length) {
+		if(length < 0 || length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Lengths must be from 0 to " + MAX_LENGTH);
+		}
+	}
+
+	/**
+	 * The lengths a stack of variables can generate, as a bitset.
+	 */
+	private static long lengthsOf(Stack stack) {
+		return stack == null ? 1L : stack.lengths;
+	}
+
+	/**
+	 * The lengths a word made of a word from each of two sets can have.
+	 */
+	private static long sum(long a, long b) {
+		long result = 0;
+		while(a != 0) {
+			result |= b << Long.numberOfTrailingZeros(a);
+			a &= a - 1;
+		}
+		return result;
+	}
+
+	/**
+	 * A stack of variables still to be expanded, from left to right, as an
+	 * immutable linked list. The empty stack is null. Stacks which share
+	 * their bottom part share the objects for it.
+	 */
+	private final class Stack {
+
+		private final int variable;
+		private final Stack next;
+
+		/** The lengths the whole stack can generate. */
+		private final long lengths;
+
+		private final int hash;
+
+		private Stack(int variable, Stack next) {
+			this.variable = variable;
+			this.next = next;
+			this.lengths = sum(LanguageEnumerator.this.lengths[variable], lengthsOf(next));
+			this.hash = 31 * (next == null ? 0 : next.hash) + variable;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			Stack a = this;
+			Object b = obj;
+			// compare down the stacks until they meet
+			while(a != b) {
+				if(a == null || !(b instanceof Stack)) {
+					return false;
+				}
+				Stack other = (Stack) b;
+				if(a.hash != other.hash || a.variable != other.variable) {
+					return false;
+				}
+				a = a.next;
+				b = other.next;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Works out the ways a word can carry on after some prefix: for each
+	 * terminal, in dictionary order, the stacks left after reading it next.
+	 *
+	 * @param stacks the stacks left after the prefix, which can all generate exactly remaining + 1 symbols
+	 * @param remaining how many symbols will be left after the next one
+	 * @return for each terminal, the stacks which are left, or null if it can't come next
+	 */
+	private Stack[][] successors(Stack[] stacks, int remaining) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Set<Stack>[] found = new Set[terminals.length];
+		Set<Stack> visited = new HashSet<>();
+		for(Stack stack : stacks) {
+			expand(stack, remaining, visited, found);
+		}
+		Stack[][] next = new Stack[terminals.length][];
+		for(int t = 0; t < found.length; t++) {
+			if(found[t] != null) {
+				next[t] = found[t].toArray(new Stack[0]);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Expands the top variable of a stack until there is a terminal on top,
+	 * in every way which can still generate the right length.
+	 */
+	private void expand(Stack stack, int remaining, Set<Stack> visited, Set<Stack>[] found) {
+		if(!visited.add(stack)) {
+			return;
+		}
+		int v = stack.variable;
+		Stack rest = stack.next;
+		if((lengthsOf(rest) & (1L << remaining)) != 0) {
+			for(int t : terminalRules[v]) {
+				if(found[t] == null) {
+					found[t] = new LinkedHashSet<>();
+				}
+				found[t].add(rest);
+			}
+		}
+		int[] pairs = binaryRules[v];
+		for(int i = 0; i < pairs.length; i += 2) {
+			Stack expanded = new Stack(pairs[i], new Stack(pairs[i + 1], rest));
+			if((expanded.lengths & (1L << (remaining + 1))) != 0) {
+				expand(expanded, remaining, visited, found);
+			}
+		}
+	}
+
+	/**
+	 * The set of stacks left after some prefix, and how many symbols will be
+	 * left after the next one, as a key for remembering
+	 * its {@link LanguageEnumerator#successors(Stack[], int) successors}.
+	 */
+	private static final class State {
+
+		private final Stack[] stacks;
+		private final int remaining;
+		private final int hash;
+
+		private State(Stack[] stacks, int remaining) {
+			this.stacks = stacks;
+			this.remaining = remaining;
+			this.hash = 31 * Arrays.hashCode(stacks) + remaining;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof State)) {
+				return false;
+			}
+			State other = (State) obj;
+			return other.hash == hash && other.remaining == remaining && Arrays.equals(other.stacks, stacks);
+		}
+	}
+
+	/**
+	 * One symbol of the word being built: the successors of the prefix
+	 * before it, and which terminal to try next.
+	 */
+	private static final class Step {
+
+		/** How many symbols are still to come after this step's terminal. */
+		private final int remaining;
+
+		/** For each terminal, the stacks which are left, or null if it can't come next. */
+		private final Stack[][] next;
+
+		/** The terminal to try next. */
+		private int index;
+
+		private Step(Stack[][] next, int remaining) {
+			this.next = next;
+			this.remaining = remaining;
+		}
+	}
+
+	/**
+	 * Goes through the words one length at a time, and the words of each
+	 * length depth first, one symbol per step.
+	 */
+	private final class WordIterator implements Iterator<Word> {
+
+		private final int maxLength;
+
+		/** The length of the words being listed. */
+		private int length;
+
+		/** The steps from the start of the word to the current symbol. */
+		private final List<Step> path = new ArrayList<>();
+
+		/** The current prefix. */
+		private final Symbol[] prefix = new Symbol[MAX_LENGTH];
+
+		/** The next word, once it has been found. */
+		private Word next;
+
+		/**
+		 * The successors of the states seen at this length. Many prefixes
+		 * leave the same stacks (e.g. every expression followed by +), so
+		 * this saves working them out again. It is emptied when it gets to
+		 * {@link #CACHE_SIZE}, to keep memory bounded.
+		 */
+		private final Map<State, Stack[][]> cache = new HashMap<>();
+
+		private WordIterator(int minLength, int maxLength) {
+			this.maxLength = maxLength;
+			this.length = minLength - 1;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while(next == null && (!path.isEmpty() || length < maxLength)) {
+				if(path.isEmpty()) {
+					startLength(++length);
+				} else {
+					step();
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Word next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Word result = next;
+			next = null;
+			return result;
+		}
+
+		/**
+		 * Starts on the words of a new length.
+		 */
+		private void startLength(int length) {
+			if(!hasWordsOfLength(length)) {
+				return;
+			}
+			if(length == 0) {
+				next = Word.emptyWord;
+				return;
+			}
+			cache.clear();
+			path.add(step(new Stack[] {new Stack(grammar.getStartId(), null)}, length - 1));
+		}
+
+		/**
+		 * Makes the step after a prefix which leaves the given stacks.
+		 */
+		private Step step(Stack[] stacks, int remaining) {
+			State state = new State(stacks, remaining);
+			Stack[][] successors = cache.get(state);
+			if(successors == null) {
+				if(cache.size() == CACHE_SIZE) {
+					cache.clear();
+				}
+				successors = successors(stacks, remaining);
+				cache.put(state, successors);
+			}
+			return new Step(successors, remaining);
+		}
+
+		/**
+		 * Moves the last step on to its next terminal, going down a step or
+		 * finishing a word, or goes back up if it has tried them all.
+		 */
+		private void step() {
+			int depth = path.size() - 1;
+			Step step = path.get(depth);
+			while(step.index < terminals.length && step.next[step.index] == null) {
+				step.index++;
+			}
+			if(step.index == terminals.length) {
+				path.remove(depth);
+				return;
+			}
+			int t = step.index++;
+			prefix[depth] = terminals[t];
+			if(step.remaining == 0) {
+				next = new Word(Arrays.copyOf(prefix, length));
+			} else {
+				path.add(step(step.next[t], step.remaining - 1));
+			}
+		}
+	}
+
+}
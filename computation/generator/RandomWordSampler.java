@@ -0,0 +1,337 @@
+package computation.generator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import computation.contextfreegrammar.*;
+import computation.parser.BitsetChart;
+
+/**
+ * Picks random words of a grammar's language with an exact length, either
+ * uniformly among the words of that length or uniformly among their parse
+ * trees.
+ * <p>
+ * The grammar is first put into Chomsky normal form, and a table is made of
+ * how many trees each variable has for each length up to a maximum: a
+ * variable has one tree of length 1 for each rule A → a, and for longer
+ * lengths the sum over the rules A → BC and split points of the number of
+ * trees of B on the left times the number of trees of C on the right. A
+ * random tree is then made from the top down, picking each rule and split
+ * point with probability proportional to the number of trees it leads to,
+ * which makes every tree of the length equally likely. The split points are
+ * tried from both ends inwards, so a word of length n takes O(n log n) steps
+ * on average, not O(n²).
+ * <p>
+ * The counts grow exponentially with the length, so they are kept as a
+ * double for each variable times a power of two for each length. Picking is
+ * therefore uniform up to the rounding error of a double, which is far
+ * smaller than anything a load test can see.
+ * <p>
+ * There are two modes:
+ * <ul>
+ * <li>{@link Mode#TREES} gives each parse tree the same probability, so a
+ * word is as likely as the number of trees it has.</li>
+ * <li>{@link Mode#WORDS} gives each word the same probability. A word is
+ * picked by its trees as above, and then kept with probability one over its
+ * number of trees, which needs it to be parsed. If the grammar is
+ * unambiguous, as MyGrammar is, every word has one tree and the two modes
+ * give exactly the same words, so {@link Mode#TREES} is the one to use for
+ * long words. Picking words uniformly for an ambiguous grammar is hard in
+ * general, and the more trees words have, the more are thrown away.</li>
+ * </ul>
+ * The trees counted are those of the grammar in Chomsky normal form, where
+ * rules which are exact copies of an earlier rule are left out.
+ * <p>
+ * A sampler only reads the grammar when it is made, and can be used by
+ * several threads at once, each with its own random number generator. The
+ * same seed always gives the same words.
+ */
+public final class RandomWordSampler {
+
+	/**
+	 * What is picked uniformly.
+	 */
+	public enum Mode {
+
+		/** Every word of the length is equally likely. */
+		WORDS,
+
+		/** Every parse tree of the length is equally likely. */
+		TREES
+	}
+
+	/** The grammar in Chomsky normal form. */
+	private final CompiledGrammar grammar;
+
+	private final int maxLength;
+
+	/** For each variable, the a of each rule A → a. */
+	private final Terminal[][] terminalRules;
+
+	/** For each variable, the B and C of each rule A → BC, one after the other. */
+	private final int[][] binaryRules;
+
+	/**
+	 * For each variable and length, the number of trees divided by 2 to the
+	 * power of the length's {@link #exponents exponent}. The largest for each
+	 * length is from 1 to 2.
+	 */
+	private final double[][] counts;
+
+	/** For each length, the power of two its counts are scaled by. */
+	private final int[] exponents;
+
+	/** For each length, whether any variable has a tree of that length. */
+	private final boolean[] present;
+
+	/**
+	 * Sets up picking the words of a grammar's language, counting the trees
+	 * of every length up to a maximum. This takes O(n²) time for a maximum
+	 * length of n, times the number of rules.
+	 *
+	 * @param cfg the context free grammar, in any form
+	 * @param maxLength the longest words that will be picked
+	 * @throws IllegalArgumentException if the maximum length is negative
+	 */
+	public RandomWordSampler(ContextFreeGrammar cfg, int maxLength) {
+		if(maxLength < 0) {
+			throw new IllegalArgumentException("The maximum length must not be negative");
+		}
+		this.grammar = new CompiledGrammar(new ChomskyNormalForm(cfg).getGrammar());
+		this.maxLength = maxLength;
+		int variables = grammar.getVariableCount();
+
+		this.terminalRules = new Terminal[variables][];
+		this.binaryRules = new int[variables][];
+		for(int v = 0; v < variables; v++) {
+			Set<Terminal> singles = new LinkedHashSet<>();
+			Set<List<Integer>> pairs = new LinkedHashSet<>();
+			for(int ruleId : grammar.getRulesFor(v)) {
+				int[] expansion = grammar.getRuleExpansion(ruleId);
+				if(expansion.length == 1) {
+					singles.add(grammar.getTerminal(CompiledGrammar.terminalOfCode(expansion[0])));
+				} else if(expansion.length == 2) {
+					pairs.add(Arrays.asList(expansion[0], expansion[1]));
+				}
+			}
+			terminalRules[v] = singles.toArray(new Terminal[0]);
+			binaryRules[v] = pairs.stream().flatMap(List::stream).mapToInt(Integer::intValue).toArray();
+		}
+
+		this.counts = new double[variables][maxLength + 1];
+		this.exponents = new int[maxLength + 1];
+		this.present = new boolean[maxLength + 1];
+		if(maxLength >= 1) {
+			for(int v = 0; v < variables; v++) {
+				counts[v][1] = terminalRules[v].length;
+			}
+			normalise(1, 0);
+		}
+		double[] scales = new double[maxLength + 1];
+		for(int length = 2; length <= maxLength; length++) {
+			// the counts of each split point are scaled differently, so add them up relative to the biggest scale
+			int top = Integer.MIN_VALUE;
+			for(int k = 1; k < length; k++) {
+				if(present[k] && present[length - k]) {
+					top = Math.max(top, exponents[k] + exponents[length - k]);
+				}
+			}
+			if(top == Integer.MIN_VALUE) {
+				continue;
+			}
+			for(int k = 1; k < length; k++) {
+				scales[k] = present[k] && present[length - k] ? Math.scalb(1.0, exponents[k] + exponents[length - k] - top) : 0;
+			}
+			for(int v = 0; v < variables; v++) {
+				int[] pairs = binaryRules[v];
+				double sum = 0;
+				for(int i = 0; i < pairs.length; i += 2) {
+					double[] left = counts[pairs[i]];
+					double[] right = counts[pairs[i + 1]];
+					for(int k = 1; k < length; k++) {
+						sum += left[k] * right[length - k] * scales[k];
+					}
+				}
+				counts[v][length] = sum;
+			}
+			normalise(length, top);
+		}
+	}
+
+	/**
+	 * Scales the counts of a length, which are so far relative to 2 to the
+	 * power of the given exponent, so that the largest is from 1 to 2.
+	 */
+	private void normalise(int length, int exponent) {
+		double max = 0;
+		for(double[] row : counts) {
+			max = Math.max(max, row[length]);
+		}
+		if(max == 0) {
+			return;
+		}
+		int shift = Math.getExponent(max);
+		for(double[] row : counts) {
+			row[length] = Math.scalb(row[length], -shift);
+		}
+		exponents[length] = exponent + shift;
+		present[length] = true;
+	}
+
+	/**
+	 * Gets the longest words that can be picked.
+	 *
+	 * @return the maximum length
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Checks whether the language has any words of a length.
+	 *
+	 * @param length the length, up to the {@link #getMaxLength() maximum length}
+	 * @return true, if there is at least one word of that length
+	 * @throws IllegalArgumentException if the length is out of range
+	 */
+	public boolean hasWordsOfLength(int length) {
+		checkLength(length);
+		if(length == 0) {
+			return grammar.derivesEmptyWord();
+		}
+		return present[length] && counts[grammar.getStartId()][length] != 0;
+	}
+
+	/**
+	 * Picks a word of a length. There is no default mode: {@link Mode#WORDS}
+	 * parses every word it picks, which is far slower on long words, and
+	 * {@link Mode#TREES} is only uniform over words for an unambiguous
+	 * grammar, so the caller has to choose.
+	 *
+	 * @param length the length
+	 * @param random the random number generator
+	 * @param mode whether every word or every parse tree is equally likely
+	 * @return the word
+	 * @throws IllegalArgumentException if the length is out of range, or there are no words of that length
+	 */
+	public Word sample(int length, SplittableRandom random, Mode mode) {
+		if(!hasWordsOfLength(length)) {
+			throw new IllegalArgumentException("The language has no words of length " + length);
+		}
+		if(length == 0) {
+			return Word.emptyWord;
+		}
+		while(true) {
+			Word w = sampleTree(length, random);
+			if(mode == Mode.TREES) {
+				return w;
+			}
+			BigInteger trees = BitsetChart.fill(grammar, w).countTrees();
+			if(trees.equals(BigInteger.ONE) || random.nextDouble() * trees.doubleValue() < 1) {
+				return w;
+			}
+		}
+	}
+
+	/**
+	 * Streams an endless sequence of random words of a length. The same seed
+	 * always gives the same sequence, so e.g.
+	 * {@code samples(10000, 42, Mode.TREES).limit(1000)} makes a reproducible
+	 * benchmark data set.
+	 *
+	 * @param length the length
+	 * @param seed the seed for the random number generator
+	 * @param mode whether every word or every parse tree is equally likely
+	 * @return a lazy, endless stream of words
+	 * @throws IllegalArgumentException if the length is out of range, or there are no words of that length
+	 */
+	public Stream<Word> samples(int length, long seed, Mode mode) {
+		if(!hasWordsOfLength(length)) {
+			throw new IllegalArgumentException("The language has no words of length " + length);
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		return StreamSupport.stream(new Spliterators.AbstractSpliterator<Word>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super Word> action) {
+				action.accept(sample(length, random, mode));
+				return true;
+			}
+		}, false);
+	}
+
+	private void checkLength(int length) {
+		if(length < 0 || length > maxLength) {
+			throw new IllegalArgumentException("Lengths must be from 0 to " + maxLength);
+		}
+	}
+
+	/**
+	 * Makes a random tree of a length, from the top down and left to right,
+	 * with every tree equally likely, and gives its word. There must be at
+	 * least one tree.
+	 */
+	private Word sampleTree(int length, SplittableRandom random) {
+		Symbol[] symbols = new Symbol[length];
+		int position = 0;
+
+		// the variables still to expand and their lengths, leftmost on top
+		int[] stack = new int[2 * length];
+		int top = 0;
+		stack[top++] = grammar.getStartId();
+		stack[top++] = length;
+		while(top > 0) {
+			int n = stack[--top];
+			int v = stack[--top];
+			if(n == 1) {
+				Terminal[] singles = terminalRules[v];
+				symbols[position++] = singles[singles.length == 1 ? 0 : random.nextInt(singles.length)];
+				continue;
+			}
+
+			int[] pairs = binaryRules[v];
+			double target = random.nextDouble() * counts[v][n];
+			int chosen = -1;
+			int split = 0;
+			search:
+			for(int i = 1; i < n; i++) {
+				// 1, n - 1, 2, n - 2, ...: most trees split near one of the ends
+				int k = (i & 1) == 1 ? (i + 1) >>> 1 : n - (i >>> 1);
+				if(!present[k] || !present[n - k]) {
+					continue;
+				}
+				double scale = Math.scalb(1.0, exponents[k] + exponents[n - k] - exponents[n]);
+				if(scale == 0) {
+					continue;
+				}
+				for(int j = 0; j < pairs.length; j += 2) {
+					double weight = counts[pairs[j]][k] * counts[pairs[j + 1]][n - k] * scale;
+					if(weight > 0) {
+						// if rounding leaves the target just past the last choice, that one is taken
+						chosen = j;
+						split = k;
+						target -= weight;
+						if(target < 0) {
+							break search;
+						}
+					}
+				}
+			}
+			stack[top++] = pairs[chosen + 1];
+			stack[top++] = n - split;
+			stack[top++] = pairs[chosen];
+			stack[top++] = split;
+		}
+		return new Word(symbols);
+	}
+
+}
@@ -0,0 +1,78 @@
+package computation.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import computation.contextfreegrammar.Word;
+
+/**
+ * Parses a batch of words on a {@link ForkJoinPool}. This is what
+ * {@link IParser#parseAll(computation.contextfreegrammar.ContextFreeGrammar, Collection, ForkJoinPool)}
+ * uses.
+ * <p>
+ * Parsing time grows quickly with the length of the word, so a batch is
+ * usually dominated by its few longest words. If one of those were started
+ * last, every other thread would sit idle while it finished. So the words
+ * are handed out longest first: each worker repeatedly takes the longest word
+ * nobody has started yet, and the short words fill in the gaps at the end.
+ */
+final class BatchParser {
+
+	private BatchParser() {
+	}
+
+	/**
+	 * Parses every word, using up to all the threads of the pool as well as
+	 * the calling thread.
+	 *
+	 * @param parser parses one word; it must be safe to call from several threads at once
+	 * @param words the words
+	 * @param pool the pool to run on
+	 * @return the results, in the same order as the words
+	 */
+	static List<ParseResult> parseAll(Function<Word, ParseResult> parser, Collection<Word> words, ForkJoinPool pool) {
+		Word[] input = words.toArray(new Word[0]);
+		ParseResult[] results = new ParseResult[input.length];
+
+		// the positions of the words, longest first
+		Integer[] byLength = new Integer[input.length];
+		for(int i = 0; i < input.length; i++) {
+			byLength[i] = i;
+		}
+		Arrays.sort(byLength, (a, b) -> Integer.compare(input[b].length(), input[a].length()));
+		AtomicInteger next = new AtomicInteger();
+
+		Runnable worker = () -> {
+			for(int k = next.getAndIncrement(); k < input.length; k = next.getAndIncrement()) {
+				int i = byLength[k];
+				try {
+					results[i] = parser.apply(input[i]);
+				} catch(RuntimeException | Error e) {
+					// stop handing out words, so the batch fails quickly
+					next.set(input.length);
+					throw e;
+				}
+			}
+		};
+
+		int helpers = Math.min(pool.getParallelism(), input.length - 1);
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for(int i = 0; i < helpers; i++) {
+			tasks.add(pool.submit(worker));
+		}
+		// the calling thread would only be waiting otherwise
+		worker.run();
+		for(ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		return Collections.unmodifiableList(Arrays.asList(results));
+	}
+
+}
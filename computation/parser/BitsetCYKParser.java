@@ -0,0 +1,194 @@
+package computation.parser;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * A CYK parser whose chart cells and rule tables are bitsets over the
+ * variables of the grammar. See {@link BitsetChart}.
+ * <p>
+ * This gives the same answers as {@link CYKParser}, including the same
+ * parse tree, but does the work with primitive long operations instead of
+ * sets of variable objects.
+ * <p>
+ * If it is given a {@link ForkJoinPool}, the chart for a long word is filled
+ * in parallel, one diagonal at a time (see
+ * {@link BitsetChart#fillParallel(CompiledGrammar, Word, ForkJoinPool)}).
+ * The answers are exactly the same either way.
+ */
+public class BitsetCYKParser implements IParser {
+
+	/** The pool for filling charts in parallel, or null to fill them on the calling thread. */
+	private final ForkJoinPool pool;
+
+	/** The smallest number of split points worth running as a separate task. */
+	private final int threshold;
+
+	/**
+	 * Instantiates a new parser which fills the chart on the calling thread.
+	 */
+	public BitsetCYKParser() {
+		this(null, BitsetChart.DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Instantiates a new parser which fills the charts of long words in parallel.
+	 *
+	 * @param pool the pool to run on
+	 */
+	public BitsetCYKParser(ForkJoinPool pool) {
+		this(pool, BitsetChart.DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Instantiates a new parser which fills the charts of long words in parallel.
+	 *
+	 * @param pool the pool to run on, or null to fill charts on the calling thread
+	 * @param threshold the smallest number of split points worth running as a separate task
+	 * @throws IllegalArgumentException if the threshold is not positive
+	 */
+	public BitsetCYKParser(ForkJoinPool pool, int threshold) {
+		if(threshold < 1) {
+			throw new IllegalArgumentException("Threshold must be positive");
+		}
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#isInLanguage(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public boolean isInLanguage(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).isAccepted();
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#generateParseTree(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).getTree();
+	}
+
+	/**
+	 * Fills in the chart, and reports how many cells it has and how many
+	 * longs each cell takes.
+	 *
+	 * @see computation.parser.IParser#parse(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseResult parse(ContextFreeGrammar cfg, Word w) {
+		long start = System.nanoTime();
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		return parse(grammar, new BitsetRules(grammar), w, start);
+	}
+
+	/**
+	 * Parses a word and gives all of its parse trees, as a forest with one
+	 * node for each variable and span. This is the way to deal with
+	 * ambiguous grammars, where there can be exponentially many trees.
+	 *
+	 * @param cfg the context free grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 * @return the forest, or null if the word is not in the language
+	 * @see ParseForest
+	 */
+	public ParseForest parseForest(ContextFreeGrammar cfg, Word w) {
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		return fill(grammar, new BitsetRules(grammar), w).buildForest();
+	}
+
+	/**
+	 * Streams every parse tree of a word. The trees are built one at a time
+	 * as the stream is read, so {@code parseTrees(cfg, w).limit(k)} is cheap
+	 * however ambiguous the grammar is.
+	 *
+	 * @param cfg the context free grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 * @return the trees, which is an empty stream if the word is not in the language
+	 * @see ParseForest#trees()
+	 */
+	public Stream<ParseTreeNode> parseTrees(ContextFreeGrammar cfg, Word w) {
+		ParseForest forest = parseForest(cfg, w);
+		return forest == null ? Stream.empty() : forest.trees();
+	}
+
+	/**
+	 * Counts the parse trees of a word exactly, without making them. This
+	 * takes the same O(n³) time as {@link #isInLanguage(ContextFreeGrammar, Word)},
+	 * unless the count is too big for a long.
+	 *
+	 * @param cfg the context free grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 * @return the number of parse trees, which is 0 if the word is not in the language
+	 * @see TreeCounter
+	 */
+	public BigInteger countTrees(ContextFreeGrammar cfg, Word w) {
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		return fill(grammar, new BitsetRules(grammar), w).countTrees();
+	}
+
+	/**
+	 * Counts the parse trees of a word modulo a number, see
+	 * {@link #countTrees(ContextFreeGrammar, Word)}.
+	 *
+	 * @param cfg the context free grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 * @param modulus the modulus, from 1 to {@link TreeCounter#MAX_MODULUS}
+	 * @return the number of parse trees modulo the modulus
+	 * @throws IllegalArgumentException if the modulus is out of range
+	 */
+	public long countTrees(ContextFreeGrammar cfg, Word w, long modulus) {
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		return fill(grammar, new BitsetRules(grammar), w).countTrees(modulus);
+	}
+
+	/**
+	 * Compiles the grammar and builds its rule bitsets once, and uses them for every word.
+	 *
+	 * @see computation.parser.IParser#parserFor(computation.contextfreegrammar.ContextFreeGrammar)
+	 */
+	@Override
+	public Function<Word, ParseResult> parserFor(ContextFreeGrammar cfg) {
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		BitsetRules rules = new BitsetRules(grammar);
+		return w -> parse(grammar, rules, w, System.nanoTime());
+	}
+
+	/**
+	 * Parses one word, timing from the given start.
+	 */
+	private ParseResult parse(CompiledGrammar grammar, BitsetRules rules, Word w, long start) {
+		BitsetChart chart = fill(grammar, rules, w);
+		boolean accepted = chart.isAccepted();
+		long elapsed = System.nanoTime() - start;
+
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		statistics.put("cells", (long) w.length() * (w.length() + 1) / 2);
+		statistics.put("longs per cell", (long) ((grammar.getVariableCount() + 63) >>> 6));
+		statistics.put("parallel", pool != null && w.length() > 1 ? 1L : 0L);
+		if(!accepted) {
+			return ParseResult.rejected(statistics, elapsed);
+		}
+		return ParseResult.accepted(chart::buildTree, statistics, elapsed);
+	}
+
+	/**
+	 * Fills in the chart, in parallel if we have a pool.
+	 */
+	private BitsetChart fill(CompiledGrammar grammar, BitsetRules rules, Word w) {
+		if(pool == null) {
+			return BitsetChart.fill(grammar, rules, w);
+		}
+		return BitsetChart.fillParallel(grammar, rules, w, pool, threshold);
+	}
+
+}
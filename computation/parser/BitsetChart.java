@@ -0,0 +1,535 @@
+package computation.parser;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.CompactParseTree;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * A filled CYK chart where every cell is a bitset over the variables of a
+ * {@link CompiledGrammar}.
+ * <p>
+ * Bit v of a cell is set when the variable with id v generates the span of
+ * the word belonging to that cell. A cell takes {@code ceil(|V| / 64)} longs,
+ * so for a grammar with up to 64 variables (such as {@code MyGrammar}) a cell
+ * is a single long.
+ * <p>
+ * The rules are packed into bitsets as well (see {@link BitsetRules}), so
+ * combining two cells is a few word-wide AND and OR operations, and the
+ * inner loop of the algorithm allocates nothing.
+ * <p>
+ * The chart is stored as one row per start index. The row for start index
+ * s holds the cells for spans of length 1, 2, ..., n - s, one after another.
+ * <p>
+ * For long words the chart can be filled in parallel (see
+ * {@link #fillParallel(CompiledGrammar, Word, ForkJoinPool)}). All the cells
+ * for spans of the same length only depend on shorter spans, so each of these
+ * diagonals of the chart is split into chunks which are filled at the same
+ * time, and we wait for one diagonal to finish before starting the next.
+ * Each cell is in a different row, so no two tasks ever write to the same
+ * array.
+ */
+public final class BitsetChart {
+
+	/** The grammar. */
+	private final CompiledGrammar grammar;
+
+	/** The rules packed into bitsets. */
+	private final BitsetRules rules;
+
+	/** The word. */
+	private final Word word;
+
+	/** Number of longs in each cell. */
+	private final int words;
+
+	/** The cells, one row for each start index. */
+	private final long[][] rows;
+
+	/**
+	 * Sets up an empty chart for the given word.
+	 */
+	private BitsetChart(CompiledGrammar grammar, BitsetRules rules, Word word) {
+		this(grammar, rules, word, new long[word.length()][]);
+		int n = word.length();
+		for(int start = 0; start < n; start++) {
+			rows[start] = new long[(n - start) * words];
+		}
+	}
+
+	/**
+	 * Sets up a chart with the given rows, which may be longer than needed.
+	 */
+	private BitsetChart(CompiledGrammar grammar, BitsetRules rules, Word word, long[][] rows) {
+		this.grammar = grammar;
+		this.rules = rules;
+		this.word = word;
+		this.words = rules.getWords();
+		this.rows = rows;
+	}
+
+	/**
+	 * Fills in the chart for a word.
+	 *
+	 * @param grammar the compiled grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 * @return the filled chart
+	 */
+	public static BitsetChart fill(CompiledGrammar grammar, Word w) {
+		return fill(grammar, new BitsetRules(grammar), w);
+	}
+
+	/**
+	 * Fills in the chart for a word, reusing rule bitsets that have already
+	 * been built for the grammar.
+	 *
+	 * @param grammar the compiled grammar, which must be in Chomsky normal form
+	 * @param rules the rules of the grammar packed into bitsets
+	 * @param w the word
+	 * @return the filled chart
+	 */
+	static BitsetChart fill(CompiledGrammar grammar, BitsetRules rules, Word w) {
+		BitsetChart chart = new BitsetChart(grammar, rules, w);
+		int n = w.length();
+		for(int start = 0; start < n; start++) {
+			chart.fillTerminal(start);
+		}
+		for(int length = 2; length <= n; length++) {
+			for(int start = 0; start + length <= n; start++) {
+				chart.fillCell(start, length);
+			}
+		}
+		return chart;
+	}
+
+	/**
+	 * The default for the smallest amount of work, counted in split points,
+	 * that is worth handing to another thread.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 14;
+
+	/**
+	 * Fills in the chart for a word, using the given pool to fill the cells
+	 * of each diagonal in parallel. The result is exactly the same as
+	 * {@link #fill(CompiledGrammar, Word)}.
+	 *
+	 * @param grammar the compiled grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 * @param pool the pool to run on
+	 * @return the filled chart
+	 */
+	public static BitsetChart fillParallel(CompiledGrammar grammar, Word w, ForkJoinPool pool) {
+		return fillParallel(grammar, new BitsetRules(grammar), w, pool, DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Fills in the chart for a word, using the given pool to fill the cells
+	 * of each diagonal in parallel.
+	 * <p>
+	 * A diagonal of spans of length l with c cells needs about c·l split
+	 * points to be tried. If that is below the threshold the diagonal is
+	 * filled on the calling thread, otherwise it is cut into chunks of at
+	 * least threshold / l cells each. So short words are filled entirely
+	 * sequentially, and only the long diagonals of long words are spread out.
+	 *
+	 * @param grammar the compiled grammar, which must be in Chomsky normal form
+	 * @param rules the rules of the grammar packed into bitsets
+	 * @param w the word
+	 * @param pool the pool to run on
+	 * @param threshold the smallest number of split points worth running as a separate task
+	 * @return the filled chart
+	 */
+	static BitsetChart fillParallel(CompiledGrammar grammar, BitsetRules rules, Word w, ForkJoinPool pool, int threshold) {
+		BitsetChart chart = new BitsetChart(grammar, rules, w);
+		int n = w.length();
+		for(int start = 0; start < n; start++) {
+			chart.fillTerminal(start);
+		}
+		for(int length = 2; length <= n; length++) {
+			int cells = n - length + 1;
+			if((long) cells * length < 2L * threshold) {
+				for(int start = 0; start < cells; start++) {
+					chart.fillCell(start, length);
+				}
+			} else {
+				int grain = Math.max(1, threshold / length);
+				pool.invoke(new DiagonalTask(chart, length, 0, cells, grain));
+			}
+		}
+		return chart;
+	}
+
+	/**
+	 * Fills the cells for spans of one length, with start indexes in a range.
+	 * Splits itself in half until the range is no bigger than the grain.
+	 */
+	private static class DiagonalTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BitsetChart chart;
+		private final int length;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		private DiagonalTask(BitsetChart chart, int length, int from, int to, int grain) {
+			this.chart = chart;
+			this.length = length;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= grain) {
+				for(int start = from; start < to; start++) {
+					chart.fillCell(start, length);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new DiagonalTask(chart, length, from, middle, grain),
+					new DiagonalTask(chart, length, middle, to, grain));
+		}
+	}
+
+	/**
+	 * Fills in the chart for an edited copy of this chart's word, where the
+	 * symbols from index from up to oldTo have been replaced by the ones
+	 * from from up to newTo of the new word.
+	 * <p>
+	 * Only the cells whose spans overlap the edit are filled again. A row
+	 * holds the spans with one start index, so the rows which start after
+	 * the edit are kept as they are (at their new index), the rows which
+	 * start inside it are filled from scratch, and the rows which start
+	 * before it keep the cells for the spans which end before it and have
+	 * the rest filled again. The rows are filled from the last to the first,
+	 * which is an order where every cell's parts are filled before it.
+	 * <p>
+	 * The new chart takes over this chart's rows, and a row which is too
+	 * short for the new word is copied into one with room to grow, so that
+	 * typing at the end of a word doesn't copy the chart every time. This
+	 * chart must not be used afterwards.
+	 *
+	 * @param edited the new word
+	 * @param from the index of the first symbol which changed
+	 * @param oldTo the index after the last symbol which changed, in this chart's word
+	 * @param newTo the index after the last symbol which changed, in the new word
+	 * @return the filled chart for the new word
+	 */
+	BitsetChart edit(Word edited, int from, int oldTo, int newTo) {
+		int n = edited.length();
+		int shift = newTo - oldTo;
+		BitsetChart chart = new BitsetChart(grammar, rules, edited, new long[n][]);
+		for(int start = newTo; start < n; start++) {
+			chart.rows[start] = rows[start - shift];
+		}
+		for(int start = newTo - 1; start >= from; start--) {
+			chart.rows[start] = new long[(n - start) * words];
+			chart.fillTerminal(start);
+			for(int length = 2; length <= n - start; length++) {
+				chart.fillCell(start, length);
+			}
+		}
+		for(int start = from - 1; start >= 0; start--) {
+			long[] row = rows[start];
+			int size = (n - start) * words;
+			if(row.length < size) {
+				row = Arrays.copyOf(row, size + size / 2);
+			}
+			// the spans up to this length end before the edit
+			int kept = from - start;
+			Arrays.fill(row, kept * words, size, 0);
+			chart.rows[start] = row;
+			for(int length = kept + 1; length <= n - start; length++) {
+				chart.fillCell(start, length);
+			}
+		}
+		return chart;
+	}
+
+	/**
+	 * Fills the cell for the span of length 1 at the given index, from the rules A → a.
+	 */
+	void fillTerminal(int start) {
+		int terminal = grammar.getTerminalId(word.get(start));
+		if(terminal >= 0) {
+			System.arraycopy(rules.getTerminalMasks(), terminal * words, rows[start], 0, words);
+		}
+	}
+
+	/**
+	 * Fills one cell of length at least 2, whose shorter spans must already be filled.
+	 * <p>
+	 * For each split point and each variable B in the left part, we first
+	 * check whether any C with a rule A → BC is in the right part at all,
+	 * then OR in the A for each such C.
+	 */
+	void fillCell(int start, int length) {
+		if(words == 1) {
+			fillSingleWordCell(start, length);
+			return;
+		}
+		long[] row = rows[start];
+		int cell = (length - 1) * words;
+		long[] rightMasks = rules.getRightMasks();
+		int[][] pairRights = rules.getPairRights();
+		long[][] pairMasks = rules.getPairMasks();
+
+		for(int split = 1; split < length; split++) {
+			int left = (split - 1) * words;
+			long[] rightRow = rows[start + split];
+			int right = (length - split - 1) * words;
+
+			for(int i = 0; i < words; i++) {
+				long bits = row[left + i];
+				while(bits != 0) {
+					int b = (i << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					if(!intersects(rightMasks, b * words, rightRow, right)) {
+						continue;
+					}
+					int[] cs = pairRights[b];
+					long[] masks = pairMasks[b];
+					for(int j = 0; j < cs.length; j++) {
+						int c = cs[j];
+						if((rightRow[right + (c >>> 6)] & (1L << c)) != 0) {
+							for(int k = 0; k < words; k++) {
+								row[cell + k] |= masks[j * words + k];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The same as {@link #fillCell(int, int)}, for grammars with at most 64
+	 * variables where every cell is a single long.
+	 */
+	private void fillSingleWordCell(int start, int length) {
+		long[] row = rows[start];
+		long[] rightMasks = rules.getRightMasks();
+		int[][] pairRights = rules.getPairRights();
+		long[][] pairMasks = rules.getPairMasks();
+		long cell = 0;
+
+		for(int split = 1; split < length; split++) {
+			long bits = row[split - 1];
+			if(bits == 0) {
+				continue;
+			}
+			long right = rows[start + split][length - split - 1];
+			if(right == 0) {
+				continue;
+			}
+			while(bits != 0) {
+				int b = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if((rightMasks[b] & right) == 0) {
+					continue;
+				}
+				int[] cs = pairRights[b];
+				long[] masks = pairMasks[b];
+				for(int j = 0; j < cs.length; j++) {
+					if((right & (1L << cs[j])) != 0) {
+						cell |= masks[j];
+					}
+				}
+			}
+		}
+		row[length - 1] = cell;
+	}
+
+	/**
+	 * Checks whether two cells (or a mask and a cell) share any variable.
+	 */
+	private boolean intersects(long[] a, int aOffset, long[] b, int bOffset) {
+		for(int k = 0; k < words; k++) {
+			if((a[aOffset + k] & b[bOffset + k]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the grammar this chart was filled with.
+	 *
+	 * @return the compiled grammar
+	 */
+	public CompiledGrammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Gets the word this chart was filled for.
+	 *
+	 * @return the word
+	 */
+	public Word getWord() {
+		return word;
+	}
+
+	/**
+	 * Gets the number of longs in each cell.
+	 */
+	int getWords() {
+		return words;
+	}
+
+	/**
+	 * Gets the row of cells for a start index, which must not be modified.
+	 * The row may be longer than the cells in it.
+	 */
+	long[] getRow(int start) {
+		return rows[start];
+	}
+
+	/**
+	 * Checks whether a variable generates a span of the word.
+	 *
+	 * @param start the index of the first symbol of the span
+	 * @param length the length of the span, at least 1
+	 * @param variableId the variable id
+	 * @return true, if the variable is in the cell for the span
+	 */
+	public boolean contains(int start, int length, int variableId) {
+		return (rows[start][(length - 1) * words + (variableId >>> 6)] & (1L << variableId)) != 0;
+	}
+
+	/**
+	 * Checks whether the word is in the language, i.e. the start variable
+	 * generates the whole word.
+	 *
+	 * @return true, if the word is in the language
+	 */
+	public boolean isAccepted() {
+		if(word.length() == 0) {
+			return grammar.derivesEmptyWord();
+		}
+		return contains(0, word.length(), grammar.getStartId());
+	}
+
+	/**
+	 * Reads a parse tree back out of the chart. Where there is a choice (the
+	 * grammar is ambiguous) we take the first rule in grammar order, and then
+	 * the shortest left part, in the same way as {@link CYKParser}.
+	 * <p>
+	 * The tree is a view of a {@link CompactParseTree} (see
+	 * {@link #buildCompactTree()}), so a tree for a long word is a few arrays
+	 * rather than an object per node.
+	 *
+	 * @return the parse tree, or null if the word is not in the language
+	 */
+	public ParseTreeNode buildTree() {
+		CompactParseTree tree = buildCompactTree();
+		return tree == null ? null : tree.asParseTreeNode();
+	}
+
+	/**
+	 * Reads a parse tree back out of the chart, see {@link #buildTree()}.
+	 *
+	 * @return the parse tree, or null if the word is not in the language
+	 */
+	public CompactParseTree buildCompactTree() {
+		if(!isAccepted()) {
+			return null;
+		}
+		Variable startVariable = grammar.getVariable(grammar.getStartId());
+		if(word.length() == 0) {
+			CompactParseTree tree = new CompactParseTree(2);
+			tree.addNode(startVariable, tree.addEmpty(0));
+			return tree;
+		}
+
+		// each entry is {variable, start, length}, with the variable negated
+		// (minus one) once its children have been pushed
+		CompactParseTree tree = new CompactParseTree(3 * word.length() - 1);
+		Deque<int[]> stack = new ArrayDeque<>();
+		int[] built = new int[word.length()];
+		int top = 0;
+		stack.push(new int[] {grammar.getStartId(), 0, word.length()});
+
+		while(!stack.isEmpty()) {
+			int[] span = stack.pop();
+			if(span[0] < 0) {
+				int right = built[--top];
+				int left = built[--top];
+				built[top++] = tree.addNode(grammar.getVariable(-span[0] - 1), left, right);
+				continue;
+			}
+			if(span[2] == 1) {
+				built[top++] = tree.addNode(grammar.getVariable(span[0]), tree.addLeaf(word.get(span[1]), span[1]));
+				continue;
+			}
+			int[] children = split(span[0], span[1], span[2]);
+			stack.push(new int[] {-span[0] - 1, span[1], span[2]});
+			stack.push(new int[] {children[1], span[1] + children[2], span[2] - children[2]});
+			stack.push(new int[] {children[0], span[1], children[2]});
+		}
+		return tree;
+	}
+
+	/**
+	 * Counts the parse trees of the word exactly, without making any of them.
+	 *
+	 * @return the number of parse trees, which is 0 if the word is not in the language
+	 * @see TreeCounter
+	 */
+	public BigInteger countTrees() {
+		return new TreeCounter(this).count();
+	}
+
+	/**
+	 * Counts the parse trees of the word modulo a number, which only needs
+	 * long arithmetic and so is quicker than {@link #countTrees()}.
+	 *
+	 * @param modulus the modulus, from 1 to {@link TreeCounter#MAX_MODULUS}
+	 * @return the number of parse trees modulo the modulus
+	 * @throws IllegalArgumentException if the modulus is out of range
+	 */
+	public long countTrees(long modulus) {
+		return new TreeCounter(this).countModulo(modulus);
+	}
+
+	/**
+	 * Reads every parse tree of the word out of the chart at once, as a
+	 * {@link ParseForest}.
+	 *
+	 * @return the forest, or null if the word is not in the language
+	 */
+	public ParseForest buildForest() {
+		return isAccepted() ? new ParseForest(this) : null;
+	}
+
+	/**
+	 * Finds a rule A → BC and a split point that generates a span for A.
+	 *
+	 * @return {B, C, split}
+	 */
+	private int[] split(int variable, int start, int length) {
+		for(int ruleId : grammar.getRulesFor(variable)) {
+			int[] expansion = grammar.getRuleExpansion(ruleId);
+			if(expansion.length != 2 || CompiledGrammar.isTerminalCode(expansion[0]) || CompiledGrammar.isTerminalCode(expansion[1])) {
+				continue;
+			}
+			for(int split = 1; split < length; split++) {
+				if(contains(start, split, expansion[0]) && contains(start + split, length - split, expansion[1])) {
+					return new int[] {expansion[0], expansion[1], split};
+				}
+			}
+		}
+		throw new IllegalStateException("No rule generates " + grammar.getVariable(variable) + " over the chart span");
+	}
+
+}
@@ -0,0 +1,100 @@
+package computation.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import computation.contextfreegrammar.CompiledGrammar;
+
+/**
+ * The rules of a CNF {@link CompiledGrammar} packed into bitsets over the
+ * variables, for use by {@link BitsetChart}.
+ * <p>
+ * Every bitset is {@link #getWords()} longs, and several bitsets are stored
+ * one after another in a single long array. Once built, nothing here is
+ * modified, so one instance can be shared by any number of charts.
+ */
+final class BitsetRules {
+
+	/** Number of longs in each bitset. */
+	private final int words;
+
+	/** For each terminal a, the variables A with a rule A → a. */
+	private final long[] terminalMasks;
+
+	/** For each variable B, the variables C with some rule A → BC. */
+	private final long[] rightMasks;
+
+	/** For each variable B, the distinct C with some rule A → BC. */
+	private final int[][] pairRights;
+
+	/** For each variable B, and each C in {@link #pairRights}, the variables A with a rule A → BC. */
+	private final long[][] pairMasks;
+
+	/**
+	 * Packs the rules of a grammar.
+	 *
+	 * @param grammar the compiled grammar
+	 */
+	BitsetRules(CompiledGrammar grammar) {
+		int variables = grammar.getVariableCount();
+		this.words = Math.max(1, (variables + 63) >>> 6);
+
+		this.terminalMasks = new long[grammar.getTerminalCount() * words];
+		for(int t = 0; t < grammar.getTerminalCount(); t++) {
+			for(int a : grammar.getTerminalProducers(t)) {
+				set(terminalMasks, t * words, a);
+			}
+		}
+
+		this.rightMasks = new long[variables * words];
+		this.pairRights = new int[variables][];
+		this.pairMasks = new long[variables][];
+		for(int b = 0; b < variables; b++) {
+			Map<Integer, List<Integer>> producers = new LinkedHashMap<>();
+			for(int ruleId : grammar.getBinaryRulesByLeft(b)) {
+				int c = grammar.getRuleExpansion(ruleId)[1];
+				producers.computeIfAbsent(c, k -> new ArrayList<>()).add(grammar.getRuleVariable(ruleId));
+			}
+			int[] cs = new int[producers.size()];
+			long[] masks = new long[producers.size() * words];
+			int j = 0;
+			for(Map.Entry<Integer, List<Integer>> e : producers.entrySet()) {
+				cs[j] = e.getKey();
+				set(rightMasks, b * words, cs[j]);
+				for(int a : e.getValue()) {
+					set(masks, j * words, a);
+				}
+				j++;
+			}
+			pairRights[b] = cs;
+			pairMasks[b] = masks;
+		}
+	}
+
+	private static void set(long[] bits, int offset, int bit) {
+		bits[offset + (bit >>> 6)] |= 1L << bit;
+	}
+
+	int getWords() {
+		return words;
+	}
+
+	long[] getTerminalMasks() {
+		return terminalMasks;
+	}
+
+	long[] getRightMasks() {
+		return rightMasks;
+	}
+
+	int[][] getPairRights() {
+		return pairRights;
+	}
+
+	long[][] getPairMasks() {
+		return pairMasks;
+	}
+
+}
@@ -0,0 +1,246 @@
+package computation.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * A parser based on the Cocke–Younger–Kasami (CYK) dynamic programming
+ * algorithm.
+ * <p>
+ * The grammar must be in Chomsky normal form. For a word of length n the
+ * parser fills in a triangular chart, where the cell for a span of the word
+ * holds every variable that can generate that span. The cell for a span of
+ * length 1 is found from the rules A → a, and a longer span is found by
+ * trying every way to split it in two and every rule A → BC. This takes
+ * O(n³·|G|) time, rather than the exponential time of searching through
+ * derivations.
+ * <p>
+ * Once the chart is filled in, the word is in the language exactly when the
+ * start variable is in the cell for the whole word. A parse tree is then read
+ * back out of the chart from the top down.
+ */
+public class CYKParser implements IParser {
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#isInLanguage(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public boolean isInLanguage(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).isAccepted();
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#generateParseTree(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).getTree();
+	}
+
+	/**
+	 * Fills in the chart, and reports how many cells it has and how many
+	 * variables are in them altogether.
+	 *
+	 * @see computation.parser.IParser#parse(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseResult parse(ContextFreeGrammar cfg, Word w) {
+		long start = System.nanoTime();
+		return parse(CompiledGrammar.of(cfg), w, start);
+	}
+
+	/**
+	 * Compiles the grammar once, and uses it for every word.
+	 *
+	 * @see computation.parser.IParser#parserFor(computation.contextfreegrammar.ContextFreeGrammar)
+	 */
+	@Override
+	public Function<Word, ParseResult> parserFor(ContextFreeGrammar cfg) {
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		return w -> parse(grammar, w, System.nanoTime());
+	}
+
+	/**
+	 * Parses one word, timing from the given start.
+	 */
+	private ParseResult parse(CompiledGrammar grammar, Word w, long start) {
+		Variable startVariable = grammar.getVariable(grammar.getStartId());
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		if(w.length() == 0) {
+			long elapsed = System.nanoTime() - start;
+			if(!grammar.derivesEmptyWord()) {
+				return ParseResult.rejected(statistics, elapsed);
+			}
+			return ParseResult.accepted(ParseTreeNode.emptyParseTree(startVariable), statistics, elapsed);
+		}
+		Set<Variable>[][] chart = fillChart(grammar, w);
+		boolean accepted = chart[w.length() - 1][0].contains(startVariable);
+		long elapsed = System.nanoTime() - start;
+
+		long entries = 0;
+		for(Set<Variable>[] row : chart) {
+			for(Set<Variable> cell : row) {
+				entries += cell.size();
+			}
+		}
+		statistics.put("cells", (long) w.length() * (w.length() + 1) / 2);
+		statistics.put("entries", entries);
+		if(!accepted) {
+			return ParseResult.rejected(statistics, elapsed);
+		}
+		return ParseResult.accepted(() -> buildTree(grammar, w, chart), statistics, elapsed);
+	}
+
+	/**
+	 * Fills in the CYK chart. The cell {@code chart[length - 1][start]} holds
+	 * every variable which generates the subword of the given length
+	 * beginning at the given start index.
+	 *
+	 * @param grammar the compiled grammar
+	 * @param w the word, which must not be empty
+	 * @return the chart
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private Set<Variable>[][] fillChart(CompiledGrammar grammar, Word w) {
+		int n = w.length();
+		Set<Variable>[][] chart = new Set[n][];
+		for(int length = 1; length <= n; length++) {
+			chart[length - 1] = new Set[n - length + 1];
+		}
+
+		// spans of length 1 come from the rules A → a
+		for(int start = 0; start < n; start++) {
+			Set<Variable> cell = new HashSet<>();
+			int terminal = grammar.getTerminalId(w.get(start));
+			if(terminal >= 0) {
+				for(int a : grammar.getTerminalProducers(terminal)) {
+					cell.add(grammar.getVariable(a));
+				}
+			}
+			chart[0][start] = cell;
+		}
+
+		// longer spans come from splitting into two shorter spans and the rules A → BC
+		for(int length = 2; length <= n; length++) {
+			for(int start = 0; start + length <= n; start++) {
+				Set<Variable> cell = new HashSet<>();
+				for(int split = 1; split < length; split++) {
+					Set<Variable> left = chart[split - 1][start];
+					Set<Variable> right = chart[length - split - 1][start + split];
+					if(left.isEmpty() || right.isEmpty()) {
+						continue;
+					}
+					for(Variable b : left) {
+						for(int rule : grammar.getBinaryRulesByLeft(grammar.getVariableId(b))) {
+							if(right.contains(grammar.getVariable(grammar.getRuleExpansion(rule)[1]))) {
+								cell.add(grammar.getVariable(grammar.getRuleVariable(rule)));
+							}
+						}
+					}
+				}
+				chart[length - 1][start] = cell;
+			}
+		}
+		return chart;
+	}
+
+	/**
+	 * Reads a parse tree back out of a filled chart. Where there is a choice
+	 * (the grammar is ambiguous) we take the first rule in grammar order, and
+	 * then the shortest left part.
+	 * <p>
+	 * The tree is built with an explicit stack rather than recursion, since
+	 * a tree for a long word can be thousands of levels deep.
+	 *
+	 * @param grammar the compiled grammar
+	 * @param w the word
+	 * @param chart the chart, whose top cell must contain the start variable
+	 * @return the root of the parse tree
+	 */
+	private ParseTreeNode buildTree(CompiledGrammar grammar, Word w, Set<Variable>[][] chart) {
+		Deque<Span> stack = new ArrayDeque<>();
+		Deque<ParseTreeNode> built = new ArrayDeque<>();
+		stack.push(new Span(grammar.getVariable(grammar.getStartId()), 0, w.length()));
+
+		while(!stack.isEmpty()) {
+			Span span = stack.pop();
+			if(span.expanded) {
+				// both children are finished and on top of the built stack, right child first
+				ParseTreeNode right = built.pop();
+				ParseTreeNode left = built.pop();
+				built.push(new ParseTreeNode(span.variable, left, right));
+				continue;
+			}
+			if(span.length == 1) {
+				built.push(new ParseTreeNode(span.variable, new ParseTreeNode(w.get(span.start))));
+				continue;
+			}
+			Span[] children = split(grammar, chart, span);
+			span.expanded = true;
+			stack.push(span);
+			stack.push(children[1]);
+			stack.push(children[0]);
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Finds a rule A → BC and a split point that generates the span for A.
+	 *
+	 * @param grammar the compiled grammar
+	 * @param chart the filled chart
+	 * @param span a span whose variable is in its chart cell, of length at least 2
+	 * @return the two child spans, left then right
+	 */
+	private Span[] split(CompiledGrammar grammar, Set<Variable>[][] chart, Span span) {
+		for(int ruleId : grammar.getRulesFor(grammar.getVariableId(span.variable))) {
+			Word expansion = grammar.getRule(ruleId).getExpansion();
+			if(expansion.length() != 2 || expansion.get(0).isTerminal() || expansion.get(1).isTerminal()) {
+				continue;
+			}
+			for(int split = 1; split < span.length; split++) {
+				if(chart[split - 1][span.start].contains(expansion.get(0))
+						&& chart[span.length - split - 1][span.start + split].contains(expansion.get(1))) {
+					return new Span[] {
+							new Span((Variable) expansion.get(0), span.start, split),
+							new Span((Variable) expansion.get(1), span.start + split, span.length - split)
+					};
+				}
+			}
+		}
+		throw new IllegalStateException("No rule generates " + span.variable + " over the chart span");
+	}
+
+	/**
+	 * A variable over a span of the word, used while building the parse tree.
+	 */
+	private static class Span {
+
+		/** The variable at this node of the tree. */
+		private final Variable variable;
+
+		/** The index of the first symbol of the span. */
+		private final int start;
+
+		/** The number of symbols in the span. */
+		private final int length;
+
+		/** Whether the children of this span have already been pushed. */
+		private boolean expanded;
+
+		private Span(Variable variable, int start, int length) {
+			this.variable = variable;
+			this.start = start;
+			this.length = length;
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package computation.parser;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * A parser which remembers its answers. It asks another parser for the
+ * result the first time it sees a word in a grammar, and stores the result
+ * (whether the word was accepted or not) in a {@link ParseCache}, so the
+ * next time the same word comes along in the same grammar it is answered
+ * straight from the cache.
+ * <p>
+ * Grammars are matched by their {@link Fingerprint}, not by identity, so a
+ * grammar which is built afresh for each request still hits the cache, and
+ * so does one with its rules in a different order. Working out the
+ * fingerprint means looking at every rule, so use a
+ * {@link ContextFreeGrammar#freeze() frozen} grammar, which remembers it, or
+ * {@link #parserFor(ContextFreeGrammar)}, which works it out once. (If the
+ * grammar is ambiguous, the tree from the cache might be a different one
+ * from the tree the parser would have picked with the rules in this order,
+ * but it is still a parse tree of the word in this grammar.)
+ * <p>
+ * A result from the cache is the same object that was stored, so its
+ * statistics and time are those of the original parse. If two threads parse
+ * the same new word at once, both do the work, and both get the result which
+ * was stored first.
+ */
+public class CachingParser implements IParser {
+
+	/** The parser which does the work. */
+	private final IParser parser;
+
+	/** Where the results are kept. */
+	private final ParseCache cache;
+
+	/**
+	 * Instantiates a new caching parser with its own cache.
+	 *
+	 * @param parser the parser which does the work
+	 * @param maximumSize the most results to keep
+	 */
+	public CachingParser(IParser parser, int maximumSize) {
+		this(parser, new ParseCache(maximumSize));
+	}
+
+	/**
+	 * Instantiates a new caching parser, using a cache which might be shared.
+	 * A cache should only be shared by parsers which give the same answers.
+	 *
+	 * @param parser the parser which does the work
+	 * @param cache where the results are kept
+	 */
+	public CachingParser(IParser parser, ParseCache cache) {
+		this.parser = parser;
+		this.cache = cache;
+	}
+
+	/**
+	 * Gets the cache, e.g. to read its counters.
+	 *
+	 * @return the cache
+	 */
+	public ParseCache getCache() {
+		return cache;
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#isInLanguage(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public boolean isInLanguage(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).isAccepted();
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#generateParseTree(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).getTree();
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#parse(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseResult parse(ContextFreeGrammar cfg, Word w) {
+		Fingerprint fingerprint = cfg.getFingerprint();
+		ParseResult result = cache.get(fingerprint, w);
+		if(result == null) {
+			result = cache.put(fingerprint, w, parser.parse(cfg, w));
+		}
+		return result;
+	}
+
+	/**
+	 * Only prepares the grammar for the other parser when a word is not in
+	 * the cache.
+	 *
+	 * @see computation.parser.IParser#parserFor(computation.contextfreegrammar.ContextFreeGrammar)
+	 */
+	@Override
+	public Function<Word, ParseResult> parserFor(ContextFreeGrammar cfg) {
+		// made the first time a word misses, so a batch which is all hits never prepares it
+		AtomicReference<Function<Word, ParseResult>> prepared = new AtomicReference<>();
+		Fingerprint fingerprint = cfg.getFingerprint();
+		return w -> {
+			ParseResult result = cache.get(fingerprint, w);
+			if(result == null) {
+				Function<Word, ParseResult> inner = prepared.get();
+				if(inner == null) {
+					synchronized(prepared) {
+						inner = prepared.get();
+						if(inner == null) {
+							inner = parser.parserFor(cfg);
+							prepared.set(inner);
+						}
+					}
+				}
+				result = cache.put(fingerprint, w, inner.apply(w));
+			}
+			return result;
+		};
+	}
+
+}
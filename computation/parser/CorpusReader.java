@@ -0,0 +1,161 @@
+package computation.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import computation.contextfreegrammar.Word;
+
+/**
+ * Reads a file of words, one per line, by memory-mapping it and making each
+ * word straight from the bytes of its line (see
+ * {@link Word#fromBytes(java.nio.ByteBuffer, int, int)}). No strings or
+ * symbol objects are made along the way, so reading keeps up with the disk
+ * even for words of a few symbols.
+ * <p>
+ * A mapping can't be more than 2GB, so a bigger file is mapped a window at
+ * a time. Each window after the first starts at the beginning of the line
+ * the last one stopped in, so no line is ever split between two windows.
+ * Lines may end with \n or \r\n, and the last line doesn't need to end at all.
+ * <p>
+ * A reader is not thread-safe. Closing it closes the file; the mappings are
+ * released when they are garbage collected.
+ */
+public final class CorpusReader implements Closeable {
+
+	/** The size of the windows the file is mapped in. */
+	static final int DEFAULT_WINDOW = 1 << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+
+	/** The current window, or null before the first. */
+	private MappedByteBuffer window;
+
+	/** Where the current window starts in the file. */
+	private long windowStart;
+
+	/** The index in the window of the start of the next line. */
+	private int next;
+
+	private long lines;
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public CorpusReader(Path file) throws IOException {
+		this(file, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Opens a file for reading, mapping it in windows of the given size.
+	 *
+	 * @param file the file
+	 * @param windowSize the most bytes to map at once; every line but the last must fit in a window with its newline
+	 * @throws IOException if the file can't be opened
+	 */
+	CorpusReader(Path file, int windowSize) throws IOException {
+		if(windowSize < 1) {
+			throw new IllegalArgumentException("The window size must be positive");
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Reads the next line as a word.
+	 *
+	 * @return the word, or null at the end of the file
+	 * @throws IOException if the file can't be read, or has a line which doesn't fit in a window with its newline
+	 */
+	public Word next() throws IOException {
+		if(window == null) {
+			if(size == 0) {
+				return null;
+			}
+			map(0);
+		}
+		int end = findNewline(next);
+		if(end < 0) {
+			if(windowStart + window.limit() < size && next > 0) {
+				// the line runs off the end of this window, so start the next window with it
+				map(windowStart + next);
+				end = findNewline(0);
+			}
+			if(end < 0) {
+				if(windowStart + window.limit() < size) {
+					throw new IOException("Line " + (lines + 1) + " is longer than " + windowSize + " bytes");
+				}
+				if(next >= window.limit()) {
+					return null;
+				}
+				// the last line of the file, without a newline
+				end = window.limit();
+			}
+		}
+		int start = next;
+		next = end + 1;
+		lines++;
+		int stop = end > start && window.get(end - 1) == '\r' ? end - 1 : end;
+		return Word.fromBytes(window, start, stop);
+	}
+
+	/**
+	 * Gets how many lines have been read so far.
+	 *
+	 * @return the number of lines
+	 */
+	public long getLineCount() {
+		return lines;
+	}
+
+	/**
+	 * Gets the size of the file.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	/**
+	 * Maps the window starting at the given place in the file.
+	 */
+	private void map(long start) throws IOException {
+		window = null;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+		windowStart = start;
+		next = 0;
+	}
+
+	/**
+	 * The index of the next \n in the window from the given index, or -1.
+	 */
+	private int findNewline(int from) {
+		int limit = window.limit();
+		for(int i = from; i < limit; i++) {
+			if(window.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,518 @@
+package computation.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.CompactParseTree;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * A parser based on Earley's algorithm, which works for any context free
+ * grammar, not just grammars in Chomsky normal form. Unit rules A → B and
+ * ε rules A → ε anywhere in the grammar are fine, as are left recursive
+ * rules such as E → E+T.
+ * <p>
+ * For a word of length n the parser builds n + 1 sets of <i>items</i>. An
+ * item is a rule with a dot somewhere in its right hand side, and the index
+ * where the rule started, e.g. (E → E+•T, 3) in set 5 says that E+ generates
+ * the part of the word from index 3 to 5, and we are hoping to find a T next.
+ * Each set is filled by three operations:
+ * <ul>
+ * <li><b>predict</b>: for an item with the dot before a variable B, add every rule for B with the dot at the start,</li>
+ * <li><b>scan</b>: for an item with the dot before the next terminal of the word, move the dot over it into the next set, and</li>
+ * <li><b>complete</b>: for an item with the dot at the end, move the dot over the variable in every item that was waiting for it.</li>
+ * </ul>
+ * The word is in the language when the last set holds a finished rule for
+ * the start variable which started at index 0. Variables that can generate ε
+ * are handled as suggested by Aycock and Horspool: when we predict a
+ * variable which can generate ε, we also move the dot straight over it.
+ * <p>
+ * In general this takes O(n³) time, but for an unambiguous grammar it is
+ * O(n²), and for most grammars used in practice (including the usual
+ * expression grammar E → E+T | T, T → T*F | F, F → (E) | 1 | 0 | x) every set
+ * holds a bounded number of items and it runs in linear time.
+ * <p>
+ * Each item remembers how it was first made (the item it came from and the
+ * item or terminal the dot moved over). An item is only ever made from items
+ * which already existed, so following these links can never go round in a
+ * circle, and the parse tree is read straight off them. The tree uses the
+ * rules of the grammar as given, so a node can have any number of children
+ * (see {@link ParseTreeNode#ParseTreeNode(Symbol, List)}).
+ */
+public class EarleyParser implements IParser {
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#isInLanguage(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public boolean isInLanguage(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).isAccepted();
+	}
+
+	/* (non-Javadoc)
+	 * @see computation.parser.IParser#generateParseTree(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w) {
+		return parse(cfg, w).getTree();
+	}
+
+	/**
+	 * Fills in the sets of items, and reports how many sets and items there
+	 * were and the size of the biggest set.
+	 *
+	 * @see computation.parser.IParser#parse(computation.contextfreegrammar.ContextFreeGrammar, computation.contextfreegrammar.Word)
+	 */
+	@Override
+	public ParseResult parse(ContextFreeGrammar cfg, Word w) {
+		long start = System.nanoTime();
+		return parse(new DottedRules(CompiledGrammar.of(cfg)), w, start);
+	}
+
+	/**
+	 * Makes the dotted rules once, and uses them for every word.
+	 *
+	 * @see computation.parser.IParser#parserFor(computation.contextfreegrammar.ContextFreeGrammar)
+	 */
+	@Override
+	public Function<Word, ParseResult> parserFor(ContextFreeGrammar cfg) {
+		DottedRules rules = new DottedRules(CompiledGrammar.of(cfg));
+		return w -> parse(rules, w, System.nanoTime());
+	}
+
+	/**
+	 * Parses one word, timing from the given start.
+	 */
+	private static ParseResult parse(DottedRules rules, Word w, long start) {
+		Chart chart = new Chart(rules, w);
+		long elapsed = System.nanoTime() - start;
+
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		int biggest = 0;
+		for(int i = 0; i <= w.length(); i++) {
+			biggest = Math.max(biggest, chart.setStart[i + 1] - chart.setStart[i]);
+		}
+		statistics.put("sets", (long) w.length() + 1);
+		statistics.put("items", (long) chart.dotted.size());
+		statistics.put("biggest set", (long) biggest);
+		if(chart.acceptingItem < 0) {
+			return ParseResult.rejected(statistics, elapsed);
+		}
+		return ParseResult.accepted(() -> chart.buildTree(chart.acceptingItem), statistics, elapsed);
+	}
+
+	/**
+	 * The tables describing the dotted rules of a grammar, which are the same
+	 * for every word. They are never changed once made, so one set of tables
+	 * can be used by several charts at once.
+	 * <p>
+	 * A dotted rule is numbered {@code ruleStart[r] + dot}, so every dotted
+	 * rule is a single int.
+	 */
+	private static class DottedRules {
+
+		private final CompiledGrammar grammar;
+
+		/** The dotted rule number of the first dotted rule of each rule. */
+		private final int[] ruleStart;
+
+		/** For each dotted rule, the rule it belongs to. */
+		private final int[] dottedRule;
+
+		/** For each dotted rule, the coded symbol after the dot, or COMPLETE. */
+		private final int[] nextSymbol;
+
+		/** Which variables can generate ε. */
+		private final boolean[] nullable;
+
+		/** A parse tree deriving ε for each nullable variable. */
+		private final ParseTreeNode[] emptyTrees;
+
+		private DottedRules(CompiledGrammar grammar) {
+			this.grammar = grammar;
+			int rules = grammar.getRuleCount();
+			this.ruleStart = new int[rules + 1];
+			for(int r = 0; r < rules; r++) {
+				ruleStart[r + 1] = ruleStart[r] + grammar.getRuleExpansion(r).length + 1;
+			}
+			this.dottedRule = new int[ruleStart[rules]];
+			this.nextSymbol = new int[ruleStart[rules]];
+			for(int r = 0; r < rules; r++) {
+				int[] expansion = grammar.getRuleExpansion(r);
+				for(int dot = 0; dot <= expansion.length; dot++) {
+					dottedRule[ruleStart[r] + dot] = r;
+					nextSymbol[ruleStart[r] + dot] = dot < expansion.length ? expansion[dot] : Chart.COMPLETE;
+				}
+			}
+			this.nullable = new boolean[grammar.getVariableCount()];
+			this.emptyTrees = new ParseTreeNode[grammar.getVariableCount()];
+			findNullable();
+		}
+
+		/**
+		 * Finds every variable that can generate ε, and a parse tree showing how,
+		 * by repeatedly looking for rules whose right hand side is all nullable.
+		 */
+		private void findNullable() {
+			boolean changed = true;
+			while(changed) {
+				changed = false;
+				for(int r = 0; r < grammar.getRuleCount(); r++) {
+					int lhs = grammar.getRuleVariable(r);
+					if(nullable[lhs]) {
+						continue;
+					}
+					int[] expansion = grammar.getRuleExpansion(r);
+					boolean all = true;
+					for(int code : expansion) {
+						if(CompiledGrammar.isTerminalCode(code) || !nullable[code]) {
+							all = false;
+							break;
+						}
+					}
+					if(all) {
+						nullable[lhs] = true;
+						changed = true;
+						if(expansion.length == 0) {
+							emptyTrees[lhs] = ParseTreeNode.emptyParseTree(grammar.getVariable(lhs));
+						} else {
+							List<ParseTreeNode> children = new ArrayList<>();
+							for(int code : expansion) {
+								children.add(emptyTrees[code]);
+							}
+							emptyTrees[lhs] = new ParseTreeNode(grammar.getVariable(lhs), children);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The sets of items for one word, filled in by the constructor.
+	 * <p>
+	 * Items from every set are stored together in parallel lists, and an
+	 * item is referred to by its index in them.
+	 */
+	private static class Chart {
+
+		/** Marks a dotted rule with the dot at the end. */
+		private static final int COMPLETE = Integer.MIN_VALUE;
+
+		/** In {@link #child}, marks that the dot moved over a terminal of the word. */
+		private static final int SCANNED = -1;
+
+		private final CompiledGrammar grammar;
+		private final Word word;
+
+		/** The tables of the grammar's {@link DottedRules}, copied here to keep the code short. */
+		private final int[] ruleStart;
+		private final int[] dottedRule;
+		private final int[] nextSymbol;
+		private final boolean[] nullable;
+		private final ParseTreeNode[] emptyTrees;
+
+		/** The dotted rule of each item. */
+		private final IntList dotted = new IntList();
+
+		/** The index of the set each item's rule started in. */
+		private final IntList origin = new IntList();
+
+		/** The index of the set each item is in. */
+		private final IntList end = new IntList();
+
+		/** The item with the dot one place to the left that each item was made from, or -1. */
+		private final IntList previous = new IntList();
+
+		/**
+		 * What the dot moved over to make each item: the index of a finished item,
+		 * SCANNED for a terminal, or -(v + 2) for a variable v which generated ε.
+		 */
+		private final IntList child = new IntList();
+
+		/** For each item, the next item in the same set waiting for the same variable, or -1. */
+		private final IntList nextWaiting = new IntList();
+
+		/** For each set, the last item waiting for each variable (the head of a list through nextWaiting). */
+		private final List<Map<Integer, Integer>> waiting = new ArrayList<>();
+
+		/** The first item of each set; the set runs up to the first item of the next. */
+		private final int[] setStart;
+
+		/** The finished start rule covering the whole word, or -1 if the word is not in the language. */
+		private int acceptingItem = -1;
+
+		private Chart(DottedRules rules, Word word) {
+			this.grammar = rules.grammar;
+			this.word = word;
+			this.ruleStart = rules.ruleStart;
+			this.dottedRule = rules.dottedRule;
+			this.nextSymbol = rules.nextSymbol;
+			this.nullable = rules.nullable;
+			this.emptyTrees = rules.emptyTrees;
+			this.setStart = new int[word.length() + 2];
+			recognise();
+		}
+
+		/**
+		 * Fills in every set, one after another.
+		 */
+		private void recognise() {
+			int n = word.length();
+			// items are looked up by (dotted rule, origin), only ever in the current set
+			ItemTable table = new ItemTable();
+			// items of the current set which scanned the next terminal, to go into the next set
+			IntList scanned = new IntList();
+
+			setStart[0] = 0;
+			for(int r : grammar.getRulesFor(grammar.getStartId())) {
+				add(table, ruleStart[r], 0, 0, -1, 0);
+			}
+
+			for(int i = 0; i <= n; i++) {
+				Map<Integer, Integer> waitingHere = new HashMap<>();
+				waiting.add(waitingHere);
+				boolean[] predicted = new boolean[grammar.getVariableCount()];
+				int terminal = i < n ? grammar.getTerminalId(word.get(i)) : -1;
+
+				for(int item = setStart[i]; item < dotted.size(); item++) {
+					int d = dotted.get(item);
+					int from = origin.get(item);
+					int symbol = nextSymbol[d];
+
+					if(symbol == COMPLETE) {
+						// move the dot over this variable in every item waiting for it
+						int variable = grammar.getRuleVariable(dottedRule[d]);
+						Integer head = waiting.get(from).get(variable);
+						for(int w = head == null ? -1 : head; w >= 0; w = nextWaiting.get(w)) {
+							add(table, dotted.get(w) + 1, origin.get(w), i, w, item);
+						}
+					} else if(CompiledGrammar.isTerminalCode(symbol)) {
+						if(terminal >= 0 && CompiledGrammar.terminalOfCode(symbol) == terminal) {
+							scanned.add(item);
+						}
+					} else {
+						Integer head = waitingHere.put(symbol, item);
+						nextWaiting.set(item, head == null ? -1 : head);
+						if(!predicted[symbol]) {
+							predicted[symbol] = true;
+							for(int r : grammar.getRulesFor(symbol)) {
+								add(table, ruleStart[r], i, i, -1, 0);
+							}
+						}
+						if(nullable[symbol]) {
+							add(table, d + 1, from, i, item, -(symbol + 2));
+						}
+					}
+				}
+
+				// the set is finished, so start the next one with the scanned items
+				setStart[i + 1] = dotted.size();
+				table.clear();
+				for(int k = 0; k < scanned.size(); k++) {
+					int item = scanned.get(k);
+					add(table, dotted.get(item) + 1, origin.get(item), i + 1, item, SCANNED);
+				}
+				scanned.clear();
+			}
+
+			// look for a finished start rule from 0 in the last set
+			for(int item = setStart[n]; item < setStart[n + 1]; item++) {
+				int d = dotted.get(item);
+				if(nextSymbol[d] == COMPLETE && origin.get(item) == 0
+						&& grammar.getRuleVariable(dottedRule[d]) == grammar.getStartId()) {
+					acceptingItem = item;
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Adds an item to a set, unless the set already has it.
+		 */
+		private void add(ItemTable table, int d, int from, int set, int previousItem, int childItem) {
+			if(!table.add(d, from)) {
+				return;
+			}
+			dotted.add(d);
+			origin.add(from);
+			end.add(set);
+			previous.add(previousItem);
+			child.add(childItem);
+			nextWaiting.add(-1);
+		}
+
+		/**
+		 * Builds the parse tree for a finished item by following the links
+		 * saying how each item was made. Uses an explicit stack, since a tree
+		 * for a long word can be thousands of levels deep. The tree is a
+		 * {@link CompactParseTree}, so a long word's tree is a few arrays
+		 * rather than an object per node.
+		 */
+		private ParseTreeNode buildTree(int root) {
+			CompactParseTree tree = new CompactParseTree(2 * word.length() + 2);
+			Deque<Node> stack = new ArrayDeque<>();
+			stack.push(new Node(root));
+
+			while(!stack.isEmpty()) {
+				Node node = stack.peek();
+				if(node.filled == node.links.length) {
+					stack.pop();
+					Variable variable = grammar.getVariable(grammar.getRuleVariable(dottedRule[dotted.get(node.item)]));
+					int built = node.children.length == 0
+							? tree.addNode(variable, tree.addEmpty(end.get(node.item)))
+							: tree.addNode(variable, node.children);
+					if(!stack.isEmpty()) {
+						Node parent = stack.peek();
+						parent.children[parent.filled++] = built;
+					}
+					continue;
+				}
+
+				int link = node.links[node.filled];
+				int linkChild = child.get(link);
+				if(linkChild == SCANNED) {
+					int position = end.get(link) - 1;
+					node.children[node.filled++] = tree.addLeaf(word.get(position), position);
+				} else if(linkChild < 0) {
+					node.children[node.filled++] = tree.addTree(emptyTrees[-linkChild - 2], end.get(link));
+				} else {
+					stack.push(new Node(linkChild));
+				}
+			}
+			tree.trimToSize();
+			return tree.asParseTreeNode();
+		}
+
+		/**
+		 * A finished item whose subtree is being built.
+		 */
+		private class Node {
+
+			/** The finished item. */
+			private final int item;
+
+			/** The items along the chain back to the start of the rule, in left to right order. */
+			private final int[] links;
+
+			/** The nodes of the tree for each symbol of the rule. */
+			private final int[] children;
+
+			/** How many of the children have been built. */
+			private int filled;
+
+			private Node(int item) {
+				this.item = item;
+				int length = dotted.get(item) - ruleStart[dottedRule[dotted.get(item)]];
+				this.links = new int[length];
+				int at = item;
+				for(int i = length - 1; i >= 0; i--) {
+					links[i] = at;
+					at = previous.get(at);
+				}
+				this.children = new int[length];
+			}
+		}
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static class IntList {
+
+		private int[] values = new int[64];
+		private int size;
+
+		void add(int value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		void set(int index, int value) {
+			values[index] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+
+	/**
+	 * An open addressing hash set of (dotted rule, origin) pairs, for the
+	 * items of one set.
+	 */
+	private static class ItemTable {
+
+		private long[] keys = new long[64];
+		private int size;
+
+		/**
+		 * Adds an item if it is not already there.
+		 *
+		 * @return true, if it was added
+		 */
+		boolean add(int dotted, int origin) {
+			if(2 * (size + 1) > keys.length) {
+				grow();
+			}
+			long key = ((long) dotted << 32 | (origin & 0xffffffffL)) + 1;
+			int mask = keys.length - 1;
+			for(int i = mix(key) & mask; ; i = (i + 1) & mask) {
+				if(keys[i] == 0) {
+					keys[i] = key;
+					size++;
+					return true;
+				}
+				if(keys[i] == key) {
+					return false;
+				}
+			}
+		}
+
+		void clear() {
+			if(size > 0) {
+				Arrays.fill(keys, 0);
+				size = 0;
+			}
+		}
+
+		private void grow() {
+			long[] old = keys;
+			keys = new long[old.length * 2];
+			int mask = keys.length - 1;
+			for(long key : old) {
+				if(key != 0) {
+					int i = mix(key) & mask;
+					while(keys[i] != 0) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = key;
+				}
+			}
+		}
+
+		private static int mix(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+}
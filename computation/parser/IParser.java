@@ -3,6 +3,12 @@
  */
 package computation.parser;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
 import computation.contextfreegrammar.*;
 import computation.parsetree.ParseTreeNode;
 
@@ -12,6 +18,11 @@ import computation.parsetree.ParseTreeNode;
  * There is an example empty class already, but you're welcome
  * to create a new one (and probably should when you try the
  * second algorithm).
+ * <p>
+ * A parser should keep no state between calls, so that one instance can be
+ * shared by any number of threads. The parsers in this package all do the
+ * whole job in {@link #parse(ContextFreeGrammar, Word)}, and the other two
+ * methods just call it.
  */
 public interface IParser {
 
@@ -54,4 +65,79 @@ public interface IParser {
 	 */
 	ParseTreeNode generateParseTree(ContextFreeGrammar cfg, Word w);
 
+	/**
+	 * Parses a word, finding whether it is in the language and how to build
+	 * its parse tree in one pass. The tree itself is only built if it is
+	 * asked for (see {@link ParseResult#getTree()}).
+	 * <p>
+	 * Parsers which can say more, e.g. report statistics or avoid building
+	 * the tree, should override this. The default just calls
+	 * {@link #generateParseTree(ContextFreeGrammar, Word)} and times it.
+	 *
+	 * @param cfg the context free grammar
+	 * @param w the word to parse
+	 * @return the result
+	 */
+	default ParseResult parse(ContextFreeGrammar cfg, Word w) {
+		long start = System.nanoTime();
+		ParseTreeNode tree = generateParseTree(cfg, w);
+		long elapsed = System.nanoTime() - start;
+		if(tree == null) {
+			return ParseResult.rejected(Collections.emptyMap(), elapsed);
+		}
+		return ParseResult.accepted(tree, Collections.emptyMap(), elapsed);
+	}
+
+	/**
+	 * Gets a function which parses words in the given grammar. Anything which
+	 * only depends on the grammar, e.g. compiling it, is done once here
+	 * rather than for every word, so this is the way to parse many words in
+	 * the same grammar. The function can be called from several threads at
+	 * once.
+	 * <p>
+	 * The default just calls {@link #parse(ContextFreeGrammar, Word)} each time.
+	 *
+	 * @param cfg the context free grammar, which must not be changed while the function is in use
+	 * @return a function from words to their results
+	 */
+	default Function<Word, ParseResult> parserFor(ContextFreeGrammar cfg) {
+		return w -> parse(cfg, w);
+	}
+
+	/**
+	 * Parses a batch of words in the same grammar, in parallel on the common
+	 * {@link ForkJoinPool}.
+	 *
+	 * @param cfg the context free grammar
+	 * @param words the words to parse
+	 * @return the results, in the same order as the words
+	 * @see #parseAll(ContextFreeGrammar, Collection, ForkJoinPool)
+	 */
+	default List<ParseResult> parseAll(ContextFreeGrammar cfg, Collection<Word> words) {
+		return parseAll(cfg, words, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Parses a batch of words in the same grammar, in parallel on the given
+	 * pool. The grammar is only prepared once (see
+	 * {@link #parserFor(ContextFreeGrammar)}), and the longest words are
+	 * started first, so that one long word doesn't hold up the end of the
+	 * batch. If any word fails with an exception, no more words are started
+	 * and the exception is thrown from here.
+	 * <p>
+	 * The trees of accepted words are not built, so each accepted result
+	 * still holds its parser's chart (see
+	 * {@link ParseResult#accepted(java.util.function.Supplier, java.util.Map, long)}).
+	 * To keep the results of a large batch, call {@link ParseResult#getTree()}
+	 * on the accepted ones as they are used, or keep only their answers.
+	 *
+	 * @param cfg the context free grammar
+	 * @param words the words to parse
+	 * @param pool the pool to run on
+	 * @return the results, in the same order as the words
+	 */
+	default List<ParseResult> parseAll(ContextFreeGrammar cfg, Collection<Word> words, ForkJoinPool pool) {
+		return BatchParser.parseAll(parserFor(cfg), words, pool);
+	}
+
 }
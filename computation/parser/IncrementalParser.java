@@ -0,0 +1,141 @@
+package computation.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.CompactParseTree;
+
+/**
+ * Parses a word which is edited a little at a time, such as an expression
+ * in an editor which is parsed again after every keystroke.
+ * <p>
+ * The parser keeps the {@link BitsetChart} of the current word. After an
+ * edit it only fills the cells whose spans overlap the symbols which
+ * changed, and keeps all the others (see
+ * {@link BitsetChart#edit(Word, int, int, int)}). So typing at the end of a
+ * word of n symbols fills O(n) cells instead of O(n²), and an edit in the
+ * middle fills the cells which span it, which is still fewer than all of
+ * them.
+ * <p>
+ * The chart is reused by the next edit, so the tree of each result is
+ * built straight away rather than when it is first asked for. A parser is
+ * not thread-safe.
+ */
+public final class IncrementalParser {
+
+	private final CompiledGrammar grammar;
+	private final BitsetRules rules;
+
+	/** The chart of the current word. */
+	private BitsetChart chart;
+
+	/** The result for the current word. */
+	private ParseResult result;
+
+	/**
+	 * Parses a word from scratch, ready for it to be edited.
+	 *
+	 * @param cfg the context free grammar, which must be in Chomsky normal form
+	 * @param w the word
+	 */
+	public IncrementalParser(ContextFreeGrammar cfg, Word w) {
+		long start = System.nanoTime();
+		this.grammar = CompiledGrammar.of(cfg);
+		this.rules = new BitsetRules(grammar);
+		this.chart = BitsetChart.fill(grammar, rules, w);
+		this.result = result((long) w.length() * (w.length() + 1) / 2, start);
+	}
+
+	/**
+	 * Gets the current word.
+	 *
+	 * @return the word
+	 */
+	public Word getWord() {
+		return chart.getWord();
+	}
+
+	/**
+	 * Gets the result for the current word.
+	 *
+	 * @return the result
+	 */
+	public ParseResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Replaces the symbol at an index with a word, in the same way as
+	 * {@link Word#replace(int, Word)}, and parses the new word. Replacing a
+	 * symbol with the empty word deletes it, and replacing it with itself
+	 * and another symbol inserts one.
+	 *
+	 * @param index the index of the symbol to replace
+	 * @param word the word to put in its place
+	 * @return the result for the new word
+	 * @throws ArrayIndexOutOfBoundsException if the index is out of range
+	 */
+	public ParseResult replace(int index, Word word) {
+		return edit(getWord().replace(index, word), index, index + 1, index + word.length());
+	}
+
+	/**
+	 * Changes the current word to another one and parses it. The symbols at
+	 * the start and end which are the same in both words are found first,
+	 * and only the cells which overlap the part in between are filled
+	 * again.
+	 *
+	 * @param w the new word
+	 * @return the result for the new word
+	 */
+	public ParseResult update(Word w) {
+		Word old = getWord();
+		int common = Math.min(old.length(), w.length());
+		int from = 0;
+		while(from < common && old.get(from).equals(w.get(from))) {
+			from++;
+		}
+		if(from == old.length() && from == w.length()) {
+			return result;
+		}
+		int end = 0;
+		while(end < common - from && old.get(old.length() - 1 - end).equals(w.get(w.length() - 1 - end))) {
+			end++;
+		}
+		return edit(w, from, old.length() - end, w.length() - end);
+	}
+
+	/**
+	 * Parses the new word, where the symbols from index from up to oldTo of
+	 * the current word are replaced by the ones from from up to newTo.
+	 */
+	private ParseResult edit(Word w, int from, int oldTo, int newTo) {
+		long start = System.nanoTime();
+		int n = w.length();
+		chart = chart.edit(w, from, oldTo, newTo);
+
+		// every cell with a start before newTo and an end after from
+		long after = n - from;
+		long filled = (long) from * after + (long) (newTo - from) * (n - newTo) + (long) (newTo - from) * (newTo - from + 1) / 2;
+		result = result(filled, start);
+		return result;
+	}
+
+	/**
+	 * Makes the result for the current chart, building the tree now.
+	 */
+	private ParseResult result(long filled, long start) {
+		Word w = chart.getWord();
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		statistics.put("cells", (long) w.length() * (w.length() + 1) / 2);
+		statistics.put("cells filled", filled);
+		statistics.put("longs per cell", (long) rules.getWords());
+		if(!chart.isAccepted()) {
+			return ParseResult.rejected(statistics, System.nanoTime() - start);
+		}
+		CompactParseTree tree = chart.buildCompactTree();
+		return ParseResult.accepted(tree.asParseTreeNode(), statistics, System.nanoTime() - start);
+	}
+
+}
@@ -0,0 +1,161 @@
+package computation.parser;
+
+/**
+ * Counts how long operations took, in a fixed amount of memory however many
+ * are recorded, so that percentiles such as the median or the 99.9th can be
+ * read off at the end of a long run.
+ * <p>
+ * Times below 64 ns are counted exactly. Above that each power of two is
+ * split into 32 buckets, so a percentile is reported to within about 3%
+ * (as the top of its bucket, so never too low). This is the same idea as
+ * HdrHistogram.
+ * <p>
+ * A histogram is not thread-safe. To time several threads, give each its own
+ * and {@link #add(LatencyHistogram) add} them up at the end.
+ */
+public final class LatencyHistogram {
+
+	/** Each power of two is split into 2^SUB_BITS buckets. */
+	private static final int SUB_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Enough buckets for any positive long. */
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+
+	private long count;
+	private long total;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	/**
+	 * Records one operation.
+	 *
+	 * @param nanos how long it took, in nanoseconds; negative times count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[bucket(value)]++;
+		count++;
+		total += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds everything recorded by another histogram to this one.
+	 *
+	 * @param other the other histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		total += other.total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Gets the number of operations recorded.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the total time of all the operations.
+	 *
+	 * @return the total in nanoseconds
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Gets the shortest time recorded.
+	 *
+	 * @return the minimum in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * Gets the longest time recorded.
+	 *
+	 * @return the maximum in nanoseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets the time which the given share of operations took no longer than,
+	 * e.g. {@code getPercentile(99)} for the 99th percentile.
+	 *
+	 * @param percent the percentile, from 0 to 100
+	 * @return the time in nanoseconds, or 0 if nothing has been recorded
+	 * @throws IllegalArgumentException if the percentile is out of range
+	 */
+	public long getPercentile(double percent) {
+		if(!(percent >= 0 && percent <= 100)) {
+			throw new IllegalArgumentException("Percentiles must be between 0 and 100");
+		}
+		if(count == 0) {
+			return 0;
+		}
+		// the rank of the operation we want, counting from 1
+		long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(max, Math.max(min, highest(i)));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Produces a one-line summary in milliseconds, e.g.
+	 * {@code n=1000 mean=0.120 p50=0.101 p99=0.533 p999=1.200 max=1.812 ms}.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.3f p50=%.3f p99=%.3f p999=%.3f max=%.3f ms", count,
+				count == 0 ? 0.0 : total / 1e6 / count, getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+				getPercentile(99.9) / 1e6, max / 1e6);
+	}
+
+	/**
+	 * The bucket a time goes in.
+	 */
+	private static int bucket(long value) {
+		if(value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * The largest time which goes in a bucket.
+	 */
+	private static long highest(int bucket) {
+		if(bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,387 @@
+package computation.parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import computation.contextfreegrammar.Fingerprint;
+import computation.contextfreegrammar.Word;
+
+/**
+ * A bounded cache of parse results, keyed by the {@link Fingerprint} of a
+ * grammar and a word. It is used by {@link CachingParser}, and can be shared
+ * by several of them.
+ * <p>
+ * The cache is bounded both by the number of entries and by their total
+ * weight, where the weight of an entry is the length of its word plus one
+ * (roughly the size of its parse tree). When it is full, entries are
+ * evicted by <i>segmented LRU</i>: a new entry goes into a probation
+ * segment, and only moves to the protected segment if it is asked for
+ * again. Entries are evicted from the least recently used end of probation,
+ * so a burst of words which are only ever seen once can't push out the words
+ * which keep coming back. The protected segment holds at most 80% of the
+ * cache, and entries which fall off the end of it go back into probation.
+ * <p>
+ * To let many threads use the cache at once, it is split into stripes by
+ * the hash of the key, each with its own lock and its own share of the
+ * number of entries. The weight bound is for the whole cache, so one heavy
+ * entry (a long word, which is the most worth caching) can use up to all of
+ * it. When an entry takes the total weight over the bound, entries are
+ * evicted from its own stripe first and then from the others, one stripe
+ * at a time, so while several threads are adding entries the total can be
+ * over the bound for a moment. The counters of hits, misses and evictions
+ * don't need a lock at all.
+ */
+public final class ParseCache {
+
+	/** The most stripes a cache is split into. */
+	private static final int MAXIMUM_STRIPES = 16;
+
+	/** The share of each stripe's bounds which the protected segment can use, out of 100. */
+	private static final int PROTECTED_PERCENT = 80;
+
+	private final Stripe[] stripes;
+
+	/** The most total weight to keep. */
+	private final long maximumWeight;
+
+	/** The total weight of the entries in every stripe. */
+	private final AtomicLong weight = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Instantiates a new cache bounded only by the number of entries.
+	 *
+	 * @param maximumSize the most entries to keep
+	 * @throws IllegalArgumentException if the size is not positive
+	 */
+	public ParseCache(int maximumSize) {
+		this(maximumSize, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Instantiates a new cache bounded by the number of entries and their total weight.
+	 *
+	 * @param maximumSize the most entries to keep
+	 * @param maximumWeight the most total weight to keep, where each entry weighs the length of its word plus one
+	 * @throws IllegalArgumentException if either bound is not positive
+	 */
+	public ParseCache(int maximumSize, long maximumWeight) {
+		if(maximumSize < 1 || maximumWeight < 1) {
+			throw new IllegalArgumentException("Cache bounds must be positive");
+		}
+		this.maximumWeight = maximumWeight;
+		// a power of two no bigger than the size, so every stripe can hold something
+		int count = Integer.highestOneBit(Math.min(MAXIMUM_STRIPES, maximumSize));
+		this.stripes = new Stripe[count];
+		for(int i = 0; i < count; i++) {
+			// the first few stripes take the remainder, so the sizes add up to the bound
+			stripes[i] = new Stripe(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Looks up the result for a word, and counts a hit or a miss.
+	 *
+	 * @param grammar the fingerprint of the grammar
+	 * @param w the word
+	 * @return the cached result, or null if there is none
+	 */
+	public ParseResult get(Fingerprint grammar, Word w) {
+		Key key = new Key(grammar, w);
+		ParseResult result = stripeFor(key).get(key);
+		(result == null ? misses : hits).increment();
+		return result;
+	}
+
+	/**
+	 * Stores the result for a word, evicting other entries if necessary. An
+	 * accepted result's tree is built first, so that the cache doesn't keep
+	 * the parser's chart alive. If the word is already in the cache, the
+	 * result already there is kept.
+	 *
+	 * @param grammar the fingerprint of the grammar
+	 * @param w the word
+	 * @param result the result of parsing the word
+	 * @return the result which is now in the cache, or the given result if it was too heavy to keep
+	 */
+	public ParseResult put(Fingerprint grammar, Word w, ParseResult result) {
+		long entryWeight = w.length() + 1L;
+		if(entryWeight > maximumWeight) {
+			return result;
+		}
+		result.getTree();
+		Key key = new Key(grammar, w);
+		Stripe stripe = stripeFor(key);
+		ParseResult cached = stripe.put(key, result, entryWeight);
+		if(weight.get() > maximumWeight) {
+			evictFromOtherStripes(stripe);
+		}
+		return cached;
+	}
+
+	/**
+	 * Evicts the least recently used entries of the stripes other than the
+	 * given one, in turn, until the total weight is within the bound. The
+	 * given stripe has already evicted all it can.
+	 */
+	private void evictFromOtherStripes(Stripe full) {
+		boolean evicted = true;
+		while(evicted && weight.get() > maximumWeight) {
+			evicted = false;
+			for(Stripe stripe : stripes) {
+				if(stripe != full && weight.get() > maximumWeight && stripe.evictEldest()) {
+					evicted = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry. The counters are not reset.
+	 */
+	public void clear() {
+		for(Stripe stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public long size() {
+		long size = 0;
+		for(Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the total weight of the entries.
+	 *
+	 * @return the total weight
+	 */
+	public long weight() {
+		return weight.get();
+	}
+
+	/**
+	 * Gets how many lookups found a result.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets how many lookups found nothing.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets how many entries have been evicted to make room for others.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Gets the counters, with the size and weight, in a map which is easy to
+	 * print or export, in the same style as {@link ParseResult#getStatistics()}.
+	 *
+	 * @return a new map from counter names to values
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		statistics.put("hits", getHitCount());
+		statistics.put("misses", getMissCount());
+		statistics.put("evictions", getEvictionCount());
+		statistics.put("size", size());
+		statistics.put("weight", weight());
+		return statistics;
+	}
+
+	/**
+	 * Produces a summary of the counters, e.g. {@code {hits=10, misses=2, evictions=0, size=2, weight=14}}.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getStatistics().toString();
+	}
+
+	private Stripe stripeFor(Key key) {
+		int h = key.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+	}
+
+	/**
+	 * The fingerprint of a grammar and a word.
+	 */
+	private static final class Key {
+
+		private final Fingerprint grammar;
+		private final Word word;
+		private final int hash;
+
+		private Key(Fingerprint grammar, Word word) {
+			this.grammar = grammar;
+			this.word = word;
+			this.hash = 31 * grammar.hashCode() + word.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && grammar.equals(other.grammar) && word.equals(other.word);
+		}
+	}
+
+	/**
+	 * A result and its weight.
+	 */
+	private static final class Entry {
+
+		private final ParseResult result;
+		private final long weight;
+
+		private Entry(ParseResult result, long weight) {
+			this.result = result;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * One stripe of the cache: a segmented LRU with its own size bound,
+	 * guarded by its own lock. Both segments are kept in order of use, least
+	 * recently used first, by taking an entry out and putting it back
+	 * whenever it is used.
+	 */
+	private final class Stripe {
+
+		private final int maximumSize;
+		private final int protectedSize;
+		private final long protectedWeight;
+
+		private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>();
+		private final LinkedHashMap<Key, Entry> protectedSegment = new LinkedHashMap<>();
+
+		/** The weight of the protected segment. */
+		private long weightProtected;
+
+		private Stripe(int maximumSize) {
+			this.maximumSize = maximumSize;
+			this.protectedSize = (int) ((long) maximumSize * PROTECTED_PERCENT / 100);
+			this.protectedWeight = maximumWeight / 100 * PROTECTED_PERCENT + maximumWeight % 100 * PROTECTED_PERCENT / 100;
+		}
+
+		private synchronized ParseResult get(Key key) {
+			Entry entry = protectedSegment.remove(key);
+			if(entry != null) {
+				protectedSegment.put(key, entry);
+				return entry.result;
+			}
+			entry = probation.remove(key);
+			if(entry == null) {
+				return null;
+			}
+			// used twice, so promote it, demoting the least recently used protected entries to make room
+			protectedSegment.put(key, entry);
+			weightProtected += entry.weight;
+			Iterator<Map.Entry<Key, Entry>> eldest = protectedSegment.entrySet().iterator();
+			while(protectedSegment.size() > protectedSize || weightProtected > protectedWeight) {
+				Map.Entry<Key, Entry> demoted = eldest.next();
+				eldest.remove();
+				weightProtected -= demoted.getValue().weight;
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+			return entry.result;
+		}
+
+		private synchronized ParseResult put(Key key, ParseResult result, long entryWeight) {
+			Entry existing = protectedSegment.get(key);
+			if(existing == null) {
+				existing = probation.get(key);
+			}
+			if(existing != null) {
+				// another thread parsed the same word at the same time
+				return existing.result;
+			}
+			probation.put(key, new Entry(result, entryWeight));
+			weight.addAndGet(entryWeight);
+			// the new entry is the youngest in probation, so it is only evicted if it is all there is
+			while(size() > 1 && (size() > maximumSize || weight.get() > maximumWeight)) {
+				evict(probation.size() > 1 ? probation : protectedSegment);
+			}
+			return result;
+		}
+
+		/**
+		 * Evicts the least recently used entry, from probation if it has any.
+		 *
+		 * @return false, if the stripe was empty
+		 */
+		private synchronized boolean evictEldest() {
+			if(size() == 0) {
+				return false;
+			}
+			evict(probation.isEmpty() ? protectedSegment : probation);
+			return true;
+		}
+
+		private void evict(LinkedHashMap<Key, Entry> segment) {
+			Iterator<Entry> eldest = segment.values().iterator();
+			Entry evicted = eldest.next();
+			eldest.remove();
+			weight.addAndGet(-evicted.weight);
+			if(segment == protectedSegment) {
+				weightProtected -= evicted.weight;
+			}
+			evictions.increment();
+		}
+
+		private synchronized void clear() {
+			for(Entry entry : probation.values()) {
+				weight.addAndGet(-entry.weight);
+			}
+			for(Entry entry : protectedSegment.values()) {
+				weight.addAndGet(-entry.weight);
+			}
+			probation.clear();
+			protectedSegment.clear();
+			weightProtected = 0;
+		}
+
+		private synchronized int size() {
+			return probation.size() + protectedSegment.size();
+		}
+	}
+
+}
@@ -0,0 +1,705 @@
+package computation.parser;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import computation.contextfreegrammar.*;
+import computation.parsetree.CompactParseTree;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Every parse tree of a word at once, as a shared packed parse forest read
+ * out of a filled {@link BitsetChart}.
+ * <p>
+ * A node of the forest is a variable together with the span of the word it
+ * generates, and there is only ever one node for each. A node has one or
+ * more packed <i>alternatives</i>, the different ways it can be made: a rule
+ * A → BC and a split point, giving the nodes for B and C, or a rule A → a
+ * for a span of one terminal. Choosing one alternative at every node gives
+ * a parse tree, and every parse tree can be chosen this way.
+ * <p>
+ * An ambiguous grammar can have exponentially many trees for a word, but a
+ * forest has at most one node for each variable and span, and one
+ * alternative for each rule and split point, so it takes at most
+ * O(n²|V|) nodes and O(n³|R|) alternatives. Only the nodes which are
+ * actually part of some parse tree of the whole word are kept, which is
+ * usually far fewer.
+ * <p>
+ * Nodes and alternatives are numbered from 0, with the root as node 0, and
+ * are stored in int arrays. The alternatives of each node are numbered one
+ * after another. A forest is immutable, so it can be shared between threads.
+ * <p>
+ * A forest is also {@link Iterable} over its trees, which are built one at
+ * a time as they are needed (see {@link #iterator()}).
+ */
+public final class ParseForest implements Iterable<ParseTreeNode> {
+
+	/** Returned for the children of an alternative with no variables on its right hand side. */
+	public static final int NONE = -1;
+
+	/** The grammar. */
+	private final CompiledGrammar grammar;
+
+	/** The word. */
+	private final Word word;
+
+	/** The variable id of each node. */
+	private int[] nodeVariable = new int[16];
+
+	/** Where each node's span starts. */
+	private int[] nodeStart = new int[16];
+
+	/** The length of each node's span. */
+	private int[] nodeLength = new int[16];
+
+	/** The first alternative of each node; the alternatives of node i end where those of node i + 1 start. */
+	private int[] firstAlternative = new int[17];
+
+	/** The number of nodes. */
+	private int nodes;
+
+	/** The rule id of each alternative. */
+	private int[] alternativeRule = new int[16];
+
+	/** The node for B of each alternative A → BC, or NONE. */
+	private int[] alternativeLeft = new int[16];
+
+	/** The node for C of each alternative A → BC, or NONE. */
+	private int[] alternativeRight = new int[16];
+
+	/** The number of alternatives. */
+	private int alternatives;
+
+	/** The nodes in order of the length of their spans, so children come before their parents. */
+	private final int[] bottomUp;
+
+	/**
+	 * Reads the forest out of a chart.
+	 *
+	 * @param chart the filled chart, which must accept its word
+	 * @throws IllegalArgumentException if the chart doesn't accept its word
+	 */
+	ParseForest(BitsetChart chart) {
+		if(!chart.isAccepted()) {
+			throw new IllegalArgumentException("There is no forest for a word which is not in the language");
+		}
+		this.grammar = chart.getGrammar();
+		this.word = chart.getWord();
+		int n = word.length();
+		boolean[] duplicate = duplicateRules(grammar);
+
+		if(n == 0) {
+			addNode(grammar.getStartId(), 0, 0, null);
+			firstAlternative[0] = 0;
+			for(int ruleId : grammar.getRulesFor(grammar.getStartId())) {
+				if(grammar.getRuleExpansion(ruleId).length == 0 && !duplicate[ruleId]) {
+					addAlternative(ruleId, NONE, NONE);
+				}
+			}
+		} else {
+			NodeTable table = new NodeTable();
+			addNode(grammar.getStartId(), 0, n, table);
+			// the nodes are expanded in the order they are found, so the
+			// alternatives of each node are added together
+			for(int node = 0; node < nodes; node++) {
+				firstAlternative[node] = alternatives;
+				expand(chart, node, table, duplicate);
+			}
+		}
+		firstAlternative[nodes] = alternatives;
+		this.bottomUp = sortByLength();
+	}
+
+	/**
+	 * Adds the alternatives of a node, making nodes for its children as needed.
+	 */
+	private void expand(BitsetChart chart, int node, NodeTable table, boolean[] duplicate) {
+		int start = nodeStart[node];
+		int length = nodeLength[node];
+		int terminal = length == 1 ? grammar.getTerminalId(word.get(start)) : -1;
+
+		for(int ruleId : grammar.getRulesFor(nodeVariable[node])) {
+			if(duplicate[ruleId]) {
+				continue;
+			}
+			int[] expansion = grammar.getRuleExpansion(ruleId);
+			if(length == 1) {
+				if(expansion.length == 1 && CompiledGrammar.isTerminalCode(expansion[0])
+						&& CompiledGrammar.terminalOfCode(expansion[0]) == terminal) {
+					addAlternative(ruleId, NONE, NONE);
+				}
+				continue;
+			}
+			if(expansion.length != 2 || CompiledGrammar.isTerminalCode(expansion[0]) || CompiledGrammar.isTerminalCode(expansion[1])) {
+				continue;
+			}
+			for(int split = 1; split < length; split++) {
+				if(chart.contains(start, split, expansion[0]) && chart.contains(start + split, length - split, expansion[1])) {
+					int left = addNode(expansion[0], start, split, table);
+					int right = addNode(expansion[1], start + split, length - split, table);
+					addAlternative(ruleId, left, right);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the rules which are exact copies of an earlier rule. They would
+	 * give the same trees again, so they are left out.
+	 */
+	static boolean[] duplicateRules(CompiledGrammar grammar) {
+		boolean[] duplicate = new boolean[grammar.getRuleCount()];
+		for(int v = 0; v < grammar.getVariableCount(); v++) {
+			int[] ruleIds = grammar.getRulesFor(v);
+			for(int i = 0; i < ruleIds.length; i++) {
+				for(int j = 0; j < i && !duplicate[ruleIds[i]]; j++) {
+					duplicate[ruleIds[i]] = Arrays.equals(grammar.getRuleExpansion(ruleIds[i]), grammar.getRuleExpansion(ruleIds[j]));
+				}
+			}
+		}
+		return duplicate;
+	}
+
+	/**
+	 * Gets the node for a variable and span, adding it if it is new.
+	 */
+	private int addNode(int variable, int start, int length, NodeTable table) {
+		if(table != null) {
+			long key = ((long) start * (word.length() + 1) + length) * grammar.getVariableCount() + variable;
+			int existing = table.get(key);
+			if(existing != NONE) {
+				return existing;
+			}
+			table.put(key, nodes);
+		}
+		if(nodes == nodeVariable.length) {
+			int size = nodes * 2;
+			nodeVariable = Arrays.copyOf(nodeVariable, size);
+			nodeStart = Arrays.copyOf(nodeStart, size);
+			nodeLength = Arrays.copyOf(nodeLength, size);
+			firstAlternative = Arrays.copyOf(firstAlternative, size + 1);
+		}
+		nodeVariable[nodes] = variable;
+		nodeStart[nodes] = start;
+		nodeLength[nodes] = length;
+		return nodes++;
+	}
+
+	/**
+	 * Adds an alternative to the node being expanded.
+	 */
+	private void addAlternative(int ruleId, int left, int right) {
+		if(alternatives == alternativeRule.length) {
+			int size = alternatives * 2;
+			alternativeRule = Arrays.copyOf(alternativeRule, size);
+			alternativeLeft = Arrays.copyOf(alternativeLeft, size);
+			alternativeRight = Arrays.copyOf(alternativeRight, size);
+		}
+		alternativeRule[alternatives] = ruleId;
+		alternativeLeft[alternatives] = left;
+		alternativeRight[alternatives] = right;
+		alternatives++;
+	}
+
+	/**
+	 * Sorts the nodes by the length of their spans, by counting.
+	 */
+	private int[] sortByLength() {
+		int[] starts = new int[word.length() + 2];
+		for(int node = 0; node < nodes; node++) {
+			starts[nodeLength[node] + 1]++;
+		}
+		for(int i = 1; i < starts.length; i++) {
+			starts[i] += starts[i - 1];
+		}
+		int[] order = new int[nodes];
+		for(int node = 0; node < nodes; node++) {
+			order[starts[nodeLength[node]]++] = node;
+		}
+		return order;
+	}
+
+	/**
+	 * Gets the grammar the forest is for.
+	 *
+	 * @return the compiled grammar
+	 */
+	public CompiledGrammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Gets the word the forest is for.
+	 *
+	 * @return the word
+	 */
+	public Word getWord() {
+		return word;
+	}
+
+	/**
+	 * Gets the root, the node for the start variable and the whole word.
+	 *
+	 * @return the root node, which is always 0
+	 */
+	public int getRoot() {
+		return 0;
+	}
+
+	/**
+	 * Gets the number of nodes.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of alternatives of all the nodes together.
+	 *
+	 * @return the number of alternatives
+	 */
+	public int getAlternativeCount() {
+		return alternatives;
+	}
+
+	/**
+	 * Gets the variable of a node.
+	 *
+	 * @param node the node
+	 * @return the variable
+	 */
+	public Variable getVariable(int node) {
+		return grammar.getVariable(nodeVariable[node]);
+	}
+
+	/**
+	 * Gets the id of the variable of a node in the {@link CompiledGrammar}.
+	 *
+	 * @param node the node
+	 * @return the variable id
+	 */
+	public int getVariableId(int node) {
+		return nodeVariable[node];
+	}
+
+	/**
+	 * Gets where the span of a node starts.
+	 *
+	 * @param node the node
+	 * @return the index of the first symbol
+	 */
+	public int getStart(int node) {
+		return nodeStart[node];
+	}
+
+	/**
+	 * Gets the length of the span of a node.
+	 *
+	 * @param node the node
+	 * @return the number of symbols
+	 */
+	public int getLength(int node) {
+		return nodeLength[node];
+	}
+
+	/**
+	 * Gets the first alternative of a node. Its alternatives are numbered
+	 * from here to {@code getFirstAlternative(node) + getAlternativeCount(node) - 1}.
+	 *
+	 * @param node the node
+	 * @return the first alternative
+	 */
+	public int getFirstAlternative(int node) {
+		return firstAlternative[node];
+	}
+
+	/**
+	 * Gets the number of alternatives of a node, which is always at least 1.
+	 * A node with more than one is where the grammar is ambiguous.
+	 *
+	 * @param node the node
+	 * @return the number of alternatives
+	 */
+	public int getAlternativeCount(int node) {
+		return firstAlternative[node + 1] - firstAlternative[node];
+	}
+
+	/**
+	 * Gets the rule of an alternative.
+	 *
+	 * @param alternative the alternative
+	 * @return the rule
+	 */
+	public Rule getRule(int alternative) {
+		return grammar.getRule(alternativeRule[alternative]);
+	}
+
+	/**
+	 * Gets the id of the rule of an alternative in the {@link CompiledGrammar}.
+	 *
+	 * @param alternative the alternative
+	 * @return the rule id
+	 */
+	public int getRuleId(int alternative) {
+		return alternativeRule[alternative];
+	}
+
+	/**
+	 * Gets the left child of an alternative A → BC, the node for B.
+	 *
+	 * @param alternative the alternative
+	 * @return the node, or {@link #NONE} for A → a and S → ε
+	 */
+	public int getLeft(int alternative) {
+		return alternativeLeft[alternative];
+	}
+
+	/**
+	 * Gets the right child of an alternative A → BC, the node for C.
+	 *
+	 * @param alternative the alternative
+	 * @return the node, or {@link #NONE} for A → a and S → ε
+	 */
+	public int getRight(int alternative) {
+		return alternativeRight[alternative];
+	}
+
+	/**
+	 * Checks whether the word has more than one parse tree.
+	 *
+	 * @return true, if some node has more than one alternative
+	 */
+	public boolean isAmbiguous() {
+		return alternatives > nodes;
+	}
+
+	/**
+	 * Calls the given action on every node, children before their parents,
+	 * so that anything worked out from the children of a node is ready when
+	 * the node itself is reached.
+	 *
+	 * @param action what to do with each node
+	 */
+	public void forEachNode(IntConsumer action) {
+		for(int node : bottomUp) {
+			action.accept(node);
+		}
+	}
+
+	/**
+	 * Counts the parse trees of the word, without making any of them. This
+	 * takes one pass over the forest.
+	 *
+	 * @return the number of parse trees, which is at least 1
+	 */
+	public BigInteger countTrees() {
+		BigInteger[] counts = new BigInteger[nodes];
+		for(int node : bottomUp) {
+			BigInteger count = BigInteger.ZERO;
+			for(int a = firstAlternative[node]; a < firstAlternative[node + 1]; a++) {
+				if(alternativeLeft[a] == NONE) {
+					count = count.add(BigInteger.ONE);
+				} else {
+					count = count.add(counts[alternativeLeft[a]].multiply(counts[alternativeRight[a]]));
+				}
+			}
+			counts[node] = count;
+		}
+		return counts[getRoot()];
+	}
+
+	/**
+	 * Builds the parse tree which takes the first alternative at every node.
+	 * This is the same tree as {@link BitsetChart#buildTree()} gives.
+	 *
+	 * @return the parse tree
+	 */
+	public ParseTreeNode buildTree() {
+		return buildCompactTree(new int[nodes]).asParseTreeNode();
+	}
+
+	/**
+	 * Builds the parse tree which takes the given alternative at every node.
+	 *
+	 * @param choices for each node, which of its alternatives to take,
+	 * counting from 0; only the nodes in the tree are looked at
+	 * @return the parse tree
+	 * @throws IllegalArgumentException if a choice is out of range
+	 */
+	public ParseTreeNode buildTree(int[] choices) {
+		if(choices.length != nodes) {
+			throw new IllegalArgumentException("Expected a choice for each of the " + nodes + " nodes");
+		}
+		return buildCompactTree(choices).asParseTreeNode();
+	}
+
+	/**
+	 * Goes through every parse tree of the word, one at a time. Each tree is
+	 * only built when it is asked for, and getting the next one takes time
+	 * in proportion to the size of the tree, however many trees there are
+	 * in all. The first tree is the one {@link #buildTree()} gives.
+	 * <p>
+	 * The trees come in a fixed order: the choices of alternative made at
+	 * the nodes of a tree, read in pre-order, count up like the digits of a
+	 * number, with the last node changing fastest.
+	 *
+	 * @return an iterator over the trees, which can't remove them
+	 */
+	@Override
+	public Iterator<ParseTreeNode> iterator() {
+		return new TreeIterator();
+	}
+
+	/**
+	 * Streams every parse tree of the word, see {@link #iterator()}. The
+	 * stream is lazy, so {@code trees().limit(k)} only builds k trees.
+	 *
+	 * @return a sequential stream of the trees
+	 */
+	public Stream<ParseTreeNode> trees() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+				Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+	}
+
+	/**
+	 * Builds a parse tree bottom up, with an explicit stack since a tree can
+	 * be as deep as the word is long.
+	 */
+	CompactParseTree buildCompactTree(int[] choices) {
+		Variable root = getVariable(getRoot());
+		if(word.length() == 0) {
+			CompactParseTree tree = new CompactParseTree(2);
+			tree.addNode(root, tree.addEmpty(0));
+			return tree;
+		}
+		CompactParseTree tree = new CompactParseTree(3 * word.length() - 1);
+		// a node is pushed as -(node + 1) once its children have been pushed
+		Deque<Integer> stack = new ArrayDeque<>();
+		int[] built = new int[word.length()];
+		int top = 0;
+		stack.push(getRoot());
+
+		while(!stack.isEmpty()) {
+			int node = stack.pop();
+			if(node < 0) {
+				node = -node - 1;
+				int right = built[--top];
+				int left = built[--top];
+				built[top++] = tree.addNode(getVariable(node), left, right);
+				continue;
+			}
+			int alternative = choose(node, choices[node]);
+			if(alternativeLeft[alternative] == NONE) {
+				int start = nodeStart[node];
+				built[top++] = tree.addNode(getVariable(node), tree.addLeaf(word.get(start), start));
+				continue;
+			}
+			stack.push(-node - 1);
+			stack.push(alternativeRight[alternative]);
+			stack.push(alternativeLeft[alternative]);
+		}
+		return tree;
+	}
+
+	/**
+	 * The alternative a choice picks for a node.
+	 */
+	private int choose(int node, int choice) {
+		if(choice < 0 || choice >= getAlternativeCount(node)) {
+			throw new IllegalArgumentException("Node " + node + " has no alternative " + choice);
+		}
+		return firstAlternative[node] + choice;
+	}
+
+	/**
+	 * Goes through the trees by keeping the nodes of the current tree in
+	 * pre-order, with the alternative taken at each in {@link #choices}. In a
+	 * grammar in Chomsky normal form a node can't be inside itself, so it is
+	 * in a tree at most once and one choice for each node is enough.
+	 * <p>
+	 * The next tree takes the next alternative at the last node in pre-order
+	 * which has one, and the first alternative everywhere after that. The
+	 * nodes after it are either below it, which change with its alternative,
+	 * or were all on their last alternative, so they start again.
+	 */
+	private class TreeIterator implements Iterator<ParseTreeNode> {
+
+		/** The alternative taken at each node of the current tree, counting from 0. */
+		private final int[] choices = new int[nodes];
+
+		/** The nodes of the current tree in pre-order. */
+		private final int[] order;
+
+		/** The number of nodes in the current tree. */
+		private int size;
+
+		/** The nodes still to be visited when filling in the rest of a tree. */
+		private final int[] stack;
+
+		/** Whether {@link #choices} is a tree which hasn't been returned yet. */
+		private boolean ready = true;
+
+		/** Whether every tree has been returned. */
+		private boolean finished;
+
+		private TreeIterator() {
+			this.order = new int[Math.max(1, 2 * word.length() - 1)];
+			this.stack = new int[word.length() + 2];
+			stack[0] = getRoot();
+			complete(1);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(!ready && !finished) {
+				ready = advance();
+				finished = !ready;
+			}
+			return ready;
+		}
+
+		@Override
+		public ParseTreeNode next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ready = false;
+			return buildCompactTree(choices).asParseTreeNode();
+		}
+
+		/**
+		 * Moves on to the next tree.
+		 *
+		 * @return false, if there are no more
+		 */
+		private boolean advance() {
+			for(int i = size - 1; i >= 0; i--) {
+				int node = order[i];
+				if(choices[node] + 1 < getAlternativeCount(node)) {
+					choices[node]++;
+					// visit the nodes up to this one again to find the ones still to
+					// be visited after it, then take the first alternative for those
+					int top = 0;
+					stack[top++] = getRoot();
+					for(int p = 0; p <= i; p++) {
+						top = push(stack[--top], top);
+					}
+					size = i + 1;
+					complete(top);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Visits the nodes on the stack in pre-order, taking the first
+		 * alternative at each, and adds them to the current tree.
+		 */
+		private void complete(int top) {
+			while(top > 0) {
+				int node = stack[--top];
+				choices[node] = 0;
+				order[size++] = node;
+				top = push(node, top);
+			}
+		}
+
+		/**
+		 * Pushes the children of a node under its chosen alternative, so
+		 * that the left one comes off first.
+		 *
+		 * @return the new top of the stack
+		 */
+		private int push(int node, int top) {
+			int alternative = firstAlternative[node] + choices[node];
+			if(alternativeLeft[alternative] != NONE) {
+				stack[top++] = alternativeRight[alternative];
+				stack[top++] = alternativeLeft[alternative];
+			}
+			return top;
+		}
+	}
+
+	/**
+	 * Describes the size of the forest, e.g. {@code 57 nodes, 60 alternatives, word of length 12}.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return nodes + " nodes, " + alternatives + " alternatives, word of length " + word.length();
+	}
+
+	/**
+	 * An open addressing hash map from node keys to nodes. Keys are stored
+	 * plus one, so that 0 means an empty slot.
+	 */
+	private static class NodeTable {
+
+		private long[] keys = new long[64];
+		private int[] values = new int[64];
+		private int size;
+
+		int get(long key) {
+			long stored = key + 1;
+			int mask = keys.length - 1;
+			for(int i = mix(stored) & mask; keys[i] != 0; i = (i + 1) & mask) {
+				if(keys[i] == stored) {
+					return values[i];
+				}
+			}
+			return NONE;
+		}
+
+		void put(long key, int value) {
+			if(2 * (size + 1) > keys.length) {
+				grow();
+			}
+			long stored = key + 1;
+			int mask = keys.length - 1;
+			int i = mix(stored) & mask;
+			while(keys[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = stored;
+			values[i] = value;
+			size++;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for(int j = 0; j < oldKeys.length; j++) {
+				if(oldKeys[j] != 0) {
+					int i = mix(oldKeys[j]) & mask;
+					while(keys[i] != 0) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = oldKeys[j];
+					values[i] = oldValues[j];
+				}
+			}
+		}
+
+		private static int mix(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+}
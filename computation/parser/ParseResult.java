@@ -0,0 +1,168 @@
+package computation.parser;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * The answer from one run of a parser on one word: whether the word is in
+ * the language, a parse tree if it is, and some statistics about how much
+ * work the parser did.
+ * <p>
+ * A result is immutable and can be shared between threads. Building the
+ * parse tree can cost as much as the parse itself, and most callers only
+ * want the yes or no answer, so the tree is only built the first time
+ * {@link #getTree()} is called, and the same tree is returned every time
+ * after that.
+ * <p>
+ * The statistics are engine specific counters, such as the number of items
+ * an Earley parser made, in the order the parser reported them. They are
+ * meant for people to read, so they are not part of the answer and no
+ * program should depend on particular names being there.
+ */
+public final class ParseResult {
+
+	/** Whether the word is in the language. */
+	private final boolean accepted;
+
+	/**
+	 * Builds the parse tree, or null once it has been built (or if there is
+	 * none). It is volatile, like the tree, so a result handed to another
+	 * thread without any synchronization still has one or the other.
+	 */
+	private volatile Supplier<ParseTreeNode> treeBuilder;
+
+	/** The parse tree, once it has been built. */
+	private volatile ParseTreeNode tree;
+
+	/** The counters reported by the parser. */
+	private final Map<String, Long> statistics;
+
+	/** How long the parse took, in nanoseconds. */
+	private final long elapsedNanos;
+
+	private ParseResult(boolean accepted, Supplier<ParseTreeNode> treeBuilder, ParseTreeNode tree,
+			Map<String, Long> statistics, long elapsedNanos) {
+		this.accepted = accepted;
+		this.tree = tree;
+		this.treeBuilder = treeBuilder;
+		this.statistics = Collections.unmodifiableMap(new LinkedHashMap<>(statistics));
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Makes the result for a word which is in the language.
+	 * <p>
+	 * Until {@link #getTree()} is first called, the result keeps everything
+	 * the builder refers to reachable, which is usually the parser's whole
+	 * chart: O(n²) cells or more for a word of n symbols, against O(n) nodes
+	 * for the tree. Code which keeps many results, such as a batch from
+	 * {@link IParser#parseAll(computation.contextfreegrammar.ContextFreeGrammar, java.util.Collection)},
+	 * should either call {@link #getTree()} on the accepted ones, which lets
+	 * the chart go, or keep only what it needs from them. {@link ParseCache}
+	 * builds the tree of every result it stores for this reason.
+	 *
+	 * @param treeBuilder builds the parse tree; it is called at most once, and
+	 * must not depend on anything which might change after the parse
+	 * @param statistics the parser's counters, which are copied
+	 * @param elapsedNanos how long the parse took, in nanoseconds
+	 * @return the result
+	 */
+	public static ParseResult accepted(Supplier<ParseTreeNode> treeBuilder, Map<String, Long> statistics,
+			long elapsedNanos) {
+		if(treeBuilder == null) {
+			throw new NullPointerException("An accepted word needs a way to build its tree");
+		}
+		return new ParseResult(true, treeBuilder, null, statistics, elapsedNanos);
+	}
+
+	/**
+	 * Makes the result for a word which is in the language, whose parse tree
+	 * has already been built.
+	 *
+	 * @param tree the parse tree
+	 * @param statistics the parser's counters, which are copied
+	 * @param elapsedNanos how long the parse took, in nanoseconds
+	 * @return the result
+	 */
+	public static ParseResult accepted(ParseTreeNode tree, Map<String, Long> statistics, long elapsedNanos) {
+		if(tree == null) {
+			throw new NullPointerException("An accepted word needs a tree");
+		}
+		return new ParseResult(true, null, tree, statistics, elapsedNanos);
+	}
+
+	/**
+	 * Makes the result for a word which is not in the language.
+	 *
+	 * @param statistics the parser's counters, which are copied
+	 * @param elapsedNanos how long the parse took, in nanoseconds
+	 * @return the result
+	 */
+	public static ParseResult rejected(Map<String, Long> statistics, long elapsedNanos) {
+		return new ParseResult(false, null, null, statistics, elapsedNanos);
+	}
+
+	/**
+	 * Checks if the word is in the language.
+	 *
+	 * @return true, if the word is generated by the grammar
+	 */
+	public boolean isAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Gets the parse tree, building it if this is the first time it has been asked for.
+	 * If several threads ask at once, only one of them builds it.
+	 *
+	 * @return the root of the parse tree, or null if the word is not in the language
+	 */
+	public ParseTreeNode getTree() {
+		ParseTreeNode result = tree;
+		if(result == null && accepted) {
+			synchronized(this) {
+				result = tree;
+				if(result == null) {
+					result = treeBuilder.get();
+					tree = result;
+					// let the parser's chart be garbage collected
+					treeBuilder = null;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the counters reported by the parser, in the order it reported them.
+	 *
+	 * @return an unmodifiable map from counter names to values
+	 */
+	public Map<String, Long> getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets how long the parse took. This does not include building the tree.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Produces a one-line summary, e.g. {@code accepted in 1.25 ms {items=120, sets=8}}.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s in %.2f ms %s", accepted ? "accepted" : "rejected", elapsedNanos / 1e6, statistics);
+	}
+
+}
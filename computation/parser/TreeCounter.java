@@ -0,0 +1,309 @@
+package computation.parser;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import computation.contextfreegrammar.*;
+
+/**
+ * Counts the parse trees of a word from a filled {@link BitsetChart},
+ * without making any trees or a {@link ParseForest}.
+ * <p>
+ * This is the CYK algorithm again with numbers instead of bits: the count
+ * for a variable A and a span is the sum, over every rule A → BC and split
+ * point, of the count for B on the left part times the count for C on the
+ * right part. The chart says which variables are in each cell, so a count
+ * is only kept for those, and the loops are the same as the ones which
+ * filled the chart. Counting therefore takes the same O(n³) time as
+ * recognising the word did, with a few times the constant: a multiply and a
+ * lookup for each pair of variables instead of an OR.
+ * <p>
+ * The number of trees can grow exponentially with the length of the word,
+ * so there are three ways to count:
+ * <ul>
+ * <li>{@link #count()} is exact. It counts with longs, and only starts again
+ * with BigIntegers if a count doesn't fit in a long.</li>
+ * <li>{@link #countExact()} counts with longs and throws an exception if a
+ * count doesn't fit.</li>
+ * <li>{@link #countModulo(long)} counts modulo a number, which never
+ * overflows. Counting modulo a large prime is a quick check for ambiguity
+ * on a whole corpus, since a count of 1 almost always means one tree.</li>
+ * </ul>
+ * Rules which are exact copies of an earlier rule are left out, so every
+ * tree is counted once however the grammar was written.
+ */
+public final class TreeCounter {
+
+	/** The largest modulus {@link #countModulo(long)} takes, so that the product of two counts fits in a long. */
+	public static final long MAX_MODULUS = 3037000499L;
+
+	private final BitsetChart chart;
+	private final CompiledGrammar grammar;
+	private final Word word;
+	private final int words;
+
+	/** For each variable B, the variables C with a rule A → BC. */
+	private final int[][] pairRights;
+
+	/** For each variable B, the A of the rule A → BC for each C in {@link #pairRights}. */
+	private final int[][] pairParents;
+
+	/**
+	 * For each start index, where the counts for the cell of each length
+	 * start in the row of counts. Cell (start, length) has one count for
+	 * each variable in it, in order of id.
+	 */
+	private final int[][] offsets;
+
+	/**
+	 * Sets up counting for a filled chart.
+	 *
+	 * @param chart the chart
+	 */
+	public TreeCounter(BitsetChart chart) {
+		this.chart = chart;
+		this.grammar = chart.getGrammar();
+		this.word = chart.getWord();
+		this.words = chart.getWords();
+
+		boolean[] duplicate = ParseForest.duplicateRules(grammar);
+		int variables = grammar.getVariableCount();
+		int[] pairCounts = new int[variables];
+		for(int r = 0; r < grammar.getRuleCount(); r++) {
+			if(!duplicate[r] && isBinary(grammar.getRuleExpansion(r))) {
+				pairCounts[grammar.getRuleExpansion(r)[0]]++;
+			}
+		}
+		this.pairRights = new int[variables][];
+		this.pairParents = new int[variables][];
+		for(int b = 0; b < variables; b++) {
+			pairRights[b] = new int[pairCounts[b]];
+			pairParents[b] = new int[pairCounts[b]];
+		}
+		Arrays.fill(pairCounts, 0);
+		for(int r = 0; r < grammar.getRuleCount(); r++) {
+			int[] expansion = grammar.getRuleExpansion(r);
+			if(!duplicate[r] && isBinary(expansion)) {
+				int b = expansion[0];
+				pairRights[b][pairCounts[b]] = expansion[1];
+				pairParents[b][pairCounts[b]++] = grammar.getRuleVariable(r);
+			}
+		}
+
+		int n = word.length();
+		this.offsets = new int[n][];
+		for(int start = 0; start < n; start++) {
+			long[] row = chart.getRow(start);
+			int[] offset = new int[n - start + 1];
+			for(int length = 1; length <= n - start; length++) {
+				int bits = 0;
+				for(int i = (length - 1) * words; i < length * words; i++) {
+					bits += Long.bitCount(row[i]);
+				}
+				offset[length] = offset[length - 1] + bits;
+			}
+			offsets[start] = offset;
+		}
+	}
+
+	/**
+	 * Counts the parse trees exactly.
+	 *
+	 * @return the number of parse trees, which is 0 if the word is not in the language
+	 */
+	public BigInteger count() {
+		try {
+			return BigInteger.valueOf(countExact());
+		} catch(ArithmeticException e) {
+			return countBig();
+		}
+	}
+
+	/**
+	 * Counts the parse trees with long arithmetic.
+	 *
+	 * @return the number of parse trees, which is 0 if the word is not in the language
+	 * @throws ArithmeticException if a count doesn't fit in a long
+	 */
+	public long countExact() {
+		return countLong(0);
+	}
+
+	/**
+	 * Counts the parse trees modulo a number.
+	 *
+	 * @param modulus the modulus, from 1 to {@link #MAX_MODULUS}
+	 * @return the number of parse trees modulo the modulus
+	 * @throws IllegalArgumentException if the modulus is out of range
+	 */
+	public long countModulo(long modulus) {
+		if(modulus < 1 || modulus > MAX_MODULUS) {
+			throw new IllegalArgumentException("The modulus must be from 1 to " + MAX_MODULUS);
+		}
+		return countLong(modulus);
+	}
+
+	/**
+	 * Counts with longs, modulo the modulus, or exactly if it is 0.
+	 */
+	private long countLong(long modulus) {
+		int n = word.length();
+		if(n == 0) {
+			long count = grammar.derivesEmptyWord() ? 1 : 0;
+			return modulus == 0 ? count : count % modulus;
+		}
+		long one = modulus == 1 ? 0 : 1;
+		long[][] counts = new long[n][];
+		for(int start = 0; start < n; start++) {
+			counts[start] = new long[offsets[start][n - start]];
+			int terminal = grammar.getTerminalId(word.get(start));
+			if(terminal >= 0) {
+				for(int a : grammar.getTerminalProducers(terminal)) {
+					counts[start][rank(start, 1, a)] = one;
+				}
+			}
+		}
+
+		for(int length = 2; length <= n; length++) {
+			for(int start = 0; start + length <= n; start++) {
+				if(offsets[start][length] == offsets[start][length - 1]) {
+					continue;
+				}
+				long[] row = counts[start];
+				long[] cells = chart.getRow(start);
+				int cell = (length - 1) * words;
+				int base = offsets[start][length - 1];
+				for(int split = 1; split < length; split++) {
+					long[] rightCells = chart.getRow(start + split);
+					int left = (split - 1) * words;
+					int right = (length - split - 1) * words;
+					int leftBase = offsets[start][split - 1];
+					int rightBase = offsets[start + split][length - split - 1];
+					long[] rightCounts = counts[start + split];
+
+					for(int i = 0; i < words; i++) {
+						long bits = cells[left + i];
+						while(bits != 0) {
+							int b = (i << 6) + Long.numberOfTrailingZeros(bits);
+							bits &= bits - 1;
+							int[] cs = pairRights[b];
+							if(cs.length == 0) {
+								continue;
+							}
+							long leftCount = row[rank(cells, left, leftBase, b)];
+							int[] parents = pairParents[b];
+							for(int j = 0; j < cs.length; j++) {
+								int c = cs[j];
+								if((rightCells[right + (c >>> 6)] & (1L << c)) == 0) {
+									continue;
+								}
+								long rightCount = rightCounts[rank(rightCells, right, rightBase, c)];
+								int at = rank(cells, cell, base, parents[j]);
+								if(modulus == 0) {
+									row[at] = Math.addExact(row[at], Math.multiplyExact(leftCount, rightCount));
+								} else {
+									// both are below the modulus, so one remainder and a subtraction is enough
+									long sum = row[at] + leftCount * rightCount % modulus;
+									row[at] = sum >= modulus ? sum - modulus : sum;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		return chart.isAccepted() ? counts[0][rank(0, n, grammar.getStartId())] : 0;
+	}
+
+	/**
+	 * Counts with BigIntegers, in the same way as {@link #countLong(long)}.
+	 */
+	private BigInteger countBig() {
+		int n = word.length();
+		BigInteger[][] counts = new BigInteger[n][];
+		for(int start = 0; start < n; start++) {
+			counts[start] = new BigInteger[offsets[start][n - start]];
+			Arrays.fill(counts[start], BigInteger.ZERO);
+			int terminal = grammar.getTerminalId(word.get(start));
+			if(terminal >= 0) {
+				for(int a : grammar.getTerminalProducers(terminal)) {
+					counts[start][rank(start, 1, a)] = BigInteger.ONE;
+				}
+			}
+		}
+
+		for(int length = 2; length <= n; length++) {
+			for(int start = 0; start + length <= n; start++) {
+				if(offsets[start][length] == offsets[start][length - 1]) {
+					continue;
+				}
+				BigInteger[] row = counts[start];
+				long[] cells = chart.getRow(start);
+				int cell = (length - 1) * words;
+				int base = offsets[start][length - 1];
+				for(int split = 1; split < length; split++) {
+					long[] rightCells = chart.getRow(start + split);
+					int left = (split - 1) * words;
+					int right = (length - split - 1) * words;
+					int leftBase = offsets[start][split - 1];
+					int rightBase = offsets[start + split][length - split - 1];
+					BigInteger[] rightCounts = counts[start + split];
+
+					for(int i = 0; i < words; i++) {
+						long bits = cells[left + i];
+						while(bits != 0) {
+							int b = (i << 6) + Long.numberOfTrailingZeros(bits);
+							bits &= bits - 1;
+							int[] cs = pairRights[b];
+							if(cs.length == 0) {
+								continue;
+							}
+							BigInteger leftCount = row[rank(cells, left, leftBase, b)];
+							int[] parents = pairParents[b];
+							for(int j = 0; j < cs.length; j++) {
+								int c = cs[j];
+								if((rightCells[right + (c >>> 6)] & (1L << c)) == 0) {
+									continue;
+								}
+								BigInteger rightCount = rightCounts[rank(rightCells, right, rightBase, c)];
+								int at = rank(cells, cell, base, parents[j]);
+								row[at] = row[at].add(leftCount.multiply(rightCount));
+							}
+						}
+					}
+				}
+			}
+		}
+		return chart.isAccepted() ? counts[0][rank(0, n, grammar.getStartId())] : BigInteger.ZERO;
+	}
+
+	/**
+	 * Where the count for a variable in a cell is in the row of counts: the
+	 * offset of the cell plus the number of variables in the cell before it.
+	 * The variable must be in the cell.
+	 */
+	private int rank(int start, int length, int variable) {
+		return rank(chart.getRow(start), (length - 1) * words, offsets[start][length - 1], variable);
+	}
+
+	/**
+	 * The same as {@link #rank(int, int, int)}, for a cell at the given index
+	 * of a row of the chart whose counts start at the given offset.
+	 */
+	private int rank(long[] cells, int cell, int offset, int variable) {
+		int index = variable >>> 6;
+		int rank = offset;
+		for(int i = 0; i < index; i++) {
+			rank += Long.bitCount(cells[cell + i]);
+		}
+		return rank + Long.bitCount(cells[cell + index] & ((1L << variable) - 1));
+	}
+
+	/**
+	 * Checks for a right hand side of two variables.
+	 */
+	private static boolean isBinary(int[] expansion) {
+		return expansion.length == 2 && !CompiledGrammar.isTerminalCode(expansion[0]) && !CompiledGrammar.isTerminalCode(expansion[1]);
+	}
+
+}
@@ -0,0 +1,484 @@
+package computation.parsetree;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import computation.contextfreegrammar.Symbol;
+import computation.contextfreegrammar.Variable;
+
+/**
+ * A parse tree stored as a handful of int arrays rather than as objects.
+ * <p>
+ * A {@link ParseTreeNode} costs a node, a list and the list's array, so a
+ * tree for a word of 100000 symbols is a few hundred thousand objects and
+ * tens of megabytes. Here each node is just an index, and its symbol, first
+ * child, next sibling and the span of the word below it are entries in
+ * parallel arrays, which comes to 20 bytes a node and no work for the
+ * garbage collector beyond the arrays themselves.
+ * <p>
+ * Trees are built bottom up: add the leaves with {@link #addLeaf(Symbol, int)},
+ * then each variable with {@link #addNode(Symbol, int...)} once all its
+ * children have been added. The last node added is the root. For example the
+ * tree for 01 in {@code simpleCNF()} is
+ * <blockquote><pre>
+ * CompactParseTree tree = new CompactParseTree();
+ * int z = tree.addNode(Z, tree.addLeaf(zero, 0));
+ * int y = tree.addNode(Y, tree.addLeaf(one, 1));
+ * tree.addNode(A0, z, y);
+ * </pre></blockquote>
+ * <p>
+ * Code which works with {@link ParseTreeNode}s can use {@link #asParseTreeNode()},
+ * a view which makes small node objects as it is walked and throws them
+ * away again, or {@link #toParseTreeNode()} for an ordinary copy.
+ * <p>
+ * A tree is not thread-safe while it is being built. Once built it can be
+ * shared, as long as nothing more is added.
+ */
+public final class CompactParseTree {
+
+	/** Returned when a node has no first child or no next sibling. */
+	public static final int NONE = -1;
+
+	/** The symbols in this tree, indexed by their id in {@link #symbol}. */
+	private Symbol[] symbols = new Symbol[16];
+
+	/** The ids of the symbols, for adding nodes. */
+	private final Map<Symbol, Integer> symbolIds = new HashMap<>();
+
+	/** The id of the symbol of each node, or -1 for ε. */
+	private int[] symbol;
+
+	/** The leftmost child of each node, or {@link #NONE}. */
+	private int[] firstChild;
+
+	/** The next child of each node's parent, or {@link #NONE}. */
+	private int[] nextSibling;
+
+	/** The index in the word where each node's span starts. */
+	private int[] start;
+
+	/** The index in the word just after each node's span. */
+	private int[] end;
+
+	/** The number of nodes. */
+	private int size;
+
+	/**
+	 * Instantiates a new empty tree.
+	 */
+	public CompactParseTree() {
+		this(16);
+	}
+
+	/**
+	 * Instantiates a new empty tree with room for the given number of nodes.
+	 * A CNF tree for a word of length n has 3n - 1 nodes.
+	 *
+	 * @param capacity the expected number of nodes
+	 */
+	public CompactParseTree(int capacity) {
+		int length = Math.max(1, capacity);
+		symbol = new int[length];
+		firstChild = new int[length];
+		nextSibling = new int[length];
+		start = new int[length];
+		end = new int[length];
+	}
+
+	/**
+	 * Copies an ordinary parse tree.
+	 *
+	 * @param tree the root of the tree
+	 * @return the compact tree
+	 */
+	public static CompactParseTree of(ParseTreeNode tree) {
+		CompactParseTree result = new CompactParseTree();
+		result.addTree(tree, 0);
+		return result;
+	}
+
+	/**
+	 * Adds a node with no children, such as a terminal, covering the symbol
+	 * of the word at the given index.
+	 *
+	 * @param symbol the symbol
+	 * @param position the index of the symbol in the word
+	 * @return the new node
+	 */
+	public int addLeaf(Symbol symbol, int position) {
+		return add(idOf(symbol), position, position + 1);
+	}
+
+	/**
+	 * Adds an ε node, the only child of a variable which generates the empty
+	 * word (see {@link ParseTreeNode#emptyParseTree(Variable)}).
+	 *
+	 * @param position the index in the word where the empty word is
+	 * @return the new node
+	 */
+	public int addEmpty(int position) {
+		return add(-1, position, position);
+	}
+
+	/**
+	 * Adds a node above nodes which have already been added, and which don't
+	 * have a parent yet. The node spans from the start of its first child to
+	 * the end of its last.
+	 *
+	 * @param symbol the symbol, usually a variable
+	 * @param children the children, from left to right
+	 * @return the new node
+	 * @throws IllegalArgumentException if there are no children, or a child hasn't been added
+	 */
+	public int addNode(Symbol symbol, int... children) {
+		return addNode(symbol, children, children.length);
+	}
+
+	/**
+	 * Adds a node above the first few nodes of an array, see
+	 * {@link #addNode(Symbol, int...)}.
+	 *
+	 * @param symbol the symbol, usually a variable
+	 * @param children an array starting with the children, from left to right
+	 * @param count how many children there are
+	 * @return the new node
+	 * @throws IllegalArgumentException if there are no children, or a child hasn't been added
+	 */
+	public int addNode(Symbol symbol, int[] children, int count) {
+		if(count < 1) {
+			throw new IllegalArgumentException("A node needs at least one child, use addLeaf for leaves");
+		}
+		for(int i = 0; i < count; i++) {
+			if(children[i] < 0 || children[i] >= size) {
+				throw new IllegalArgumentException("Node " + children[i] + " has not been added");
+			}
+		}
+		int node = add(idOf(symbol), start[children[0]], end[children[count - 1]]);
+		firstChild[node] = children[0];
+		for(int i = 1; i < count; i++) {
+			nextSibling[children[i - 1]] = children[i];
+		}
+		return node;
+	}
+
+	/**
+	 * Copies an ordinary parse tree into this one, e.g. a ready made subtree
+	 * for a variable which generates the empty word.
+	 *
+	 * @param tree the root of the tree to copy
+	 * @param position the index in the word where the tree's span starts
+	 * @return the new node for the root
+	 */
+	public int addTree(ParseTreeNode tree, int position) {
+		// post order, with an explicit stack since trees can be very deep;
+		// each entry is a node and how many of its children are done
+		Deque<ParseTreeNode> stack = new ArrayDeque<>();
+		Deque<int[]> done = new ArrayDeque<>();
+		Deque<Integer> built = new ArrayDeque<>();
+		int at = position;
+		stack.push(tree);
+		done.push(new int[1]);
+		while(!stack.isEmpty()) {
+			ParseTreeNode node = stack.peek();
+			List<ParseTreeNode> children = node.childList();
+			int[] count = done.peek();
+			if(count[0] < children.size()) {
+				stack.push(children.get(count[0]++));
+				done.push(new int[1]);
+				continue;
+			}
+			stack.pop();
+			done.pop();
+			int added;
+			if(children.isEmpty()) {
+				added = node.getSymbol() == null ? addEmpty(at) : addLeaf(node.getSymbol(), at++);
+			} else {
+				int[] ids = new int[children.size()];
+				for(int i = ids.length - 1; i >= 0; i--) {
+					ids[i] = built.pop();
+				}
+				added = addNode(node.getSymbol(), ids);
+			}
+			built.push(added);
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Shrinks the arrays to fit the nodes added so far, for a tree which is
+	 * finished and will be kept for a while.
+	 */
+	public void trimToSize() {
+		int length = Math.max(1, size);
+		if(length < symbol.length) {
+			symbol = Arrays.copyOf(symbol, length);
+			firstChild = Arrays.copyOf(firstChild, length);
+			nextSibling = Arrays.copyOf(nextSibling, length);
+			start = Arrays.copyOf(start, length);
+			end = Arrays.copyOf(end, length);
+		}
+	}
+
+	/**
+	 * Gets the number of nodes.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the root, which is the last node added.
+	 *
+	 * @return the root node, or {@link #NONE} if the tree is empty
+	 */
+	public int getRoot() {
+		return size - 1;
+	}
+
+	/**
+	 * Gets the symbol of a node.
+	 *
+	 * @param node the node
+	 * @return the symbol, or null for ε
+	 */
+	public Symbol getSymbol(int node) {
+		int id = symbol[check(node)];
+		return id < 0 ? null : symbols[id];
+	}
+
+	/**
+	 * Gets the leftmost child of a node.
+	 *
+	 * @param node the node
+	 * @return the child, or {@link #NONE} for a leaf
+	 */
+	public int getFirstChild(int node) {
+		return firstChild[check(node)];
+	}
+
+	/**
+	 * Gets the child to the right of a node, under the same parent.
+	 *
+	 * @param node the node
+	 * @return the sibling, or {@link #NONE} for the last child or the root
+	 */
+	public int getNextSibling(int node) {
+		return nextSibling[check(node)];
+	}
+
+	/**
+	 * Gets the number of children of a node.
+	 *
+	 * @param node the node
+	 * @return the number of children
+	 */
+	public int getChildCount(int node) {
+		int count = 0;
+		for(int child = firstChild[check(node)]; child != NONE; child = nextSibling[child]) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Gets where the part of the word below a node starts.
+	 *
+	 * @param node the node
+	 * @return the index of the first symbol
+	 */
+	public int getStart(int node) {
+		return start[check(node)];
+	}
+
+	/**
+	 * Gets where the part of the word below a node ends.
+	 *
+	 * @param node the node
+	 * @return the index just after the last symbol
+	 */
+	public int getEnd(int node) {
+		return end[check(node)];
+	}
+
+	/**
+	 * Gets a view of the whole tree as a {@link ParseTreeNode}. The view
+	 * makes node objects as they are asked for, so walking it allocates a
+	 * little, but holding it costs nothing beyond this tree.
+	 *
+	 * @return a view of the root
+	 * @throws IllegalStateException if the tree is empty
+	 */
+	public ParseTreeNode asParseTreeNode() {
+		if(size == 0) {
+			throw new IllegalStateException("The tree is empty");
+		}
+		return view(getRoot());
+	}
+
+	/**
+	 * Gets a view of the subtree below a node, see {@link #asParseTreeNode()}.
+	 *
+	 * @param node the node
+	 * @return a view of the node
+	 */
+	public ParseTreeNode view(int node) {
+		return new View(check(node));
+	}
+
+	/**
+	 * Copies the tree into ordinary {@link ParseTreeNode}s.
+	 *
+	 * @return the root of the copy
+	 * @throws IllegalStateException if the tree is empty
+	 */
+	public ParseTreeNode toParseTreeNode() {
+		if(size == 0) {
+			throw new IllegalStateException("The tree is empty");
+		}
+		// children always come before their parents, so one pass in order
+		// builds every node after its children
+		ParseTreeNode[] built = new ParseTreeNode[size];
+		for(int node = 0; node < size; node++) {
+			if(symbol[node] < 0) {
+				built[node] = null;
+			} else if(firstChild[node] == NONE) {
+				built[node] = new ParseTreeNode(symbols[symbol[node]]);
+			} else if(symbol[firstChild[node]] < 0) {
+				built[node] = ParseTreeNode.emptyParseTree((Variable) symbols[symbol[node]]);
+			} else {
+				ParseTreeNode[] children = new ParseTreeNode[getChildCount(node)];
+				int i = 0;
+				for(int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+					children[i++] = built[child];
+					built[child] = null;
+				}
+				built[node] = new ParseTreeNode(symbols[symbol[node]], Arrays.asList(children));
+			}
+		}
+		return built[getRoot()];
+	}
+
+	/**
+	 * Renders the tree in the same way as {@link ParseTreeNode#toString()}.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return size == 0 ? "" : asParseTreeNode().toString();
+	}
+
+	/**
+	 * Appends a node, making the arrays bigger if they are full.
+	 */
+	private int add(int symbolId, int from, int to) {
+		if(size == symbol.length) {
+			int length = size * 2;
+			symbol = Arrays.copyOf(symbol, length);
+			firstChild = Arrays.copyOf(firstChild, length);
+			nextSibling = Arrays.copyOf(nextSibling, length);
+			start = Arrays.copyOf(start, length);
+			end = Arrays.copyOf(end, length);
+		}
+		symbol[size] = symbolId;
+		firstChild[size] = NONE;
+		nextSibling[size] = NONE;
+		start[size] = from;
+		end[size] = to;
+		return size++;
+	}
+
+	/**
+	 * The id of a symbol in this tree, giving it one if it has none yet.
+	 */
+	private int idOf(Symbol s) {
+		if(s == null) {
+			throw new NullPointerException("Only ε nodes have no symbol, use addEmpty for those");
+		}
+		Integer id = symbolIds.get(s);
+		if(id == null) {
+			id = symbolIds.size();
+			if(id == symbols.length) {
+				symbols = Arrays.copyOf(symbols, id * 2);
+			}
+			symbols[id] = s;
+			symbolIds.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Checks that a node exists.
+	 */
+	private int check(int node) {
+		if(node < 0 || node >= size) {
+			throw new IndexOutOfBoundsException("No node " + node + " in a tree of " + size);
+		}
+		return node;
+	}
+
+	/**
+	 * A node of this tree seen as a {@link ParseTreeNode}.
+	 */
+	private final class View extends ParseTreeNode {
+
+		private final int node;
+
+		private View(int node) {
+			super(CompactParseTree.this);
+			this.node = node;
+		}
+
+		@Override
+		public Symbol getSymbol() {
+			int id = symbol[node];
+			return id < 0 ? null : symbols[id];
+		}
+
+		@Override
+		List<ParseTreeNode> childList() {
+			return new Children(node);
+		}
+
+	}
+
+	/**
+	 * The children of a node, as views.
+	 */
+	private final class Children extends AbstractList<ParseTreeNode> {
+
+		private final int parent;
+
+		private final int size;
+
+		private Children(int parent) {
+			this.parent = parent;
+			this.size = getChildCount(parent);
+		}
+
+		@Override
+		public ParseTreeNode get(int index) {
+			if(index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index " + index + " of " + size + " children");
+			}
+			int child = firstChild[parent];
+			for(int i = 0; i < index; i++) {
+				child = nextSibling[child];
+			}
+			return new View(child);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+}
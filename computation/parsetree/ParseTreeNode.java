@@ -5,8 +5,11 @@ import computation.contextfreegrammar.Terminal;
 import computation.contextfreegrammar.Variable;
 import thirdparty.treeprinter.tech.vanyo.treePrinter.TreePrinter;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 import java.io.ByteArrayOutputStream;
@@ -26,7 +29,10 @@ public class ParseTreeNode {
 	/** The symbol of this node. */
 	private Symbol symbol;
 
-	/** A list of children. We assume this will only ever hold 2 items at most. */
+	/**
+	 * A list of children. For a grammar in Chomsky normal form this will
+	 * only ever hold 2 items at most, but see {@link #ParseTreeNode(Symbol, List)}.
+	 */
 	private List<ParseTreeNode> children;
 
 	/**
@@ -34,6 +40,15 @@ public class ParseTreeNode {
 	 */
 	private ParseTreeNode() { this.children = new ArrayList<>(0); }
 
+	/**
+	 * Only used by views of a {@link CompactParseTree}, which override
+	 * {@link #getSymbol()} and {@link #childList()}. The children are left
+	 * null, so a view doesn't allocate a list it never uses.
+	 *
+	 * @param tree the tree the view is a node of
+	 */
+	ParseTreeNode(CompactParseTree tree) { }
+
 	/**
 	 * Instantiates a new parse tree node with the given symbol and no children.
 	 *
@@ -63,6 +78,22 @@ public class ParseTreeNode {
 		this.children = Arrays.asList(children);
 	}
 
+	/**
+	 * Instantiates a new parse tree node with the given symbol and any number
+	 * of children. This is for grammars which are not in Chomsky normal form,
+	 * where a rule such as E → E+T gives a node with three children.
+	 * <p>
+	 * Trees with more than 2 children at a node are printed as an indented
+	 * outline rather than a drawing, see {@link #print()}.
+	 *
+	 * @param symbol the symbol
+	 * @param children the children, which are copied
+	 */
+	public ParseTreeNode(Symbol symbol, List<ParseTreeNode> children) {
+		this.symbol = symbol;
+		this.children = new ArrayList<>(children);
+	}
+
 	/**
 	 * Gets the symbol.
 	 *
@@ -72,11 +103,31 @@ public class ParseTreeNode {
 		return symbol;
 	}
 
+	/**
+	 * Gets the children of this node, from left to right.
+	 *
+	 * @return an unmodifiable list of the children
+	 */
+	public List<ParseTreeNode> getChildren() {
+		return Collections.unmodifiableList(childList());
+	}
+
+	/**
+	 * Gets the children without wrapping them. Everything in this class goes
+	 * through here rather than the field, so that views can supply their own.
+	 *
+	 * @return the list of children, which must not be changed
+	 */
+	List<ParseTreeNode> childList() {
+		return children;
+	}
+
 	/**
 	 * Used internally when rendering the parse tree.
 	 * @return the symbol as a string, or ε if this is the 'empty tree'
 	 */
 	private String getSymbolString() {
+		Symbol symbol = getSymbol();
 		if(symbol == null) {
 			return "ε";
 		} else {
@@ -90,6 +141,7 @@ public class ParseTreeNode {
 	 * @return the left
 	 */
 	private ParseTreeNode getLeft() {
+		List<ParseTreeNode> children = childList();
 		return children.size() > 0 ? children.get(0) : null;
 	}
 
@@ -99,6 +151,7 @@ public class ParseTreeNode {
 	 * @return the right
 	 */
 	private ParseTreeNode getRight() {
+		List<ParseTreeNode> children = childList();
 		return children.size() > 1 ? children.get(1) : null;
 	}
 
@@ -119,13 +172,112 @@ public class ParseTreeNode {
 
 	/**
 	 * Prints the entire tree including and below this node.
+	 * <p>
+	 * The tree printer can only draw binary trees, so if any node has more
+	 * than 2 children the tree is printed as an indented outline instead.
 	 */
 	public void print() {
+		if(!isBinary()) {
+			System.out.print(outline());
+			System.out.println();
+			return;
+		}
 		TreePrinter<ParseTreeNode> printer = getPrinter();
 		printer.printTree(this);
 		System.out.println();
 	}
 
+	/**
+	 * Checks whether every node in this tree has at most 2 children.
+	 *
+	 * @return true, if the tree can be drawn by the tree printer
+	 */
+	private boolean isBinary() {
+		Deque<ParseTreeNode> stack = new ArrayDeque<>();
+		stack.push(this);
+		while(!stack.isEmpty()) {
+			List<ParseTreeNode> children = stack.pop().childList();
+			if(children.size() > 2) {
+				return false;
+			}
+			for(ParseTreeNode child : children) {
+				stack.push(child);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Renders the tree as an indented outline, one node per line, e.g.
+	 * <blockquote><pre>
+	 * E
+	 * ├─E
+	 * │ └─T
+	 * │   └─1
+	 * ├─+
+	 * └─T
+	 *   └─x
+	 * </pre></blockquote>
+	 *
+	 * @return the outline
+	 */
+	private String outline() {
+		StringBuilder sb = new StringBuilder();
+		// each entry is a node and the prefix to draw before it
+		Deque<Object[]> stack = new ArrayDeque<>();
+		stack.push(new Object[] {this, "", ""});
+		while(!stack.isEmpty()) {
+			Object[] entry = stack.pop();
+			ParseTreeNode node = (ParseTreeNode) entry[0];
+			List<ParseTreeNode> children = node.childList();
+			String childPrefix = (String) entry[2];
+			sb.append(entry[1]).append(node.getSymbolString()).append('\n');
+			for(int i = children.size() - 1; i >= 0; i--) {
+				boolean last = i == children.size() - 1;
+				stack.push(new Object[] {children.get(i), childPrefix + (last ? "└─" : "├─"), childPrefix + (last ? "  " : "│ ")});
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Renders the tree on one line, with each node that has children in
+	 * square brackets after its symbol, e.g. {@code [E [E [T 1]] + [T x]]}.
+	 * Unlike {@link #toString()} the length is proportional to the number of
+	 * nodes however deep the tree is, and it is built without recursion, so
+	 * it suits trees of very long words.
+	 *
+	 * @return the bracketed tree
+	 */
+	public String toBracketedString() {
+		StringBuilder sb = new StringBuilder();
+		// each entry is a node still to write, or a closing bracket
+		Deque<Object> stack = new ArrayDeque<>();
+		stack.push(this);
+		while(!stack.isEmpty()) {
+			Object entry = stack.pop();
+			if(entry instanceof String) {
+				sb.append((String) entry);
+				continue;
+			}
+			ParseTreeNode node = (ParseTreeNode) entry;
+			List<ParseTreeNode> children = node.childList();
+			if(sb.length() > 0 && sb.charAt(sb.length() - 1) != '[') {
+				sb.append(' ');
+			}
+			if(children.isEmpty()) {
+				sb.append(node.getSymbolString());
+				continue;
+			}
+			sb.append('[').append(node.getSymbolString());
+			stack.push("]");
+			for(int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * The 3rd party TreePrinter only prints, but what if we want the tree as a string? How inconvenient!
 	 * But luckily the library allows us to specify a custom PrintStream. So we make a print stream that writes to
@@ -134,6 +286,9 @@ public class ParseTreeNode {
 	 * @return A string containing what would be printed if you called {@link #print() .print()}.
 	 */
 	public String toString() {
+		if(!isBinary()) {
+			return outline();
+		}
 		TreePrinter<ParseTreeNode> printer = getPrinter();
 
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -176,34 +331,80 @@ public class ParseTreeNode {
 	@Override
 	public int hashCode() {
 		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((children == null) ? 0 : children.hashCode());
-		result = prime * result + ((symbol == null) ? 0 : symbol.hashCode());
-		return result;
+		// the same as hashing the symbol and the list of children, but without recursion, so deep trees work
+		Deque<HashFrame> stack = new ArrayDeque<>();
+		stack.push(new HashFrame(this));
+		while(true) {
+			HashFrame frame = stack.peek();
+			if(frame.next < frame.children.size()) {
+				stack.push(new HashFrame(frame.children.get(frame.next)));
+				continue;
+			}
+			stack.pop();
+			Symbol symbol = frame.node.getSymbol();
+			int result = prime * (prime + frame.childrenHash) + ((symbol == null) ? 0 : symbol.hashCode());
+			HashFrame parent = stack.peek();
+			if(parent == null) {
+				return result;
+			}
+			parent.childrenHash = prime * parent.childrenHash + result;
+			parent.next++;
+		}
 	}
 
 	/**
+	 * A node whose hash is being worked out, and the hash of its children so far.
+	 */
+	private static final class HashFrame {
+
+		private final ParseTreeNode node;
+		private final List<ParseTreeNode> children;
+
+		/** The index of the next child to hash. */
+		private int next;
+
+		/** The hash of the children before the next one, as {@link List#hashCode()} works it out. */
+		private int childrenHash = 1;
+
+		private HashFrame(ParseTreeNode node) {
+			this.node = node;
+			this.children = node.childList();
+		}
+
+	}
+
+	/**
+	 * Trees are equal if they have the same shape and symbols, so a view of
+	 * a {@link CompactParseTree} equals the same tree made of nodes. The
+	 * trees are walked without recursion, so they can be deep.
+	 *
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
+		if (!(obj instanceof ParseTreeNode))
 			return false;
-		ParseTreeNode other = (ParseTreeNode) obj;
-		if (children == null) {
-			if (other.children != null)
+		// pairs of nodes in the same place in both trees
+		Deque<ParseTreeNode[]> stack = new ArrayDeque<>();
+		stack.push(new ParseTreeNode[] {this, (ParseTreeNode) obj});
+		while(!stack.isEmpty()) {
+			ParseTreeNode[] pair = stack.pop();
+			if(pair[0] == pair[1]) {
+				continue;
+			}
+			Symbol symbol = pair[0].getSymbol();
+			if (symbol == null ? pair[1].getSymbol() != null : !symbol.equals(pair[1].getSymbol()))
 				return false;
-		} else if (!children.equals(other.children))
-			return false;
-		if (symbol == null) {
-			if (other.symbol != null)
+			List<ParseTreeNode> children = pair[0].childList();
+			List<ParseTreeNode> otherChildren = pair[1].childList();
+			if (children.size() != otherChildren.size())
 				return false;
-		} else if (!symbol.equals(other.symbol))
-			return false;
+			for(int i = 0; i < children.size(); i++) {
+				stack.push(new ParseTreeNode[] {children.get(i), otherChildren.get(i)});
+			}
+		}
 		return true;
 	}
 
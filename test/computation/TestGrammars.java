@@ -0,0 +1,122 @@
+package computation;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+import computation.contextfreegrammar.*;
+import computation.parser.IParser;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * The grammars, words and checks shared by the tests.
+ */
+public final class TestGrammars {
+
+	private TestGrammars() {
+	}
+
+	/**
+	 * Gets the grammar of {@code MyGrammar}, which is in the default package
+	 * and so can't be imported.
+	 *
+	 * @return the grammar
+	 */
+	public static ContextFreeGrammar myGrammar() {
+		try {
+			return (ContextFreeGrammar) Class.forName("MyGrammar").getMethod("makeGrammar").invoke(null);
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("MyGrammar must be on the class path", e);
+		}
+	}
+
+	/**
+	 * Makes the derivation search {@code Parser}, which is in the default package.
+	 *
+	 * @return the parser
+	 */
+	public static IParser derivationParser() {
+		try {
+			return (IParser) Class.forName("Parser").getConstructor().newInstance();
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("Parser must be on the class path", e);
+		}
+	}
+
+	/**
+	 * Makes every word over the grammar's terminals with a length in a range,
+	 * shortest first and then in dictionary order.
+	 *
+	 * @param cfg the grammar
+	 * @param minLength the shortest words
+	 * @param maxLength the longest words
+	 * @return the words
+	 */
+	public static List<Word> allWords(ContextFreeGrammar cfg, int minLength, int maxLength) {
+		List<Terminal> terminals = new ArrayList<>(cfg.getTerminals());
+		terminals.sort(Comparator.comparing(Terminal::toString));
+		List<Word> words = new ArrayList<>();
+		for(int length = minLength; length <= maxLength; length++) {
+			int[] digits = new int[length];
+			while(true) {
+				Symbol[] symbols = new Symbol[length];
+				for(int i = 0; i < length; i++) {
+					symbols[i] = terminals.get(digits[i]);
+				}
+				words.add(length == 0 ? Word.emptyWord : new Word(symbols));
+				int i = length - 1;
+				while(i >= 0 && ++digits[i] == terminals.size()) {
+					digits[i--] = 0;
+				}
+				if(i < 0) {
+					break;
+				}
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Checks that a tree is a parse tree of a word: the root is the start
+	 * variable, every node and its children are a rule of the grammar, and
+	 * the leaves spell out the word. The tree is walked without recursion,
+	 * so it can be deep.
+	 *
+	 * @param cfg the grammar
+	 * @param tree the tree
+	 * @param w the word
+	 */
+	public static void assertParseTree(ContextFreeGrammar cfg, ParseTreeNode tree, Word w) {
+		assertNotNull("no tree for " + w, tree);
+		assertEquals(cfg.getStartVariable(), tree.getSymbol());
+		List<Symbol> leaves = new ArrayList<>();
+		Deque<ParseTreeNode> stack = new ArrayDeque<>();
+		stack.push(tree);
+		while(!stack.isEmpty()) {
+			ParseTreeNode node = stack.pop();
+			List<ParseTreeNode> children = node.getChildren();
+			if(children.isEmpty()) {
+				if(node.getSymbol() != null) {
+					leaves.add(node.getSymbol());
+				}
+				continue;
+			}
+			Symbol[] expansion = new Symbol[children.size()];
+			for(int i = 0; i < expansion.length; i++) {
+				expansion[i] = children.get(i).getSymbol();
+			}
+			Word right = expansion.length == 1 && expansion[0] == null ? Word.emptyWord : new Word(expansion);
+			assertTrue("no rule " + node.getSymbol() + " → " + right,
+					cfg.getRules().contains(new Rule((Variable) node.getSymbol(), right)));
+			for(int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+		assertEquals(w, leaves.isEmpty() ? Word.emptyWord : new Word(leaves.toArray(new Symbol[0])));
+	}
+
+}
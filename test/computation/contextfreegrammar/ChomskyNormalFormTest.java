@@ -0,0 +1,81 @@
+package computation.contextfreegrammar;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import computation.TestGrammars;
+import computation.parser.BitsetCYKParser;
+import computation.parser.EarleyParser;
+import computation.parser.ParseResult;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Checks that converting to Chomsky normal form keeps the language the same,
+ * and that parse trees in the converted grammar map back to parse trees in
+ * the original.
+ */
+public class ChomskyNormalFormTest {
+
+	@Test
+	public void emptyWordAndUnitRules() {
+		// ε, unit rules, a cycle of unit rules, and the start variable on a right hand side
+		check(ContextFreeGrammar.fromString("S → A S B | A | ε\nA → a A | B | a\nB → b | A | S b"), 6);
+	}
+
+	@Test
+	public void longRulesAndMixedTerminals() {
+		check(ContextFreeGrammar.fromString("S → a S b S c | a b c | S S\nT → x"), 7);
+	}
+
+	@Test
+	public void nullableVariables() {
+		check(ContextFreeGrammar.fromString("S → A B A | c\nA → a | ε\nB → A A | b"), 5);
+	}
+
+	@Test
+	public void ambiguousGrammar() {
+		check(ContextFreeGrammar.fromString("S → S S | a | b"), 6);
+	}
+
+	@Test
+	public void myGrammar() {
+		// already in Chomsky normal form
+		check(TestGrammars.myGrammar(), 4);
+	}
+
+	@Test
+	public void resultIsInChomskyNormalForm() {
+		ContextFreeGrammar cfg = ContextFreeGrammar.fromString("S → a S b S c | A\nA → ε | S");
+		assertFalse(cfg.isInChomskyNormalForm());
+		assertTrue(new ChomskyNormalForm(cfg).getGrammar().isInChomskyNormalForm());
+		assertTrue(cfg.toChomskyNormalForm().isInChomskyNormalForm());
+	}
+
+	/**
+	 * Checks every word up to a length: the converted grammar accepts it
+	 * exactly when the original does, and the converted tree maps back to a
+	 * parse tree of the original grammar.
+	 */
+	private static void check(ContextFreeGrammar cfg, int maxLength) {
+		ChomskyNormalForm cnf = new ChomskyNormalForm(cfg);
+		ContextFreeGrammar converted = cnf.getGrammar();
+		assertTrue(converted.isInChomskyNormalForm());
+		EarleyParser earley = new EarleyParser();
+		BitsetCYKParser cyk = new BitsetCYKParser();
+		int accepted = 0;
+		for(Word w : TestGrammars.allWords(cfg, 0, maxLength)) {
+			boolean expected = earley.isInLanguage(cfg, w);
+			ParseResult result = cyk.parse(converted, w);
+			assertEquals(w.toString(), expected, result.isAccepted());
+			if(expected) {
+				accepted++;
+				ParseTreeNode tree = result.getTree();
+				TestGrammars.assertParseTree(converted, tree, w);
+				TestGrammars.assertParseTree(cfg, cnf.toOriginalTree(tree), w);
+			}
+		}
+		assertTrue("no words accepted", accepted > 0);
+	}
+
+}
@@ -0,0 +1,88 @@
+package computation.generator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import computation.TestGrammars;
+import computation.contextfreegrammar.*;
+import computation.parser.EarleyParser;
+
+/**
+ * Checks the enumerator against brute force: trying every word over the
+ * terminals with a parser, in the same order.
+ */
+public class LanguageEnumeratorTest {
+
+	@Test
+	public void simpleCNF() {
+		check(ContextFreeGrammar.simpleCNF(), 10);
+	}
+
+	@Test
+	public void myGrammar() {
+		check(TestGrammars.myGrammar(), 4);
+	}
+
+	@Test
+	public void ambiguousGrammar() {
+		// every word of a and b, each only once however many trees it has
+		check(ContextFreeGrammar.fromString("S → S S | a | b"), 7);
+	}
+
+	@Test
+	public void emptyWordAndUnitRules() {
+		check(ContextFreeGrammar.fromString("S → A S B | A | ε\nA → a A | B | a\nB → b | A | S b"), 6);
+	}
+
+	@Test
+	public void gapsInTheLengths() {
+		// only words of even length, with a long rule and a variable which generates nothing
+		check(ContextFreeGrammar.fromString("S → a S b S c c | a b | D\nD → D a"), 8);
+	}
+
+	@Test
+	public void lengthRange() {
+		ContextFreeGrammar cfg = ContextFreeGrammar.fromString("S → S S | a | b");
+		LanguageEnumerator enumerator = new LanguageEnumerator(cfg);
+		List<Word> words = enumerator.words(3, 4).collect(Collectors.toList());
+		assertEquals(8 + 16, words.size());
+		assertEquals(new Word("aaa"), words.get(0));
+		assertEquals(new Word("bbbb"), words.get(words.size() - 1));
+		assertFalse(enumerator.hasWordsOfLength(0));
+		assertTrue(enumerator.hasWordsOfLength(LanguageEnumerator.MAX_LENGTH));
+		// lazy, so the first few of a huge number of words are quick
+		assertEquals(10, enumerator.words(LanguageEnumerator.MAX_LENGTH).limit(10).count());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooLong() {
+		new LanguageEnumerator(ContextFreeGrammar.simpleCNF()).words(LanguageEnumerator.MAX_LENGTH + 1);
+	}
+
+	/**
+	 * Checks that the enumerator lists exactly the words up to a length the
+	 * parser accepts, in the same order as {@link TestGrammars#allWords}.
+	 */
+	private static void check(ContextFreeGrammar cfg, int maxLength) {
+		EarleyParser parser = new EarleyParser();
+		List<Word> expected = new ArrayList<>();
+		for(Word w : TestGrammars.allWords(cfg, 0, maxLength)) {
+			if(parser.isInLanguage(cfg, w)) {
+				expected.add(w);
+			}
+		}
+		LanguageEnumerator enumerator = new LanguageEnumerator(cfg);
+		assertEquals(expected, enumerator.words(maxLength).collect(Collectors.toList()));
+		for(int length = 0; length <= maxLength; length++) {
+			int n = length;
+			assertEquals("length " + length, expected.stream().anyMatch(w -> w.length() == n),
+					enumerator.hasWordsOfLength(length));
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package computation.generator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import computation.contextfreegrammar.*;
+import computation.generator.RandomWordSampler.Mode;
+import computation.parser.BitsetCYKParser;
+
+/**
+ * Checks the sampler's frequencies against the words the enumerator lists,
+ * and that a seed always gives the same words.
+ */
+public class RandomWordSamplerTest {
+
+	/** Ambiguous, and its words have different numbers of trees: aaa has 2, aab has 1. */
+	private static final ContextFreeGrammar GRAMMAR = ContextFreeGrammar.fromString("S → S S | a | a b");
+
+	private static final int LENGTH = 5;
+
+	/** Words mode parses each word it picks, and most are thrown away, so this takes a few seconds. */
+	private static final int SAMPLES = 10_000;
+
+	@Test
+	public void wordsAreUniform() {
+		List<Word> words = new LanguageEnumerator(GRAMMAR).words(LENGTH, LENGTH).collect(Collectors.toList());
+		Map<Word, Integer> counts = sample(Mode.WORDS);
+		assertEquals(words.size(), counts.size());
+		double[] expected = new double[words.size()];
+		int[] observed = new int[words.size()];
+		for(int i = 0; i < words.size(); i++) {
+			expected[i] = (double) SAMPLES / words.size();
+			observed[i] = counts.getOrDefault(words.get(i), 0);
+		}
+		assertFits(expected, observed);
+	}
+
+	@Test
+	public void treesAreUniform() {
+		ContextFreeGrammar cnf = GRAMMAR.toChomskyNormalForm();
+		BitsetCYKParser parser = new BitsetCYKParser();
+		List<Word> words = new LanguageEnumerator(GRAMMAR).words(LENGTH, LENGTH).collect(Collectors.toList());
+		long[] trees = new long[words.size()];
+		long total = 0;
+		for(int i = 0; i < words.size(); i++) {
+			trees[i] = parser.countTrees(cnf, words.get(i)).longValue();
+			total += trees[i];
+		}
+		assertTrue("every word has the same number of trees", trees[0] != trees[trees.length - 1]);
+
+		Map<Word, Integer> counts = sample(Mode.TREES);
+		assertEquals(words.size(), counts.size());
+		double[] expected = new double[words.size()];
+		int[] observed = new int[words.size()];
+		for(int i = 0; i < words.size(); i++) {
+			expected[i] = (double) SAMPLES * trees[i] / total;
+			observed[i] = counts.getOrDefault(words.get(i), 0);
+		}
+		assertFits(expected, observed);
+	}
+
+	@Test
+	public void sameSeedSameWords() {
+		// long enough that words mode throws most of the words it picks away, so that is repeated too
+		RandomWordSampler sampler = new RandomWordSampler(GRAMMAR, 8);
+		for(Mode mode : Mode.values()) {
+			List<Word> first = sampler.samples(8, 42, mode).limit(50).collect(Collectors.toList());
+			assertEquals(first, sampler.samples(8, 42, mode).limit(50).collect(Collectors.toList()));
+			assertEquals(first, new RandomWordSampler(GRAMMAR, 8).samples(8, 42, mode).limit(50).collect(Collectors.toList()));
+			assertNotEquals(first, sampler.samples(8, 43, mode).limit(50).collect(Collectors.toList()));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noWordsOfTheLength() {
+		// every word of 0ⁿ1ⁿ has an even length
+		new RandomWordSampler(ContextFreeGrammar.simpleCNF(), 10).sample(5, new SplittableRandom(1), Mode.WORDS);
+	}
+
+	/**
+	 * Counts how often each word of {@link #LENGTH} comes up.
+	 */
+	private static Map<Word, Integer> sample(Mode mode) {
+		RandomWordSampler sampler = new RandomWordSampler(GRAMMAR, LENGTH);
+		SplittableRandom random = new SplittableRandom(24);
+		Map<Word, Integer> counts = new HashMap<>();
+		for(int i = 0; i < SAMPLES; i++) {
+			counts.merge(sampler.sample(LENGTH, random, mode), 1, Integer::sum);
+		}
+		return counts;
+	}
+
+	/**
+	 * Checks the counts with Pearson's chi-squared test. The bound is a
+	 * little above the 99.9th percentile for up to 40 degrees of freedom,
+	 * and the seed is fixed, so the test doesn't fail at random.
+	 */
+	private static void assertFits(double[] expected, int[] observed) {
+		assertTrue(expected.length <= 41);
+		double chiSquared = 0;
+		for(int i = 0; i < expected.length; i++) {
+			double difference = observed[i] - expected[i];
+			chiSquared += difference * difference / expected[i];
+		}
+		assertTrue("chi-squared " + chiSquared + " for " + (expected.length - 1) + " degrees of freedom", chiSquared < 75);
+	}
+
+}
@@ -0,0 +1,142 @@
+package computation.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import computation.contextfreegrammar.Word;
+
+/**
+ * Checks reading a corpus in small windows, so that lines cross from one
+ * window to the next, against splitting the text into lines.
+ */
+public class CorpusReaderTest {
+
+	private final List<Path> files = new ArrayList<>();
+
+	@After
+	public void deleteFiles() throws IOException {
+		for(Path file : files) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void linesAcrossWindows() throws IOException {
+		String text = "x+1\n(x)*0\n\n1\nx*x*x+1\n";
+		for(int window = 8; window <= text.length() + 1; window++) {
+			assertEquals("window " + window, words(text), read(text, window));
+		}
+	}
+
+	@Test
+	public void windowsCRLF() throws IOException {
+		String text = "x+1\r\n(x)*0\r\n\r\n1\r\nx*x*x+1\r\n";
+		for(int window = 9; window <= text.length() + 1; window++) {
+			assertEquals("window " + window, words(text), read(text, window));
+		}
+	}
+
+	@Test
+	public void lastLineWithoutNewline() throws IOException {
+		for(String text : new String[] {"x+1\n(x)", "x+1\r\n(x)", "(x)", "x+1\n\n1"}) {
+			for(int window = 5; window <= text.length() + 1; window++) {
+				assertEquals("window " + window, words(text), read(text, window));
+			}
+		}
+	}
+
+	@Test
+	public void emptyFile() throws IOException {
+		assertEquals(new ArrayList<Word>(), read("", 4));
+		assertEquals(words("\n"), read("\n", 4));
+	}
+
+	@Test
+	public void lineAndNewlineFillTheWindow() throws IOException {
+		assertEquals(words("x+1\nx*0+\nx\n"), read("x+1\nx*0+\nx\n", 5));
+		assertEquals(words("x+1\r\nx*0\r\nx\r\n"), read("x+1\r\nx*0\r\nx\r\n", 5));
+		// the last line doesn't need a newline, so it can fill the window
+		assertEquals(words("x+1\nx*0+"), read("x+1\nx*0+", 4));
+	}
+
+	@Test(expected = IOException.class)
+	public void lineLongerThanTheWindow() throws IOException {
+		read("x+1\nx+1*0+x\n1\n", 6);
+	}
+
+	@Test(expected = IOException.class)
+	public void newlineAfterTheWindow() throws IOException {
+		read("x+1\nx*0+\nx\n", 4);
+	}
+
+	@Test
+	public void randomLinesAndWindows() throws IOException {
+		Random random = new Random(18);
+		for(int run = 0; run < 200; run++) {
+			StringBuilder sb = new StringBuilder();
+			int window = 1 + random.nextInt(20);
+			int lines = random.nextInt(30);
+			for(int i = 0; i < lines; i++) {
+				int length = random.nextInt(window);
+				for(int j = 0; j < length; j++) {
+					sb.append("x1+*()".charAt(random.nextInt(6)));
+				}
+				if(i < lines - 1 || random.nextBoolean()) {
+					sb.append(length + 2 <= window && random.nextBoolean() ? "\r\n" : "\n");
+				}
+			}
+			String text = sb.toString();
+			assertEquals("window " + window + " on " + text, words(text), read(text, window));
+		}
+	}
+
+	/**
+	 * Writes the text to a file and reads it back with a window size.
+	 */
+	private List<Word> read(String text, int window) throws IOException {
+		Path file = Files.createTempFile("corpus", ".txt");
+		files.add(file);
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		List<Word> words = new ArrayList<>();
+		try(CorpusReader reader = new CorpusReader(file, window)) {
+			for(Word w = reader.next(); w != null; w = reader.next()) {
+				words.add(w);
+			}
+			assertEquals(words.size(), reader.getLineCount());
+			assertNull(reader.next());
+		}
+		return words;
+	}
+
+	/**
+	 * Splits the text into lines, the way the reader should.
+	 */
+	private static List<Word> words(String text) {
+		List<Word> words = new ArrayList<>();
+		int start = 0;
+		while(start < text.length()) {
+			int end = text.indexOf('\n', start);
+			if(end < 0) {
+				end = text.length();
+			}
+			String line = text.substring(start, end);
+			if(line.endsWith("\r")) {
+				line = line.substring(0, line.length() - 1);
+			}
+			words.add(line.isEmpty() ? Word.emptyWord : new Word(line));
+			start = end + 1;
+		}
+		return words;
+	}
+
+}
@@ -0,0 +1,94 @@
+package computation.parser;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import computation.TestGrammars;
+import computation.contextfreegrammar.*;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Checks that every parser engine accepts the same words, and gives a
+ * correct parse tree for each of them.
+ */
+public class EngineAgreementTest {
+
+	private static final List<IParser> ENGINES = Arrays.asList(TestGrammars.derivationParser(), new CYKParser(),
+			new BitsetCYKParser(), new EarleyParser());
+
+	@Test
+	public void simpleCNF() {
+		ContextFreeGrammar cfg = ContextFreeGrammar.simpleCNF();
+		int accepted = checkAll(cfg, TestGrammars.allWords(cfg, 1, 8));
+		// 0ⁿ1ⁿ for n from 1 to 4
+		assertEquals(4, accepted);
+	}
+
+	@Test
+	public void myGrammarShortWords() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		int accepted = checkAll(cfg, TestGrammars.allWords(cfg, 1, 3));
+		// the 3 operands, each of them in brackets, and 3 · 2 · 3 sums and products of two of them
+		assertEquals(3 + 3 + 18, accepted);
+	}
+
+	@Test
+	public void myGrammarLongerWords() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		List<Word> words = Arrays.asList(new Word("(x+1)*0"), new Word("x*(1+0)"), new Word("((x))"),
+				new Word("x+x*x+x"), new Word("(x+1"), new Word("x+*1"), new Word("()"), new Word("x)(x"));
+		assertEquals(4, checkAll(cfg, words));
+	}
+
+	@Test
+	public void cykEnginesGiveTheSameTree() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		Word w = new Word("(x+1)*0+x*(1*(0+x))");
+		ParseTreeNode tree = new CYKParser().generateParseTree(cfg, w);
+		TestGrammars.assertParseTree(cfg, tree, w);
+		assertEquals(tree, new BitsetCYKParser().generateParseTree(cfg, w));
+	}
+
+	@Test
+	public void parallelFillGivesTheSameAnswers() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		BitsetCYKParser parallel = new BitsetCYKParser(ForkJoinPool.commonPool(), 1);
+		for(Word w : TestGrammars.allWords(cfg, 1, 3)) {
+			assertEquals(w.toString(), new BitsetCYKParser().isInLanguage(cfg, w), parallel.isInLanguage(cfg, w));
+		}
+		Word w = new Word("(x+1)*0+x*(1*(0+x))");
+		assertEquals(new BitsetCYKParser().generateParseTree(cfg, w), parallel.generateParseTree(cfg, w));
+	}
+
+	/**
+	 * Checks that the engines agree on every word, and that each accepted
+	 * word's tree is a parse tree of it.
+	 *
+	 * @return how many words are in the language
+	 */
+	private static int checkAll(ContextFreeGrammar cfg, List<Word> words) {
+		int accepted = 0;
+		for(Word w : words) {
+			boolean expected = ENGINES.get(0).isInLanguage(cfg, w);
+			for(IParser engine : ENGINES) {
+				ParseResult result = engine.parse(cfg, w);
+				assertEquals(engine.getClass().getSimpleName() + " on " + w, expected, result.isAccepted());
+				if(expected) {
+					TestGrammars.assertParseTree(cfg, result.getTree(), w);
+				} else {
+					assertNull(result.getTree());
+				}
+			}
+			if(expected) {
+				accepted++;
+			}
+		}
+		return accepted;
+	}
+
+}
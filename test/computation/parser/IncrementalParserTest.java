@@ -0,0 +1,152 @@
+package computation.parser;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import computation.TestGrammars;
+import computation.contextfreegrammar.*;
+
+/**
+ * Checks that after any run of edits the incremental parser gives the same
+ * result as parsing the edited word from scratch.
+ */
+public class IncrementalParserTest {
+
+	@Test
+	public void myGrammar() {
+		check(TestGrammars.myGrammar(), new Word("(x+1)*0+x*(1+x)"), 400, 1);
+	}
+
+	@Test
+	public void ambiguousGrammar() {
+		check(ContextFreeGrammar.fromString("S → S S | a | b"), new Word("abba"), 200, 2);
+	}
+
+	@Test
+	public void moreThan64Variables() {
+		// so every cell of the chart takes more than one long
+		check(randomGrammar(80, new Random(3)), new Word("abaabbab"), 100, 3);
+	}
+
+	@Test
+	public void updateWithTheSameWord() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		IncrementalParser parser = new IncrementalParser(cfg, new Word("x+1"));
+		ParseResult result = parser.getResult();
+		assertSame(result, parser.update(new Word("x+1")));
+	}
+
+	@Test
+	public void fillsOnlyTheCellsOverAnEdit() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		IncrementalParser parser = new IncrementalParser(cfg, new Word("x+1*0+x"));
+		// typing at the end of a word of 8 symbols only fills the 8 cells which end there
+		ParseResult result = parser.update(new Word("x+1*0+x1"));
+		assertEquals(new Word("x+1*0+x1"), parser.getWord());
+		assertFalse(result.isAccepted());
+		assertEquals(Long.valueOf(36), result.getStatistics().get("cells"));
+		assertEquals(Long.valueOf(8), result.getStatistics().get("cells filled"));
+	}
+
+	/**
+	 * Makes random edits, with both {@link IncrementalParser#replace} and
+	 * {@link IncrementalParser#update}, and compares every result with a
+	 * fresh parse.
+	 */
+	private static void check(ContextFreeGrammar cfg, Word start, int edits, long seed) {
+		Random random = new Random(seed);
+		List<Terminal> terminals = new ArrayList<>(cfg.getTerminals());
+		BitsetCYKParser fresh = new BitsetCYKParser();
+		IncrementalParser parser = new IncrementalParser(cfg, start);
+		assertSameResult(fresh.parse(cfg, start), parser.getResult());
+
+		int accepted = 0;
+		for(int i = 0; i < edits; i++) {
+			Word w = parser.getWord();
+			int index = random.nextInt(w.length());
+			Terminal t = terminals.get(random.nextInt(terminals.size()));
+			ParseResult result;
+			switch(random.nextInt(4)) {
+			case 0:
+				result = parser.replace(index, new Word(t));
+				break;
+			case 1:
+				// insert after the symbol
+				result = parser.replace(index, new Word(w.get(index), t));
+				break;
+			case 2:
+				result = w.length() > 1 ? parser.replace(index, Word.emptyWord) : parser.replace(index, new Word(t));
+				break;
+			default:
+				result = parser.update(splice(w, index, random, terminals));
+				break;
+			}
+			Word edited = parser.getWord();
+			assertSameResult(fresh.parse(cfg, edited), result);
+			assertTrue(result.getStatistics().get("cells filled") <= result.getStatistics().get("cells"));
+			if(result.isAccepted()) {
+				TestGrammars.assertParseTree(cfg, result.getTree(), edited);
+				accepted++;
+			}
+		}
+		assertTrue("no edited word was accepted", accepted > 0);
+	}
+
+	private static void assertSameResult(ParseResult expected, ParseResult actual) {
+		assertEquals(expected.isAccepted(), actual.isAccepted());
+		assertEquals(expected.getTree(), actual.getTree());
+	}
+
+	/**
+	 * Replaces a few symbols from an index with a few random ones, keeping
+	 * at least one symbol.
+	 */
+	private static Word splice(Word w, int index, Random random, List<Terminal> terminals) {
+		List<Symbol> symbols = new ArrayList<>();
+		for(int i = 0; i < w.length(); i++) {
+			symbols.add(w.get(i));
+		}
+		int removed = Math.min(random.nextInt(4), symbols.size() - index);
+		symbols.subList(index, index + removed).clear();
+		int added = random.nextInt(4);
+		for(int i = 0; i < added; i++) {
+			symbols.add(index, terminals.get(random.nextInt(terminals.size())));
+		}
+		if(symbols.isEmpty()) {
+			symbols.add(terminals.get(0));
+		}
+		return new Word(symbols.toArray(new Symbol[0]));
+	}
+
+	/**
+	 * Makes a random grammar in Chomsky normal form over a and b, where
+	 * every third variable also gives a and every third gives b.
+	 */
+	private static ContextFreeGrammar randomGrammar(int variableCount, Random random) {
+		Variable[] variables = new Variable[variableCount];
+		for(int i = 0; i < variableCount; i++) {
+			variables[i] = Variable.of('V', i);
+		}
+		List<Rule> rules = new ArrayList<>();
+		for(int i = 0; i < variableCount; i++) {
+			for(int j = 0; j < 3; j++) {
+				Variable left = variables[1 + random.nextInt(variableCount - 1)];
+				Variable right = variables[1 + random.nextInt(variableCount - 1)];
+				Rule rule = new Rule(variables[i], new Word(left, right));
+				if(!rules.contains(rule)) {
+					rules.add(rule);
+				}
+			}
+			if(i % 3 != 2) {
+				rules.add(new Rule(variables[i], new Word(Terminal.of(i % 3 == 0 ? 'a' : 'b'))));
+			}
+		}
+		return new ContextFreeGrammar(rules);
+	}
+
+}
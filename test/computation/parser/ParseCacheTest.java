@@ -0,0 +1,101 @@
+package computation.parser;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import computation.contextfreegrammar.*;
+
+/**
+ * Checks the bounds of the cache: it holds as many entries and as much
+ * weight as it was given, and never more.
+ */
+public class ParseCacheTest {
+
+	private static final Fingerprint GRAMMAR = ContextFreeGrammar.simpleCNF().getFingerprint();
+
+	@Test
+	public void holdsTheWholeSize() {
+		// 20 entries over 16 stripes, so some stripes must take two
+		ParseCache cache = new ParseCache(20);
+		int i = 0;
+		while(cache.size() < 20 && i < 10_000) {
+			cache.put(GRAMMAR, word(i++), result());
+		}
+		assertEquals(20, cache.size());
+	}
+
+	@Test
+	public void neverHoldsMoreThanTheBounds() {
+		ParseCache cache = new ParseCache(20, 100);
+		for(int i = 0; i < 2000; i++) {
+			Word w = word(i);
+			cache.put(GRAMMAR, w, result());
+			if(i % 3 == 0) {
+				cache.get(GRAMMAR, w);
+			}
+			assertTrue("size " + cache.size(), cache.size() <= 20);
+			assertTrue("weight " + cache.weight(), cache.weight() <= 100);
+		}
+		assertTrue(cache.getEvictionCount() > 0);
+	}
+
+	@Test
+	public void cachesAnEntryHeavierThanAStripesShare() {
+		ParseCache cache = new ParseCache(1000, 10_000);
+		for(int i = 0; i < 100; i++) {
+			cache.put(GRAMMAR, word(i), result());
+		}
+		Word w = zeros(799);
+		ParseResult result = result();
+		cache.put(GRAMMAR, w, result);
+		assertSame(result, cache.get(GRAMMAR, w));
+		assertTrue(cache.weight() <= 10_000);
+
+		// as heavy as the whole bound, so everything else goes
+		Word whole = zeros(9999);
+		cache.put(GRAMMAR, whole, result);
+		assertSame(result, cache.get(GRAMMAR, whole));
+		assertEquals(1, cache.size());
+		assertEquals(10_000, cache.weight());
+	}
+
+	@Test
+	public void doesNotCacheAnEntryHeavierThanTheBound() {
+		ParseCache cache = new ParseCache(1000, 10_000);
+		cache.put(GRAMMAR, word(1), result());
+		cache.put(GRAMMAR, zeros(10_000), result());
+		assertNull(cache.get(GRAMMAR, zeros(10_000)));
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void clearEmptiesEveryStripe() {
+		ParseCache cache = new ParseCache(100, 1000);
+		for(int i = 0; i < 50; i++) {
+			cache.put(GRAMMAR, word(i), result());
+		}
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.weight());
+	}
+
+	/**
+	 * Makes a different word over 0 and 1 for each number, of its binary digits.
+	 */
+	private static Word word(int i) {
+		return new Word(Integer.toBinaryString(i));
+	}
+
+	private static Word zeros(int length) {
+		return new Word(String.join("", Collections.nCopies(length, "0")));
+	}
+
+	private static ParseResult result() {
+		return ParseResult.rejected(Collections.emptyMap(), 0);
+	}
+
+}
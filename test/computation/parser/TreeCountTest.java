@@ -0,0 +1,131 @@
+package computation.parser;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import computation.TestGrammars;
+import computation.contextfreegrammar.*;
+import computation.parsetree.ParseTreeNode;
+
+/**
+ * Checks that every way of counting parse trees gives the number of trees
+ * the forest's iterator makes.
+ */
+public class TreeCountTest {
+
+	private static final ContextFreeGrammar BINARY = ContextFreeGrammar.fromString("S → S S | a | b");
+
+	private static final long PRIME = 1_000_000_007L;
+
+	@Test
+	public void catalanNumbers() {
+		// a word of n symbols has a tree for every way of bracketing it, which is the (n - 1)th Catalan number
+		CompiledGrammar grammar = CompiledGrammar.of(BINARY);
+		for(int n = 1; n <= 8; n++) {
+			Word w = word(n);
+			BigInteger expected = catalan(n - 1);
+			BitsetChart chart = BitsetChart.fill(grammar, w);
+			assertEquals(expected, chart.countTrees());
+			assertEquals(expected, chart.buildForest().countTrees());
+			assertEquals(expected.longValue(), new TreeCounter(chart).countExact());
+			assertEquals(expected.longValue() % 7, chart.countTrees(7));
+
+			List<ParseTreeNode> trees = chart.buildForest().trees().collect(Collectors.toList());
+			assertEquals(expected.longValue(), trees.size());
+			assertEquals("the trees are not all different", trees.size(), new HashSet<>(trees).size());
+			for(ParseTreeNode tree : trees) {
+				TestGrammars.assertParseTree(BINARY, tree, w);
+			}
+		}
+	}
+
+	@Test
+	public void countsWhichDontFitInALong() {
+		Word w = word(40);
+		BitsetChart chart = BitsetChart.fill(CompiledGrammar.of(BINARY), w);
+		BigInteger expected = catalan(39);
+		assertTrue(expected.bitLength() > 63);
+		assertEquals(expected, chart.countTrees());
+		assertEquals(expected, chart.buildForest().countTrees());
+		assertEquals(expected, new BitsetCYKParser().countTrees(BINARY, w));
+		assertEquals(expected.mod(BigInteger.valueOf(PRIME)).longValue(), chart.countTrees(PRIME));
+		assertEquals(expected.mod(BigInteger.valueOf(TreeCounter.MAX_MODULUS)).longValue(),
+				new TreeCounter(chart).countModulo(TreeCounter.MAX_MODULUS));
+		try {
+			new TreeCounter(chart).countExact();
+			fail("the count doesn't fit in a long");
+		} catch(ArithmeticException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void myGrammarAgreesWithTheIterator() {
+		ContextFreeGrammar cfg = TestGrammars.myGrammar();
+		CompiledGrammar grammar = CompiledGrammar.of(cfg);
+		for(Word w : TestGrammars.allWords(cfg, 1, 4)) {
+			BitsetChart chart = BitsetChart.fill(grammar, w);
+			ParseForest forest = chart.buildForest();
+			if(forest == null) {
+				assertEquals(w.toString(), BigInteger.ZERO, chart.countTrees());
+				assertEquals(w.toString(), 0, chart.countTrees(PRIME));
+				continue;
+			}
+			long trees = forest.trees().count();
+			assertEquals(w.toString(), BigInteger.valueOf(trees), chart.countTrees());
+			assertEquals(w.toString(), BigInteger.valueOf(trees), forest.countTrees());
+			assertEquals(w.toString(), trees, chart.countTrees(PRIME));
+		}
+	}
+
+	@Test
+	public void duplicateRulesAreCountedOnce() {
+		ContextFreeGrammar cfg = ContextFreeGrammar.fromString("S → S S | a | b\nS → S S | a");
+		for(int n = 1; n <= 6; n++) {
+			Word w = word(n);
+			BitsetChart chart = BitsetChart.fill(CompiledGrammar.of(cfg), w);
+			assertEquals(catalan(n - 1), chart.countTrees());
+			assertEquals(catalan(n - 1), chart.buildForest().countTrees());
+			Set<ParseTreeNode> trees = chart.buildForest().trees().collect(Collectors.toSet());
+			assertEquals(catalan(n - 1).longValue(), trees.size());
+		}
+	}
+
+	@Test
+	public void rejectedWordHasNoTrees() {
+		ContextFreeGrammar cfg = ContextFreeGrammar.simpleCNF();
+		Word w = new Word("0101");
+		BitsetChart chart = BitsetChart.fill(CompiledGrammar.of(cfg), w);
+		assertEquals(BigInteger.ZERO, chart.countTrees());
+		assertEquals(0, chart.countTrees(PRIME));
+		assertNull(chart.buildForest());
+		assertEquals(0, new BitsetCYKParser().parseTrees(cfg, w).count());
+	}
+
+	/**
+	 * Makes a word of a and b of a length.
+	 */
+	private static Word word(int length) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			sb.append(i % 3 == 1 ? 'b' : 'a');
+		}
+		return new Word(sb.toString());
+	}
+
+	private static BigInteger catalan(int n) {
+		BigInteger c = BigInteger.ONE;
+		for(int k = 0; k < n; k++) {
+			c = c.multiply(BigInteger.valueOf(2 * (2 * k + 1))).divide(BigInteger.valueOf(k + 2));
+		}
+		return c;
+	}
+
+}
@@ -0,0 +1,135 @@
+package computation.parsetree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.Test;
+
+import computation.TestGrammars;
+import computation.contextfreegrammar.*;
+import computation.parser.EarleyParser;
+
+/**
+ * Checks comparing trees and writing them out, on small trees and on trees
+ * too deep to walk with recursion.
+ */
+public class ParseTreeNodeTest {
+
+	/** Long enough that a recursive walk of its tree overflows the default stack. */
+	static final Word LONG_PRODUCT = product(10_000);
+
+	@Test
+	public void bracketedString() {
+		ParseTreeNode tree = new ParseTreeNode(Variable.of('A'), new ParseTreeNode(Variable.of('B'), new ParseTreeNode(Terminal.of('0'))),
+				new ParseTreeNode(Terminal.of('1')));
+		assertEquals("[A [B 0] 1]", tree.toBracketedString());
+		assertEquals("[S ε]", ParseTreeNode.emptyParseTree(Variable.of('S')).toBracketedString());
+		assertEquals("x", new ParseTreeNode(Terminal.of('x')).toBracketedString());
+	}
+
+	@Test
+	public void bracketedStringOfADeepTree() {
+		ParseTreeNode tree = new EarleyParser().generateParseTree(TestGrammars.myGrammar(), LONG_PRODUCT);
+		String bracketed = tree.toBracketedString();
+		// every symbol of the word is a leaf, and every other node has a pair of brackets
+		int leaves = 0;
+		int open = 0;
+		int close = 0;
+		for(String token : bracketed.split(" ")) {
+			if(token.startsWith("[")) {
+				open++;
+			} else {
+				leaves++;
+				close += token.length() - token.replace("]", "").length();
+			}
+		}
+		assertEquals(LONG_PRODUCT.length(), leaves);
+		assertEquals(open, close);
+	}
+
+	@Test
+	public void equalsAndHashCode() {
+		ParseTreeNode tree = new ParseTreeNode(Variable.of('A'), new ParseTreeNode(Variable.of('B'), new ParseTreeNode(Terminal.of('0'))),
+				new ParseTreeNode(Terminal.of('1')));
+		ParseTreeNode same = new ParseTreeNode(Variable.of('A'), new ParseTreeNode(Variable.of('B'), new ParseTreeNode(Terminal.of('0'))),
+				new ParseTreeNode(Terminal.of('1')));
+		assertEquals(tree, same);
+		assertEquals(tree.hashCode(), same.hashCode());
+		assertNotEquals(tree, new ParseTreeNode(Variable.of('A'), new ParseTreeNode(Variable.of('B'), new ParseTreeNode(Terminal.of('1'))),
+				new ParseTreeNode(Terminal.of('1'))));
+		assertNotEquals(tree, new ParseTreeNode(Variable.of('A'), new ParseTreeNode(Variable.of('B'), new ParseTreeNode(Terminal.of('0')))));
+		assertNotEquals(tree, null);
+		// the hash is the one the symbol and the list of children give, as it always was
+		assertEquals(31 * (31 + tree.getChildren().hashCode()) + Variable.of('A').hashCode(), tree.hashCode());
+	}
+
+	@Test
+	public void equalsAndHashCodeOfADeepTree() {
+		// the view of a compact tree, and the same tree made of nodes
+		ParseTreeNode view = new EarleyParser().generateParseTree(TestGrammars.myGrammar(), LONG_PRODUCT);
+		ParseTreeNode copy = copy(view, null);
+		assertEquals(view, copy);
+		assertEquals(copy, view);
+		assertEquals(view.hashCode(), copy.hashCode());
+
+		ParseTreeNode changed = copy(view, Terminal.of('1'));
+		assertNotEquals(view, changed);
+		assertNotEquals(changed, view);
+		assertNotEquals(view.hashCode(), changed.hashCode());
+	}
+
+	/**
+	 * Copies a tree into ordinary nodes without recursion, optionally
+	 * changing the symbol of its last leaf.
+	 */
+	private static ParseTreeNode copy(ParseTreeNode tree, Symbol lastLeaf) {
+		// the nodes in order with parents before children, then built from the end
+		List<ParseTreeNode> order = new ArrayList<>();
+		Deque<ParseTreeNode> stack = new ArrayDeque<>();
+		stack.push(tree);
+		while(!stack.isEmpty()) {
+			ParseTreeNode node = stack.pop();
+			order.add(node);
+			List<ParseTreeNode> children = node.getChildren();
+			for(int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+		Deque<ParseTreeNode> built = new ArrayDeque<>();
+		boolean changed = false;
+		for(int i = order.size() - 1; i >= 0; i--) {
+			ParseTreeNode node = order.get(i);
+			int children = node.getChildren().size();
+			if(children == 0) {
+				// the first leaf built is the last one in the word
+				Symbol symbol = lastLeaf != null && !changed ? lastLeaf : node.getSymbol();
+				changed = true;
+				built.push(symbol == null ? node : new ParseTreeNode(symbol));
+				continue;
+			}
+			List<ParseTreeNode> copies = new ArrayList<>();
+			for(int j = 0; j < children; j++) {
+				// the rightmost child was built first, so the leftmost is on top
+				copies.add(built.pop());
+			}
+			built.push(new ParseTreeNode(node.getSymbol(), copies));
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Makes the word 1*x*x... of a length.
+	 */
+	static Word product(int length) {
+		StringBuilder sb = new StringBuilder("1");
+		while(sb.length() + 2 <= length) {
+			sb.append("*x");
+		}
+		return new Word(sb.toString());
+	}
+
+}